@@ -32,6 +32,8 @@ public class NetworkCalibrator {
     private final double threshold;
     private final double cutOff;
     private final double departureTime;
+    // optional (may be null): time-dependent travel time for routing the od pairs. By default: free speed
+    private final TravelTime travelTime;
     private final List<Tuple<Id<Node>, Id<Node>>> odPairs = new ArrayList<>();
     private final Map<Tuple<Id<Node>, Id<Node>>, LeastCostPathCalculator.Path> pathMap = new HashMap<>();
     private final Map<Integer, Double> scores = new LinkedHashMap<>();
@@ -47,6 +49,7 @@ public class NetworkCalibrator {
         private double threshold = 0.05;
         private double cutOff = 0.5;
         private double departureTime = 3600;
+        private TravelTime travelTime = null;
 
         public Builder(Network network, NetworkValidatorBasedOnLocalData validator) {
             this.network = network;
@@ -76,6 +79,16 @@ public class NetworkCalibrator {
             this.departureTime = departureTime;
             return this;
         }
+
+        /**
+         * Route the od pairs with the given travel time at the departure time (instead of free speed). The travel time
+         * should be derived from the free speeds of the links (e.g., congestion factors), otherwise the calibration has
+         * no effect on the routed travel times.
+         */
+        public Builder setTravelTime(TravelTime travelTime) {
+            this.travelTime = travelTime;
+            return this;
+        }
     }
 
     private NetworkCalibrator(Builder builder) {
@@ -85,6 +98,7 @@ public class NetworkCalibrator {
         this.threshold = builder.threshold;
         this.cutOff = builder.cutOff;
         this.departureTime = builder.departureTime;
+        this.travelTime = builder.travelTime;
     }
 
     public void performCalibration(Path odPairsPath, int maxOdPairsUsed) throws IOException, InterruptedException {
@@ -186,7 +200,8 @@ public class NetworkCalibrator {
     }
 
     private Map<Tuple<Id<Node>, Id<Node>>, Double> calculateNormalizedTravelTime() throws InterruptedException {
-        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        TravelTime travelTime = this.travelTime != null ? this.travelTime : new QSimFreeSpeedTravelTime(1);
+        double routingTime = this.travelTime != null ? departureTime : 0;
         TravelDisutility travelDisutility = new TimeAsTravelDisutility(travelTime);
         LeastCostPathCalculator router = new SpeedyALTFactory().createPathCalculator(network, travelDisutility, travelTime);
 
@@ -196,7 +211,7 @@ public class NetworkCalibrator {
         for (Tuple<Id<Node>, Id<Node>> odPair : odPairs) {
             Node fromNode = network.getNodes().get(odPair.getFirst());
             Node toNode = network.getNodes().get(odPair.getSecond());
-            LeastCostPathCalculator.Path route = router.calcLeastCostPath(fromNode, toNode, 0, null, null);
+            LeastCostPathCalculator.Path route = router.calcLeastCostPath(fromNode, toNode, routingTime, null, null);
             double networkTravelTime = route.travelTime;
             pathMap.put(odPair, route);
             double apiTravelTime = validator.validate(fromNode, toNode, departureTime).getFirst();
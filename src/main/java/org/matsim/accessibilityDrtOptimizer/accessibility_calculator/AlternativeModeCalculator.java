@@ -1,38 +1,134 @@
 package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
 
+import ch.sbb.matsim.routing.pt.raptor.RaptorRoute;
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
 import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.contrib.drt.passenger.DrtRequest;
 import org.matsim.contrib.dvrp.path.VrpPaths;
 import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
 import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
-import org.matsim.core.router.DefaultRoutingRequest;
 import org.matsim.core.router.LinkWrapperFacility;
+import org.matsim.core.router.RoutingRequest;
 import org.matsim.core.router.speedy.SpeedyALTFactory;
 import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.facilities.Facility;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+import org.matsim.utils.objectattributes.attributable.AttributesImpl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class AlternativeModeCalculator {
+    // These are the default values from config file.
+    // TODO Consider read them from config directly.
+    public static final double WALK_BEELINE_DISTANCE_FACTOR = 1.3;
+    public static final double WALK_SPEED = 0.8333333333333333;
+
     private final SwissRailRaptor raptor;
     private final TravelTime travelTime;
     private final TravelDisutility travelDisutility;
     private final LeastCostPathCalculator router;
+    // optional (may be null): if it has a link index, the raptor is skipped for trips starting or ending at a link
+    // without a stop in the walk radius
+    private final TransitStopProximityIndex stopIndex;
+    // optional (may be null): pre-check of the bounded query, otherwise the raptor is always called
+    private final AlternativeModeLowerBound lowerBound;
+
+    // reused between the calls (the calculator is not thread-safe anyway)
+    private final ReusableRoutingRequest routingRequest = new ReusableRoutingRequest();
+    private final AlternativeModeResultSink resultBuffer = new AlternativeModeResultSink(1);
+    // indexed by the link id index, created on first use
+    private LinkWrapperFacility[] facilities = new LinkWrapperFacility[Id.getNumberOfIds(Link.class)];
+
+    /**
+     * Routing request without person and attributes, whose facilities and departure time are replaced for each trip.
+     */
+    private static final class ReusableRoutingRequest implements RoutingRequest {
+        private final Attributes attributes = new AttributesImpl();
+        private Facility fromFacility;
+        private Facility toFacility;
+        private double departureTime;
+
+        void set(Facility fromFacility, Facility toFacility, double departureTime) {
+            this.fromFacility = fromFacility;
+            this.toFacility = toFacility;
+            this.departureTime = departureTime;
+        }
+
+        @Override
+        public Facility getFromFacility() {
+            return fromFacility;
+        }
+
+        @Override
+        public Facility getToFacility() {
+            return toFacility;
+        }
+
+        @Override
+        public double getDepartureTime() {
+            return departureTime;
+        }
+
+        @Override
+        public Person getPerson() {
+            return null;
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return attributes;
+        }
+    }
 
 
     public AlternativeModeCalculator(SwissRailRaptor raptor, Network network, TravelTime travelTime, TravelDisutility travelDisutility) {
+        this(raptor, network, travelTime, travelDisutility, new SpeedyALTFactory());
+    }
+
+    /**
+     * Passing the same router factory to several calculators lets them share the routing graph and landmarks
+     * (e.g., one calculator per worker thread).
+     */
+    public AlternativeModeCalculator(SwissRailRaptor raptor, Network network, TravelTime travelTime, TravelDisutility travelDisutility,
+                                     LeastCostPathCalculatorFactory routerFactory) {
+        this(raptor, network, travelTime, travelDisutility, routerFactory, null);
+    }
+
+    /**
+     * @param stopIndex stop index (optional, may be null). If it is created with the network, trips starting or ending
+     *                  at a link without a stop within the walk radius are calculated as walk trips without calling the
+     *                  raptor (an approximation, see {@link TransitStopProximityIndex})
+     */
+    public AlternativeModeCalculator(SwissRailRaptor raptor, Network network, TravelTime travelTime, TravelDisutility travelDisutility,
+                                     LeastCostPathCalculatorFactory routerFactory, TransitStopProximityIndex stopIndex) {
+        this(raptor, network, travelTime, travelDisutility, routerFactory, stopIndex, null);
+    }
+
+    /**
+     * @param lowerBound lower bound (optional, may be null) checked by the bounded query before calling the raptor
+     */
+    public AlternativeModeCalculator(SwissRailRaptor raptor, Network network, TravelTime travelTime, TravelDisutility travelDisutility,
+                                     LeastCostPathCalculatorFactory routerFactory, TransitStopProximityIndex stopIndex,
+                                     AlternativeModeLowerBound lowerBound) {
         this.raptor = raptor;
         this.travelTime = travelTime;
         this.travelDisutility = travelDisutility;
-        this.router = new SpeedyALTFactory().createPathCalculator(network, travelDisutility, travelTime);
+        this.router = routerFactory.createPathCalculator(network, travelDisutility, travelTime);
+        this.stopIndex = stopIndex;
+        this.lowerBound = lowerBound;
     }
 
     public AlternativeModeCalculator(SwissRailRaptor raptor, Network network) {
@@ -40,6 +136,8 @@ public class AlternativeModeCalculator {
         this.travelTime = new QSimFreeSpeedTravelTime(1);
         this.travelDisutility = new TimeAsTravelDisutility(travelTime);
         this.router = new SpeedyALTFactory().createPathCalculator(network, travelDisutility, travelTime);
+        this.stopIndex = null;
+        this.lowerBound = null;
     }
 
     public AlternativeModeTripData calculateAlternativeTripData(DrtRequest drtRequest) {
@@ -47,48 +145,192 @@ public class AlternativeModeCalculator {
                 drtRequest.getToLink(), drtRequest.getEarliestStartTime());
     }
 
+    /**
+     * Only the PT side is calculated. The direct ride time is already known (e.g., from the DRT route of the request),
+     * so that no car path needs to be computed.
+     */
+    public AlternativeModeTripData calculateAlternativeTripData(DrtRequest drtRequest, double directCarTravelTime) {
+        return calculateAlternativeTripData(drtRequest.getPassengerIds().get(0).toString(), drtRequest.getFromLink(),
+                drtRequest.getToLink(), drtRequest.getEarliestStartTime(), directCarTravelTime);
+    }
+
+    /**
+     * Only the travel time of the car path is calculated (same as the travel time of the {@link VrpPaths} path), without
+     * building the path object.
+     */
+    public double calculateDirectCarTravelTime(Link fromLink, Link toLink, double departureTime) {
+        if (fromLink == toLink) {
+            return 0;
+        }
+        LeastCostPathCalculator.Path path = router.calcLeastCostPath(fromLink.getToNode(), toLink.getFromNode(),
+                departureTime + VrpPaths.FIRST_LINK_TT, null, null);
+        double lastLinkEnterTime = departureTime + VrpPaths.FIRST_LINK_TT + path.travelTime;
+        return lastLinkEnterTime + VrpPaths.getLastLinkTT(travelTime, toLink, lastLinkEnterTime) - departureTime;
+    }
+
     public AlternativeModeTripData calculateAlternativeTripData(String tripId, Link fromLink, Link toLink, double departureTime) {
-        double directCarTravelTime = VrpPaths.calcAndCreatePath(fromLink, toLink, departureTime, router, travelTime).getTravelTime();
+        double directCarTravelTime = calculateDirectCarTravelTime(fromLink, toLink, departureTime);
+        return calculateAlternativeTripData(tripId, fromLink, toLink, departureTime, directCarTravelTime);
+    }
 
-        Coord fromCoord = fromLink.getToNode().getCoord();
-        Coord toCoord = toLink.getToNode().getCoord();
-        List<? extends PlanElement> legs = raptor.calcRoute(DefaultRoutingRequest.withoutAttributes
-                (new LinkWrapperFacility(fromLink), new LinkWrapperFacility(toLink), departureTime, null));
+    /**
+     * Same as {@link #calculateAlternativeTripData(String, Link, Link, double)}, but with a known direct car travel
+     * time (only the PT side is calculated).
+     */
+    public AlternativeModeTripData calculateAlternativeTripData(String tripId, Link fromLink, Link toLink, double departureTime,
+                                                                double directCarTravelTime) {
+        calculatePtSide(fromLink, toLink, departureTime, directCarTravelTime, resultBuffer, 0);
+        return new AlternativeModeTripData(tripId, departureTime, fromLink.getToNode().getCoord(), toLink.getToNode().getCoord(),
+                directCarTravelTime, resultBuffer.actualTotalTravelTime(0),
+                AlternativeModeTripDataStore.codeToMode(resultBuffer.modeCode(0)), resultBuffer.totalWalkDistance(0));
+    }
+
+    /**
+     * Low-allocation variant for batch runs: the results are written into slot {@code index} of the sink instead of
+     * creating an {@link AlternativeModeTripData}. The facilities of the links and the routing request are reused (the
+     * legs are still created by the raptor).
+     */
+    public void calculateAlternativeTripData(Link fromLink, Link toLink, double departureTime, AlternativeModeResultSink sink, int index) {
+        calculatePtSide(fromLink, toLink, departureTime, calculateDirectCarTravelTime(fromLink, toLink, departureTime), sink, index);
+    }
+
+    /**
+     * Calculates the PT side of the trip and writes it with the given direct car travel time into slot {@code index}
+     * of the sink. All the trip data and bounded queries end here.
+     */
+    protected void calculatePtSide(Link fromLink, Link toLink, double departureTime, double directCarTravelTime,
+                                   AlternativeModeResultSink sink, int index) {
+        List<? extends PlanElement> legs = null;
+        if (isPtReachable(fromLink, toLink)) {
+            routingRequest.set(getFacility(fromLink), getFacility(toLink), departureTime);
+            legs = raptor.calcRoute(routingRequest);
+        }
 
         double actualTotalTravelTime = 0;
         double totalWalkDistance = 0;
-        String mode;
+        byte modeCode;
 
         if (legs == null) {
             // No route can be found -> walk as alternative mode
-            double euclideanDistance = CoordUtils.calcEuclideanDistance(fromCoord, toCoord);
-            double walkingDistance = euclideanDistance * 1.3;
-            // This is the default value from config file.
-            // TODO Consider read it from config directly.
-            actualTotalTravelTime = walkingDistance / 0.8333333333333333;
+            double walkingDistance = calculateFallbackWalkDistance(fromLink, toLink);
+            actualTotalTravelTime = walkingDistance / WALK_SPEED;
             totalWalkDistance = walkingDistance;
-            mode = TransportMode.walk;
+            modeCode = AlternativeModeTripDataStore.MODE_WALK;
         } else if (legs.size() == 1) {
             // Direct walk is faster
             Leg walking = (Leg) legs.get(0);
             actualTotalTravelTime = walking.getTravelTime().seconds();
             totalWalkDistance = walking.getRoute().getDistance();
-            mode = TransportMode.walk;
+            modeCode = AlternativeModeTripDataStore.MODE_WALK;
         } else {
             // A suitable PT route is found (usually it is walk-pt-walk, walk-pt-pt-walk, walk-pt-walk-pt-walk, ...)
             double arrivalTime = Double.NaN;
-            for (PlanElement planElement : legs) {
-                Leg leg = (Leg) planElement;
+            for (int i = 0; i < legs.size(); i++) {
+                Leg leg = (Leg) legs.get(i);
                 if (leg.getMode().equals(TransportMode.walk)) {
                     totalWalkDistance += leg.getRoute().getDistance();
                 }
                 arrivalTime = leg.getDepartureTime().seconds() + leg.getTravelTime().seconds();
 //                actualTotalTravelTime += leg.getTravelTime().seconds();
             }
-            mode = TransportMode.pt;
+            modeCode = AlternativeModeTripDataStore.MODE_PT;
             actualTotalTravelTime = arrivalTime - departureTime;
         }
 
-        return new AlternativeModeTripData(tripId, departureTime, fromCoord, toCoord, directCarTravelTime, actualTotalTravelTime, mode, totalWalkDistance);
+        sink.set(index, directCarTravelTime, actualTotalTravelTime, totalWalkDistance, modeCode);
+    }
+
+    private double calculateFallbackWalkDistance(Link fromLink, Link toLink) {
+        return CoordUtils.calcEuclideanDistance(fromLink.getToNode().getCoord(), toLink.getToNode().getCoord()) * WALK_BEELINE_DISTANCE_FACTOR;
+    }
+
+    private boolean isPtReachable(Link fromLink, Link toLink) {
+        return stopIndex == null || !stopIndex.hasLinkIndex() ||
+                (stopIndex.hasStopWithinWalkRadius(fromLink) && stopIndex.hasStopWithinWalkRadius(toLink));
+    }
+
+    /**
+     * Threshold-bounded query for rejection decisions, which only need to know whether the alternative travel time is
+     * below the bound. If a lower bound is provided, the lower bound of the travel time (see
+     * {@link AlternativeModeLowerBound}, measured between the same facilities as the raptor query) is checked first.
+     * If it is not below the bound, the alternative is clearly poor and the raptor is not called. Otherwise, the raptor
+     * is called. (The raptor offers no hook to prune its labels by the bound, so that the pruning is limited to this
+     * pre-check.)
+     *
+     * @param exact whether the exact travel time is required (no pre-check, outcome {@link BoundedTravelTime.Outcome#EXACT})
+     */
+    public BoundedTravelTime calculateBoundedTravelTime(Link fromLink, Link toLink, double departureTime, double bound, boolean exact) {
+        if (!exact && lowerBound != null) {
+            double travelTimeLowerBound = calculateLowerBound(fromLink, toLink);
+            if (travelTimeLowerBound >= bound) {
+                return new BoundedTravelTime(BoundedTravelTime.Outcome.ABOVE, travelTimeLowerBound);
+            }
+        }
+        // the car side is not needed
+        calculatePtSide(fromLink, toLink, departureTime, Double.NaN, resultBuffer, 0);
+        double travelTime = resultBuffer.actualTotalTravelTime(0);
+        if (exact) {
+            return new BoundedTravelTime(BoundedTravelTime.Outcome.EXACT, travelTime);
+        }
+        return new BoundedTravelTime(travelTime < bound ? BoundedTravelTime.Outcome.BELOW : BoundedTravelTime.Outcome.ABOVE, travelTime);
+    }
+
+    private double calculateLowerBound(Link fromLink, Link toLink) {
+        // without a route, the trip is calculated as a walk trip between the to nodes of the links
+        double fallbackWalkTravelTime = calculateFallbackWalkDistance(fromLink, toLink) / WALK_SPEED;
+        double raptorLowerBound = isPtReachable(fromLink, toLink) ?
+                lowerBound.calculate(getFacility(fromLink).getCoord(), getFacility(toLink).getCoord()) : Double.POSITIVE_INFINITY;
+        return Math.min(raptorLowerBound, AlternativeModeLowerBound.SAFETY_FACTOR * fallbackWalkTravelTime);
+    }
+
+    private LinkWrapperFacility getFacility(Link link) {
+        int index = link.getId().index();
+        if (index >= facilities.length) {
+            facilities = Arrays.copyOf(facilities, Math.max(index + 1, facilities.length * 2));
+        }
+        LinkWrapperFacility facility = facilities[index];
+        if (facility == null) {
+            facility = new LinkWrapperFacility(link);
+            facilities[index] = facility;
+        }
+        return facility;
+    }
+
+    /**
+     * Range query over the departure window [departureTime - window, departureTime + window]: all Pareto-optimal PT
+     * connections departing within the window are collected into an earliest-arrival step function.
+     */
+    public TravelTimeProfile calculateTravelTimeProfile(Link fromLink, Link toLink, double departureTime, double window) {
+        double earliestDepartureTime = Math.max(departureTime - window, 0);
+        double latestDepartureTime = departureTime + window;
+        Coord fromCoord = fromLink.getToNode().getCoord();
+        Coord toCoord = toLink.getToNode().getCoord();
+        double walkTravelTime = CoordUtils.calcEuclideanDistance(fromCoord, toCoord) * WALK_BEELINE_DISTANCE_FACTOR / WALK_SPEED;
+
+        List<RaptorRoute> routes = null;
+        if (isPtReachable(fromLink, toLink)) {
+            routes = raptor.calcRoutes(getFacility(fromLink), getFacility(toLink),
+                    earliestDepartureTime, departureTime, latestDepartureTime, null, null);
+        }
+
+        List<RaptorRoute> ptRoutes = new ArrayList<>();
+        if (routes != null) {
+            for (RaptorRoute route : routes) {
+                // the direct walk is not part of the step function
+                for (RaptorRoute.RoutePart part : route.getParts()) {
+                    if (part.line != null) {
+                        ptRoutes.add(route);
+                        break;
+                    }
+                }
+            }
+        }
+        double[] departureTimes = new double[ptRoutes.size()];
+        double[] arrivalTimes = new double[ptRoutes.size()];
+        for (int i = 0; i < ptRoutes.size(); i++) {
+            departureTimes[i] = ptRoutes.get(i).getDepartureTime();
+            arrivalTimes[i] = ptRoutes.get(i).getDepartureTime() + ptRoutes.get(i).getTravelTime();
+        }
+        return TravelTimeProfile.of(earliestDepartureTime, latestDepartureTime, walkTravelTime, departureTimes, arrivalTimes);
     }
 }
@@ -0,0 +1,74 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import ch.sbb.matsim.config.SwissRailRaptorConfigGroup;
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.RoutingConfigGroup;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+/**
+ * Lower bound of the travel time of the raptor result between two coordinates (direct walk, or access and egress walk
+ * to the nearest stops plus the remaining beeline distance at the max transit speed). The walk speed and the beeline
+ * distance factor are the ones of the (teleported) walk mode in the routing config, which the raptor uses for the
+ * direct walk and the access and egress walks. The bound is reduced by a safety factor, so that rounding in the raptor
+ * (e.g., of the walk times) cannot make it exceed the actual travel time.
+ * <p>
+ * The bound assumes walk access and egress, i.e., it is not valid with intermodal access and egress.
+ * The index is read-only and can be shared by several calculators.
+ */
+public class AlternativeModeLowerBound {
+    public static final double SAFETY_FACTOR = 0.9;
+
+    private final TransitStopProximityIndex stopIndex;
+    private final double walkSpeed;
+    private final double walkBeelineDistanceFactor;
+
+    public AlternativeModeLowerBound(TransitStopProximityIndex stopIndex, Config config) {
+        Preconditions.checkArgument(!ConfigUtils.addOrGetModule(config, SwissRailRaptorConfigGroup.class).isUseIntermodalAccessEgress(),
+                "The lower bound is not valid with intermodal access and egress");
+        RoutingConfigGroup.TeleportedModeParams walkParams = config.routing().getTeleportedModeParams().get(TransportMode.walk);
+        Preconditions.checkArgument(walkParams != null && walkParams.getTeleportedModeSpeed() != null,
+                "The lower bound requires teleported walk with a speed in the routing config");
+        this.stopIndex = stopIndex;
+        this.walkSpeed = walkParams.getTeleportedModeSpeed();
+        this.walkBeelineDistanceFactor = walkParams.getBeelineDistanceFactor() == null ? 1 : walkParams.getBeelineDistanceFactor();
+    }
+
+    public double getWalkSpeed() {
+        return walkSpeed;
+    }
+
+    public double getWalkBeelineDistanceFactor() {
+        return walkBeelineDistanceFactor;
+    }
+
+    /**
+     * @return lower bound of the travel time between the coordinates of the from and to facilities of the routing request
+     */
+    public double calculate(Coord fromCoord, Coord toCoord) {
+        double distance = CoordUtils.calcEuclideanDistance(fromCoord, toCoord);
+        double walkTravelTime = calculateWalkTravelTime(distance);
+        double accessDistance = stopIndex.getDistanceToNearestStop(fromCoord);
+        double egressDistance = stopIndex.getDistanceToNearestStop(toCoord);
+        if (Double.isInfinite(accessDistance) || Double.isInfinite(egressDistance)) {
+            return SAFETY_FACTOR * walkTravelTime;
+        }
+        // Walking to the nearest stops and covering the rest of the beeline distance at the max speed (transit, or
+        // transfer walks if they are faster) is the fastest possible PT connection (no waiting, no detour)
+        double beelineWalkSpeed = walkSpeed / walkBeelineDistanceFactor;
+        double maxSpeed = Math.max(stopIndex.getMaxTransitSpeed(), beelineWalkSpeed);
+        double ptTravelTime = calculateWalkTravelTime(accessDistance + egressDistance) +
+                Math.max(distance - accessDistance - egressDistance, 0) / maxSpeed;
+        return SAFETY_FACTOR * Math.min(walkTravelTime, ptTravelTime);
+    }
+
+    /**
+     * @return walk travel time for the beeline distance
+     */
+    public double calculateWalkTravelTime(double beelineDistance) {
+        return beelineDistance * walkBeelineDistanceFactor / walkSpeed;
+    }
+}
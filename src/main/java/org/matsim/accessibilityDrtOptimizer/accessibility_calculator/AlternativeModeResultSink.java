@@ -0,0 +1,48 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+/**
+ * Caller-supplied, primitive storage of the alternative mode results of many trips (one slot per trip). It is filled
+ * by the low-allocation variant of {@link AlternativeModeCalculator} without creating an {@link AlternativeModeTripData}
+ * per trip. The mode is stored as the code of {@link AlternativeModeTripDataStore}. Writing different slots from
+ * different threads is safe.
+ */
+public final class AlternativeModeResultSink {
+    private final double[] directCarTravelTimes;
+    private final double[] actualTotalTravelTimes;
+    private final double[] totalWalkDistances;
+    private final byte[] modeCodes;
+
+    public AlternativeModeResultSink(int capacity) {
+        this.directCarTravelTimes = new double[capacity];
+        this.actualTotalTravelTimes = new double[capacity];
+        this.totalWalkDistances = new double[capacity];
+        this.modeCodes = new byte[capacity];
+    }
+
+    public int capacity() {
+        return modeCodes.length;
+    }
+
+    public void set(int i, double directCarTravelTime, double actualTotalTravelTime, double totalWalkDistance, byte modeCode) {
+        directCarTravelTimes[i] = directCarTravelTime;
+        actualTotalTravelTimes[i] = actualTotalTravelTime;
+        totalWalkDistances[i] = totalWalkDistance;
+        modeCodes[i] = modeCode;
+    }
+
+    public double directCarTravelTime(int i) {
+        return directCarTravelTimes[i];
+    }
+
+    public double actualTotalTravelTime(int i) {
+        return actualTotalTravelTimes[i];
+    }
+
+    public double totalWalkDistance(int i) {
+        return totalWalkDistances[i];
+    }
+
+    public byte modeCode(int i) {
+        return modeCodes[i];
+    }
+}
@@ -0,0 +1,187 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.common.zones.Zone;
+import org.matsim.contrib.common.zones.ZoneSystem;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Zone-to-zone skim matrix of the alternative modes: PT (or walk, if faster) travel time and walk distance per
+ * origin zone x destination zone x departure time bin, and the free-flow car travel time per origin zone x destination
+ * zone. All values are stored in flat primitive arrays, and links are resolved to zones through a precomputed array
+ * (indexed by the link id index), so that a lookup is constant-time and allocation-free.
+ * The matrix is built by {@link org.matsim.accessibilityDrtOptimizer.prepare.PrepareAlternativeModeSkims}.
+ */
+public class AlternativeModeSkimMatrix {
+    private static final int MAGIC = 0x414D534B; // "AMSK"
+    private static final int VERSION = 1;
+
+    private final List<Id<Zone>> zoneIds;
+    private final int numZones;
+    private final int timeBinSize;
+    private final int numTimeBins;
+
+    private final float[] ptTravelTimes;
+    private final float[] walkDistances;
+    private final float[] carTravelTimes;
+
+    private final int[] linkZoneIndices;
+
+    public AlternativeModeSkimMatrix(List<Id<Zone>> zoneIds, int timeBinSize, int numTimeBins, Network network, ZoneSystem zoneSystem) {
+        Preconditions.checkArgument(timeBinSize > 0, "Time bin size must be positive");
+        Preconditions.checkArgument(numTimeBins > 0, "Number of time bins must be positive");
+        this.zoneIds = List.copyOf(zoneIds);
+        this.numZones = zoneIds.size();
+        this.timeBinSize = timeBinSize;
+        this.numTimeBins = numTimeBins;
+        this.ptTravelTimes = new float[numZones * numZones * numTimeBins];
+        this.walkDistances = new float[numZones * numZones * numTimeBins];
+        this.carTravelTimes = new float[numZones * numZones];
+        Arrays.fill(ptTravelTimes, Float.NaN);
+        Arrays.fill(walkDistances, Float.NaN);
+        Arrays.fill(carTravelTimes, Float.NaN);
+
+        Map<Id<Zone>, Integer> zoneIndices = new HashMap<>();
+        for (int i = 0; i < numZones; i++) {
+            zoneIndices.put(zoneIds.get(i), i);
+        }
+        this.linkZoneIndices = new int[Id.getNumberOfIds(Link.class)];
+        Arrays.fill(linkZoneIndices, -1);
+        for (Link link : network.getLinks().values()) {
+            zoneSystem.getZoneForLinkId(link.getId()).ifPresent(zone ->
+                    linkZoneIndices[link.getId().index()] = zoneIndices.getOrDefault(zone.getId(), -1));
+        }
+    }
+
+    public List<Id<Zone>> getZoneIds() {
+        return zoneIds;
+    }
+
+    public int getTimeBinSize() {
+        return timeBinSize;
+    }
+
+    public int getNumTimeBins() {
+        return numTimeBins;
+    }
+
+    /**
+     * @return index of the zone of the link, or -1 if the link is not covered by the zonal system
+     */
+    public int getZoneIndex(Link link) {
+        int linkIndex = link.getId().index();
+        return linkIndex < linkZoneIndices.length ? linkZoneIndices[linkIndex] : -1;
+    }
+
+    public int getTimeBin(double time) {
+        return Math.min(Math.max((int) (time / timeBinSize), 0), numTimeBins - 1);
+    }
+
+    /**
+     * @return the alternative mode (PT or walk) travel time, or NaN if one of the links is outside the zonal system
+     */
+    public double getPtTravelTime(Link fromLink, Link toLink, double departureTime) {
+        int fromZone = getZoneIndex(fromLink);
+        int toZone = getZoneIndex(toLink);
+        if (fromZone < 0 || toZone < 0) {
+            return Double.NaN;
+        }
+        return ptTravelTimes[index(fromZone, toZone, getTimeBin(departureTime))];
+    }
+
+    /**
+     * @return the walk distance of the alternative mode trip, or NaN if one of the links is outside the zonal system
+     */
+    public double getWalkDistance(Link fromLink, Link toLink, double departureTime) {
+        int fromZone = getZoneIndex(fromLink);
+        int toZone = getZoneIndex(toLink);
+        if (fromZone < 0 || toZone < 0) {
+            return Double.NaN;
+        }
+        return walkDistances[index(fromZone, toZone, getTimeBin(departureTime))];
+    }
+
+    /**
+     * @return the free-flow car travel time, or NaN if one of the links is outside the zonal system
+     */
+    public double getCarTravelTime(Link fromLink, Link toLink) {
+        int fromZone = getZoneIndex(fromLink);
+        int toZone = getZoneIndex(toLink);
+        if (fromZone < 0 || toZone < 0) {
+            return Double.NaN;
+        }
+        return carTravelTimes[fromZone * numZones + toZone];
+    }
+
+    public void setPtTravelTime(int fromZone, int toZone, int timeBin, double ptTravelTime, double walkDistance) {
+        ptTravelTimes[index(fromZone, toZone, timeBin)] = (float) ptTravelTime;
+        walkDistances[index(fromZone, toZone, timeBin)] = (float) walkDistance;
+    }
+
+    public void setCarTravelTime(int fromZone, int toZone, double carTravelTime) {
+        carTravelTimes[fromZone * numZones + toZone] = (float) carTravelTime;
+    }
+
+    private int index(int fromZone, int toZone, int timeBin) {
+        return (fromZone * numZones + toZone) * numTimeBins + timeBin;
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(timeBinSize);
+            out.writeInt(numTimeBins);
+            out.writeInt(numZones);
+            for (Id<Zone> zoneId : zoneIds) {
+                out.writeUTF(zoneId.toString());
+            }
+            for (float value : ptTravelTimes) {
+                out.writeFloat(value);
+            }
+            for (float value : walkDistances) {
+                out.writeFloat(value);
+            }
+            for (float value : carTravelTimes) {
+                out.writeFloat(value);
+            }
+        }
+    }
+
+    /**
+     * Reads the skim matrix. The zonal system must contain the zones the matrix was built with (e.g., the same square
+     * grid), otherwise the links of the unknown zones are treated as outside the zonal system.
+     */
+    public static AlternativeModeSkimMatrix read(Path path, Network network, ZoneSystem zoneSystem) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            Preconditions.checkArgument(in.readInt() == MAGIC, "Not an alternative mode skim file: " + path);
+            Preconditions.checkArgument(in.readInt() == VERSION, "Unsupported version of alternative mode skim file: " + path);
+            int timeBinSize = in.readInt();
+            int numTimeBins = in.readInt();
+            int numZones = in.readInt();
+            List<Id<Zone>> zoneIds = new ArrayList<>(numZones);
+            for (int i = 0; i < numZones; i++) {
+                zoneIds.add(Id.create(in.readUTF(), Zone.class));
+            }
+
+            AlternativeModeSkimMatrix skims = new AlternativeModeSkimMatrix(zoneIds, timeBinSize, numTimeBins, network, zoneSystem);
+            for (int i = 0; i < skims.ptTravelTimes.length; i++) {
+                skims.ptTravelTimes[i] = in.readFloat();
+            }
+            for (int i = 0; i < skims.walkDistances.length; i++) {
+                skims.walkDistances[i] = in.readFloat();
+            }
+            for (int i = 0; i < skims.carTravelTimes.length; i++) {
+                skims.carTravelTimes[i] = in.readFloat();
+            }
+            return skims;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Fast estimate of the alternative mode travel time (actual total travel time), trained offline from the output of
+ * {@link org.matsim.accessibilityDrtOptimizer.prepare.PrepareAlternativeModeData}. For each time bin, a linear model
+ * over the beeline distance and the distances to the nearest stops (access + egress) is fitted, together with the
+ * empirical residual quantiles as confidence interval. The stop distances are precomputed for each link, so that an
+ * estimate only requires a few arithmetic operations and no allocation.
+ */
+public class AlternativeModeTravelTimeEstimator {
+    private static final Logger log = LogManager.getLogger(AlternativeModeTravelTimeEstimator.class);
+    private static final String TIME_BIN_SIZE = "time_bin_size";
+    private static final List<String> TITLE_ROW = List.of("time_bin", "intercept", "beeline_distance", "stop_distance",
+            "lower_residual", "upper_residual");
+    // time bins with fewer trips use the model fitted over all trips
+    private static final int MIN_TRIPS_PER_TIME_BIN = 30;
+    // trips far away from any stop are walk trips anyway, larger stop distances do not add information
+    private static final double MAX_STOP_DISTANCE = 5000;
+    private static final int NUM_FEATURES = 3;
+
+    private final int timeBinSize;
+    // [time bin][intercept, beeline distance (km), access + egress stop distance (km)]
+    private final double[][] coefficients;
+    private final double[] lowerResiduals;
+    private final double[] upperResiduals;
+    // indexed by the link id index: distance (km) between the to node of the link and the nearest stop
+    private final float[] linkStopDistances;
+
+    private AlternativeModeTravelTimeEstimator(int timeBinSize, double[][] coefficients, double[] lowerResiduals,
+                                               double[] upperResiduals, Network network, TransitStopProximityIndex stopIndex) {
+        this.timeBinSize = timeBinSize;
+        this.coefficients = coefficients;
+        this.lowerResiduals = lowerResiduals;
+        this.upperResiduals = upperResiduals;
+        this.linkStopDistances = new float[Id.getNumberOfIds(Link.class)];
+        for (Link link : network.getLinks().values()) {
+            linkStopDistances[link.getId().index()] = (float) getStopDistance(link.getToNode().getCoord(), stopIndex);
+        }
+    }
+
+    private static double getStopDistance(Coord coord, TransitStopProximityIndex stopIndex) {
+        return Math.min(stopIndex.getDistanceToNearestStop(coord), MAX_STOP_DISTANCE) / 1000;
+    }
+
+    private int getTimeBin(double departureTime) {
+        return Math.min(Math.max((int) (departureTime / timeBinSize), 0), coefficients.length - 1);
+    }
+
+    public double estimate(Link fromLink, Link toLink, double departureTime) {
+        double[] c = coefficients[getTimeBin(departureTime)];
+        double beelineDistance = CoordUtils.calcEuclideanDistance(fromLink.getToNode().getCoord(), toLink.getToNode().getCoord()) / 1000;
+        double stopDistance = linkStopDistances[fromLink.getId().index()] + linkStopDistances[toLink.getId().index()];
+        return c[0] + c[1] * beelineDistance + c[2] * stopDistance;
+    }
+
+    public double getLowerBound(Link fromLink, Link toLink, double departureTime) {
+        return estimate(fromLink, toLink, departureTime) + lowerResiduals[getTimeBin(departureTime)];
+    }
+
+    public double getUpperBound(Link fromLink, Link toLink, double departureTime) {
+        return estimate(fromLink, toLink, departureTime) + upperResiduals[getTimeBin(departureTime)];
+    }
+
+    /**
+     * @param confidence share of the trips within the confidence interval (e.g., 0.95)
+     */
+    public static AlternativeModeTravelTimeEstimator train(AlternativeModeTripDataStore tripData, Network network,
+                                                           TransitStopProximityIndex stopIndex, int timeBinSize,
+                                                           int numTimeBins, double confidence) {
+        Preconditions.checkArgument(tripData.size() > NUM_FEATURES, "Not enough trips for training");
+        Preconditions.checkArgument(confidence > 0 && confidence < 1, "Confidence must be within (0, 1)");
+        int n = tripData.size();
+        double[][] features = new double[n][];
+        int[] timeBins = new int[n];
+        List<List<Integer>> tripsPerTimeBin = new ArrayList<>();
+        for (int t = 0; t < numTimeBins; t++) {
+            tripsPerTimeBin.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            Coord fromCoord = tripData.fromCoord(i);
+            Coord toCoord = tripData.toCoord(i);
+            features[i] = new double[]{1, CoordUtils.calcEuclideanDistance(fromCoord, toCoord) / 1000,
+                    getStopDistance(fromCoord, stopIndex) + getStopDistance(toCoord, stopIndex)};
+            timeBins[i] = Math.min(Math.max((int) (tripData.departureTime(i) / timeBinSize), 0), numTimeBins - 1);
+            tripsPerTimeBin.get(timeBins[i]).add(i);
+        }
+
+        List<Integer> allTrips = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            allTrips.add(i);
+        }
+        double[] globalCoefficients = fit(allTrips, features, tripData);
+        double[] globalResiduals = getResidualQuantiles(allTrips, globalCoefficients, features, tripData, confidence);
+
+        double[][] coefficients = new double[numTimeBins][];
+        double[] lowerResiduals = new double[numTimeBins];
+        double[] upperResiduals = new double[numTimeBins];
+        for (int t = 0; t < numTimeBins; t++) {
+            List<Integer> trips = tripsPerTimeBin.get(t);
+            if (trips.size() < MIN_TRIPS_PER_TIME_BIN) {
+                coefficients[t] = globalCoefficients;
+                lowerResiduals[t] = globalResiduals[0];
+                upperResiduals[t] = globalResiduals[1];
+            } else {
+                coefficients[t] = fit(trips, features, tripData);
+                double[] residuals = getResidualQuantiles(trips, coefficients[t], features, tripData, confidence);
+                lowerResiduals[t] = residuals[0];
+                upperResiduals[t] = residuals[1];
+            }
+        }
+
+        AlternativeModeTravelTimeEstimator estimator = new AlternativeModeTravelTimeEstimator(timeBinSize, coefficients,
+                lowerResiduals, upperResiduals, network, stopIndex);
+        double absoluteError = 0;
+        int withinInterval = 0;
+        for (int i = 0; i < n; i++) {
+            double residual = tripData.actualTotalTravelTime(i) - predict(coefficients[timeBins[i]], features[i]);
+            absoluteError += Math.abs(residual);
+            if (residual >= lowerResiduals[timeBins[i]] && residual <= upperResiduals[timeBins[i]]) {
+                withinInterval++;
+            }
+        }
+        log.info("Alternative mode travel time estimator trained on " + n + " trips: mean absolute error = " +
+                absoluteError / n + " s, share of trips within the confidence interval = " + (double) withinInterval / n);
+        return estimator;
+    }
+
+    private static double predict(double[] coefficients, double[] features) {
+        double prediction = 0;
+        for (int k = 0; k < NUM_FEATURES; k++) {
+            prediction += coefficients[k] * features[k];
+        }
+        return prediction;
+    }
+
+    /**
+     * Least squares via the normal equations (Gaussian elimination with partial pivoting). A small ridge term keeps
+     * the system solvable, if a feature is constant within the trips (e.g., all trips next to a stop).
+     */
+    private static double[] fit(List<Integer> trips, double[][] features, AlternativeModeTripDataStore tripData) {
+        double[][] a = new double[NUM_FEATURES][NUM_FEATURES + 1];
+        for (int i : trips) {
+            double y = tripData.actualTotalTravelTime(i);
+            for (int j = 0; j < NUM_FEATURES; j++) {
+                for (int k = 0; k < NUM_FEATURES; k++) {
+                    a[j][k] += features[i][j] * features[i][k];
+                }
+                a[j][NUM_FEATURES] += features[i][j] * y;
+            }
+        }
+        for (int j = 0; j < NUM_FEATURES; j++) {
+            a[j][j] += 1e-6 * trips.size();
+        }
+
+        for (int col = 0; col < NUM_FEATURES; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < NUM_FEATURES; row++) {
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+                    pivot = row;
+                }
+            }
+            double[] tmp = a[col];
+            a[col] = a[pivot];
+            a[pivot] = tmp;
+            for (int row = col + 1; row < NUM_FEATURES; row++) {
+                double factor = a[row][col] / a[col][col];
+                for (int k = col; k <= NUM_FEATURES; k++) {
+                    a[row][k] -= factor * a[col][k];
+                }
+            }
+        }
+        double[] coefficients = new double[NUM_FEATURES];
+        for (int row = NUM_FEATURES - 1; row >= 0; row--) {
+            double sum = a[row][NUM_FEATURES];
+            for (int k = row + 1; k < NUM_FEATURES; k++) {
+                sum -= a[row][k] * coefficients[k];
+            }
+            coefficients[row] = sum / a[row][row];
+        }
+        return coefficients;
+    }
+
+    private static double[] getResidualQuantiles(List<Integer> trips, double[] coefficients, double[][] features,
+                                                 AlternativeModeTripDataStore tripData, double confidence) {
+        double[] residuals = new double[trips.size()];
+        for (int j = 0; j < trips.size(); j++) {
+            int i = trips.get(j);
+            residuals[j] = tripData.actualTotalTravelTime(i) - predict(coefficients, features[i]);
+        }
+        Arrays.sort(residuals);
+        int lower = (int) Math.floor((1 - confidence) / 2 * (residuals.length - 1));
+        int upper = (int) Math.ceil((1 + confidence) / 2 * (residuals.length - 1));
+        return new double[]{residuals[lower], residuals[upper]};
+    }
+
+    public void write(Path path) throws IOException {
+        try (CSVPrinter writer = new CSVPrinter(Files.newBufferedWriter(path), CSVFormat.TDF)) {
+            writer.printRecord(TIME_BIN_SIZE, Integer.toString(timeBinSize));
+            writer.printRecord(TITLE_ROW);
+            for (int t = 0; t < coefficients.length; t++) {
+                writer.printRecord(Integer.toString(t), Double.toString(coefficients[t][0]), Double.toString(coefficients[t][1]),
+                        Double.toString(coefficients[t][2]), Double.toString(lowerResiduals[t]), Double.toString(upperResiduals[t]));
+            }
+        }
+    }
+
+    /**
+     * @param stopIndex stop index of the transit schedule used for training (the stop distances of the links are
+     *                  precomputed)
+     */
+    public static AlternativeModeTravelTimeEstimator read(Path path, Network network, TransitStopProximityIndex stopIndex) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String[] timeBinSizeRow = Objects.requireNonNullElse(reader.readLine(), "").split("\t");
+            Preconditions.checkArgument(timeBinSizeRow.length == 2 && timeBinSizeRow[0].equals(TIME_BIN_SIZE),
+                    "Not an alternative mode travel time estimator file: " + path);
+            int timeBinSize = Integer.parseInt(timeBinSizeRow[1]);
+
+            List<double[]> coefficients = new ArrayList<>();
+            List<Double> lowerResiduals = new ArrayList<>();
+            List<Double> upperResiduals = new ArrayList<>();
+            try (CSVParser parser = new CSVParser(reader, CSVFormat.TDF.withFirstRecordAsHeader())) {
+                for (CSVRecord record : parser) {
+                    coefficients.add(new double[]{Double.parseDouble(record.get("intercept")),
+                            Double.parseDouble(record.get("beeline_distance")), Double.parseDouble(record.get("stop_distance"))});
+                    lowerResiduals.add(Double.parseDouble(record.get("lower_residual")));
+                    upperResiduals.add(Double.parseDouble(record.get("upper_residual")));
+                }
+            }
+            Preconditions.checkArgument(!coefficients.isEmpty(), "No time bins in " + path);
+            return new AlternativeModeTravelTimeEstimator(timeBinSize, coefficients.toArray(new double[0][]),
+                    lowerResiduals.stream().mapToDouble(Double::doubleValue).toArray(),
+                    upperResiduals.stream().mapToDouble(Double::doubleValue).toArray(), network, stopIndex);
+        }
+    }
+}
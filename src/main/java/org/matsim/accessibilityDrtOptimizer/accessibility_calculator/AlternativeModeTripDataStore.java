@@ -0,0 +1,258 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.TransportMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData.*;
+
+/**
+ * Column-oriented, read-only view of alternative mode trip data. The binary file written by {@link #write} is
+ * memory-mapped when read, so that opening the data does not require parsing. Layout (big endian):
+ * <pre>
+ * int magic, int version, int n
+ * 8 double columns of length n (departure time, from x, from y, to x, to y, direct car travel time,
+ *                               actual total travel time, total walk distance)
+ * byte column of length n (mode code)
+ * int[n + 1] offsets of the ids, followed by the UTF-8 encoded ids
+ * </pre>
+ * The tab-separated alternative mode data can be read as well (it is converted into the same layout on the heap).
+ */
+public final class AlternativeModeTripDataStore {
+    public static final byte MODE_WALK = 0;
+    public static final byte MODE_PT = 1;
+
+    private static final int MAGIC = 0x414D5444; // "AMTD"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int NUM_DOUBLE_COLUMNS = 8;
+
+    private static final int COLUMN_DEPARTURE_TIME = 0;
+    private static final int COLUMN_FROM_X = 1;
+    private static final int COLUMN_FROM_Y = 2;
+    private static final int COLUMN_TO_X = 3;
+    private static final int COLUMN_TO_Y = 4;
+    private static final int COLUMN_DIRECT_CAR_TRAVEL_TIME = 5;
+    private static final int COLUMN_ACTUAL_TOTAL_TRAVEL_TIME = 6;
+    private static final int COLUMN_TOTAL_WALK_DISTANCE = 7;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int modeColumnOffset;
+    private final int idOffsetsOffset;
+    private final int idBytesOffset;
+
+    private Map<String, Integer> idIndex;
+
+    private AlternativeModeTripDataStore(ByteBuffer buffer) {
+        this.buffer = buffer;
+        Preconditions.checkArgument(buffer.getInt(0) == MAGIC, "Not a binary alternative mode data file");
+        Preconditions.checkArgument(buffer.getInt(Integer.BYTES) == VERSION, "Unsupported version of alternative mode data file");
+        this.size = buffer.getInt(2 * Integer.BYTES);
+        this.modeColumnOffset = HEADER_BYTES + NUM_DOUBLE_COLUMNS * size * Double.BYTES;
+        this.idOffsetsOffset = modeColumnOffset + size;
+        this.idBytesOffset = idOffsetsOffset + (size + 1) * Integer.BYTES;
+    }
+
+    /**
+     * Reads the alternative mode data either from a binary file (memory-mapped) or from the tab-separated file.
+     */
+    public static AlternativeModeTripDataStore read(Path path) throws IOException {
+        if (isBinary(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new AlternativeModeTripDataStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        return new AlternativeModeTripDataStore(encode(readTsv(path)));
+    }
+
+    public static void write(List<AlternativeModeTripData> tripData, Path path) throws IOException {
+        ByteBuffer encoded = encode(tripData);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (encoded.hasRemaining()) {
+                channel.write(encoded);
+            }
+        }
+    }
+
+    private static boolean isBinary(Path path) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            byte[] header = inputStream.readNBytes(Integer.BYTES);
+            return header.length == Integer.BYTES && ByteBuffer.wrap(header).getInt() == MAGIC;
+        }
+    }
+
+    private static List<AlternativeModeTripData> readTsv(Path path) throws IOException {
+        List<AlternativeModeTripData> tripData = new ArrayList<>();
+        try (CSVParser parser = new CSVParser(Files.newBufferedReader(path), CSVFormat.TDF.withFirstRecordAsHeader())) {
+            for (CSVRecord record : parser) {
+                tripData.add(new AlternativeModeTripData(
+                        record.get(ID),
+                        Double.parseDouble(record.get(DEPARTURE_TIME)),
+                        new Coord(Double.parseDouble(record.get(FROM_X)), Double.parseDouble(record.get(FROM_Y))),
+                        new Coord(Double.parseDouble(record.get(TO_X)), Double.parseDouble(record.get(TO_Y))),
+                        Double.parseDouble(record.get(DIRECT_CAR_TRAVEL_TIME)),
+                        Double.parseDouble(record.get(ACTUAL_TOTAL_TRAVEL_TIME)),
+                        record.get(MODE),
+                        Double.parseDouble(record.get(TOTAL_WALK_DISTANCE))
+                ));
+            }
+        }
+        return tripData;
+    }
+
+    private static ByteBuffer encode(List<AlternativeModeTripData> tripData) {
+        int n = tripData.size();
+        byte[][] ids = new byte[n][];
+        long idBytes = 0;
+        for (int i = 0; i < n; i++) {
+            ids[i] = tripData.get(i).id().getBytes(StandardCharsets.UTF_8);
+            idBytes += ids[i].length;
+        }
+        long totalBytes = HEADER_BYTES + (long) NUM_DOUBLE_COLUMNS * n * Double.BYTES + n + (long) (n + 1) * Integer.BYTES + idBytes;
+        Preconditions.checkArgument(totalBytes <= Integer.MAX_VALUE, "Too many trips for a single alternative mode data file");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) totalBytes).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(n);
+        for (AlternativeModeTripData data : tripData) {
+            buffer.putDouble(data.departureTime());
+        }
+        for (AlternativeModeTripData data : tripData) {
+            buffer.putDouble(data.fromCoord().getX());
+        }
+        for (AlternativeModeTripData data : tripData) {
+            buffer.putDouble(data.fromCoord().getY());
+        }
+        for (AlternativeModeTripData data : tripData) {
+            buffer.putDouble(data.toCoord().getX());
+        }
+        for (AlternativeModeTripData data : tripData) {
+            buffer.putDouble(data.toCoord().getY());
+        }
+        for (AlternativeModeTripData data : tripData) {
+            buffer.putDouble(data.directCarTravelTime());
+        }
+        for (AlternativeModeTripData data : tripData) {
+            buffer.putDouble(data.actualTotalTravelTime());
+        }
+        for (AlternativeModeTripData data : tripData) {
+            buffer.putDouble(data.totalWalkDistance());
+        }
+        for (AlternativeModeTripData data : tripData) {
+            buffer.put(modeToCode(data.mode()));
+        }
+        int offset = 0;
+        buffer.putInt(offset);
+        for (byte[] id : ids) {
+            offset += id.length;
+            buffer.putInt(offset);
+        }
+        for (byte[] id : ids) {
+            buffer.put(id);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public static byte modeToCode(String mode) {
+        return switch (mode) {
+            case TransportMode.walk -> MODE_WALK;
+            case TransportMode.pt -> MODE_PT;
+            default -> throw new IllegalArgumentException("Unsupported alternative mode: " + mode);
+        };
+    }
+
+    public static String codeToMode(byte code) {
+        return switch (code) {
+            case MODE_WALK -> TransportMode.walk;
+            case MODE_PT -> TransportMode.pt;
+            default -> throw new IllegalArgumentException("Unsupported alternative mode code: " + code);
+        };
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the trip with the given id, or -1 if there is no such trip. The id dictionary is built on
+     * the first call.
+     */
+    public int indexOf(String id) {
+        if (idIndex == null) {
+            Map<String, Integer> index = new HashMap<>((int) (size / 0.75) + 1);
+            for (int i = 0; i < size; i++) {
+                index.put(id(i), i);
+            }
+            idIndex = index;
+        }
+        return idIndex.getOrDefault(id, -1);
+    }
+
+    public String id(int i) {
+        int start = buffer.getInt(idOffsetsOffset + i * Integer.BYTES);
+        int end = buffer.getInt(idOffsetsOffset + (i + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        buffer.get(idBytesOffset + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public double departureTime(int i) {
+        return getDouble(COLUMN_DEPARTURE_TIME, i);
+    }
+
+    public Coord fromCoord(int i) {
+        return new Coord(getDouble(COLUMN_FROM_X, i), getDouble(COLUMN_FROM_Y, i));
+    }
+
+    public Coord toCoord(int i) {
+        return new Coord(getDouble(COLUMN_TO_X, i), getDouble(COLUMN_TO_Y, i));
+    }
+
+    public double directCarTravelTime(int i) {
+        return getDouble(COLUMN_DIRECT_CAR_TRAVEL_TIME, i);
+    }
+
+    public double actualTotalTravelTime(int i) {
+        return getDouble(COLUMN_ACTUAL_TOTAL_TRAVEL_TIME, i);
+    }
+
+    public double totalWalkDistance(int i) {
+        return getDouble(COLUMN_TOTAL_WALK_DISTANCE, i);
+    }
+
+    public byte modeCode(int i) {
+        return buffer.get(modeColumnOffset + i);
+    }
+
+    public String mode(int i) {
+        return codeToMode(modeCode(i));
+    }
+
+    public AlternativeModeTripData get(int i) {
+        return new AlternativeModeTripData(id(i), departureTime(i), fromCoord(i), toCoord(i), directCarTravelTime(i),
+                actualTotalTravelTime(i), mode(i), totalWalkDistance(i));
+    }
+
+    private double getDouble(int column, int i) {
+        return buffer.getDouble(HEADER_BYTES + (column * size + i) * Double.BYTES);
+    }
+}
@@ -0,0 +1,67 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Trips with the same from link, to link and departure time bin (e.g., persons snapped to the same links by the demand
+ * generation) are calculated only once. The first trip of each key is calculated, and its result is reused for the
+ * other trips of the key (only the id and the departure time are replaced).
+ */
+public class AlternativeModeTripDeduplication {
+    private static final Logger log = LogManager.getLogger(AlternativeModeTripDeduplication.class);
+
+    private record TripKey(int fromLinkIndex, int toLinkIndex, int timeBin) {
+    }
+
+    private AlternativeModeTripDeduplication() {
+    }
+
+    /**
+     * @param timeBinSize size of the departure time bins (in seconds), e.g., 60 for the departure minute
+     * @param calculator  calculation of the unique trips (results in the same order as the queries)
+     * @return the alternative mode data in the same order as the input queries
+     */
+    public static List<AlternativeModeTripData> calculateAlternativeTripData(List<AlternativeModeTripQuery> queries, int timeBinSize,
+                                                                             Function<List<AlternativeModeTripQuery>, List<AlternativeModeTripData>> calculator) {
+        Preconditions.checkArgument(timeBinSize > 0, "Time bin size must be positive");
+        Map<TripKey, Integer> uniqueIndices = new HashMap<>();
+        List<AlternativeModeTripQuery> uniqueQueries = new ArrayList<>();
+        int[] uniqueIndexOfQuery = new int[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            AlternativeModeTripQuery query = queries.get(i);
+            TripKey key = new TripKey(query.fromLink().getId().index(), query.toLink().getId().index(),
+                    (int) Math.floor(query.departureTime() / timeBinSize));
+            Integer uniqueIndex = uniqueIndices.get(key);
+            if (uniqueIndex == null) {
+                uniqueIndex = uniqueQueries.size();
+                uniqueIndices.put(key, uniqueIndex);
+                uniqueQueries.add(query);
+            }
+            uniqueIndexOfQuery[i] = uniqueIndex;
+        }
+        log.info("Trip deduplication: " + queries.size() + " trips, " + uniqueQueries.size() + " unique trips (dedup ratio = " +
+                (queries.isEmpty() ? 0 : 1 - (double) uniqueQueries.size() / queries.size()) + ")");
+
+        List<AlternativeModeTripData> uniqueResults = uniqueQueries.isEmpty() ? List.of() : calculator.apply(uniqueQueries);
+        List<AlternativeModeTripData> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            AlternativeModeTripQuery query = queries.get(i);
+            AlternativeModeTripData unique = uniqueResults.get(uniqueIndexOfQuery[i]);
+            if (unique.id().equals(query.id())) {
+                results.add(unique);
+            } else {
+                results.add(new AlternativeModeTripData(query.id(), query.departureTime(), unique.fromCoord(), unique.toCoord(),
+                        unique.directCarTravelTime(), unique.actualTotalTravelTime(), unique.mode(), unique.totalWalkDistance()));
+            }
+        }
+        return results;
+    }
+}
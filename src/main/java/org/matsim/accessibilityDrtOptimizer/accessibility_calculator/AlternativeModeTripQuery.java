@@ -0,0 +1,32 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.TripStructureUtils;
+
+import java.util.List;
+
+/**
+ * Input of one alternative mode calculation: the trip of a (trip-based) DRT person.
+ */
+public record AlternativeModeTripQuery(String id, Link fromLink, Link toLink, double departureTime) {
+
+    public static AlternativeModeTripQuery of(Person person, Network network) {
+        List<TripStructureUtils.Trip> trips = TripStructureUtils.getTrips(person.getSelectedPlan());
+        Preconditions.checkArgument(trips.size() == 1, "Only trip based plan are supported. Check the input plans!");
+        TripStructureUtils.Trip trip = trips.get(0);
+        Link fromLink = network.getLinks().get(trip.getOriginActivity().getLinkId());
+        if (fromLink == null) {
+            fromLink = NetworkUtils.getNearestLink(network, trip.getOriginActivity().getCoord());
+        }
+        Link toLink = network.getLinks().get(trip.getDestinationActivity().getLinkId());
+        if (toLink == null) {
+            toLink = NetworkUtils.getNearestLink(network, trip.getDestinationActivity().getCoord());
+        }
+        double departureTime = trip.getOriginActivity().getEndTime().orElseThrow(RuntimeException::new);
+        return new AlternativeModeTripQuery(person.getId().toString(), fromLink, toLink, departureTime);
+    }
+}
@@ -0,0 +1,10 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+/**
+ * Result of a threshold-bounded alternative mode query. For {@link Outcome#BELOW} and {@link Outcome#ABOVE}, the travel
+ * time is on the same side of the bound as the actual travel time (either the actual travel time or a lower bound of
+ * it), so that it leads to the same rejection decision. For {@link Outcome#EXACT}, it is the actual travel time.
+ */
+public record BoundedTravelTime(Outcome outcome, double travelTime) {
+    public enum Outcome {BELOW, ABOVE, EXACT}
+}
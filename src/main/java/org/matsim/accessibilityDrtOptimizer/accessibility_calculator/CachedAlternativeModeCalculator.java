@@ -0,0 +1,178 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Alternative mode calculator with a bounded LRU cache of the results. Trips are considered identical, when they
+ * have the same from link, to link and departure time bin. The result of the first trip in a time bin is then reused
+ * for all the later trips of the same key. Entries can optionally expire after a time-to-live (wall-clock time).
+ * <p>
+ * The PT side (raptor) and the direct car travel time are cached separately, so that all the queries share the cache:
+ * the trip data (with or without a known direct car travel time, by DrtRequest or by links), the low-allocation
+ * variant and the threshold-bounded query. The hit and miss statistics refer to the PT side. A lower bound answering
+ * a bounded query is not cached (the raptor is not called).
+ * Same as the {@link AlternativeModeCalculator}, this class is not thread-safe (use one calculator per thread).
+ */
+public class CachedAlternativeModeCalculator extends AlternativeModeCalculator {
+    private static final Logger log = LogManager.getLogger(CachedAlternativeModeCalculator.class);
+
+    private final int timeBinSize;
+    private final long timeToLiveNanos;
+    private final LongSupplier clock;
+    private final Map<CacheKey, CacheEntry> cache;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long expirations = 0;
+
+    private record CacheKey(int fromLinkIndex, int toLinkIndex, int timeBin) {
+    }
+
+    private static final class CacheEntry {
+        private final long creationTime;
+        private double directCarTravelTime = Double.NaN;
+        private boolean ptSideCalculated = false;
+        private double actualTotalTravelTime;
+        private double totalWalkDistance;
+        private byte modeCode;
+
+        private CacheEntry(long creationTime) {
+            this.creationTime = creationTime;
+        }
+    }
+
+    /**
+     * @param maxSize        maximum number of cached results, the least recently used one is evicted first
+     * @param timeBinSize    size of the departure time bins (in seconds)
+     * @param timeToLive     time-to-live of a cached result in seconds (wall-clock time). Non-positive value: no expiration
+     */
+    public CachedAlternativeModeCalculator(SwissRailRaptor raptor, Network network, TravelTime travelTime, TravelDisutility travelDisutility,
+                                           int maxSize, int timeBinSize, double timeToLive) {
+        this(raptor, network, travelTime, travelDisutility, new SpeedyALTFactory(), null, null, maxSize, timeBinSize, timeToLive);
+    }
+
+    /**
+     * @param stopIndex  see {@link AlternativeModeCalculator} (optional, may be null)
+     * @param lowerBound see {@link AlternativeModeCalculator} (optional, may be null)
+     */
+    public CachedAlternativeModeCalculator(SwissRailRaptor raptor, Network network, TravelTime travelTime, TravelDisutility travelDisutility,
+                                           LeastCostPathCalculatorFactory routerFactory, TransitStopProximityIndex stopIndex,
+                                           AlternativeModeLowerBound lowerBound, int maxSize, int timeBinSize, double timeToLive) {
+        this(raptor, network, travelTime, travelDisutility, routerFactory, stopIndex, lowerBound, maxSize, timeBinSize, timeToLive,
+                System::nanoTime);
+    }
+
+    // the clock (in nanoseconds) can be replaced for testing the expiration
+    CachedAlternativeModeCalculator(SwissRailRaptor raptor, Network network, TravelTime travelTime, TravelDisutility travelDisutility,
+                                    LeastCostPathCalculatorFactory routerFactory, TransitStopProximityIndex stopIndex,
+                                    AlternativeModeLowerBound lowerBound, int maxSize, int timeBinSize, double timeToLive, LongSupplier clock) {
+        super(raptor, network, travelTime, travelDisutility, routerFactory, stopIndex, lowerBound);
+        Preconditions.checkArgument(timeBinSize > 0, "Time bin size must be positive");
+        this.timeBinSize = timeBinSize;
+        this.timeToLiveNanos = timeToLive > 0 ? (long) (timeToLive * 1e9) : Long.MAX_VALUE;
+        this.clock = clock;
+        this.cache = createLruCache(maxSize);
+    }
+
+    public CachedAlternativeModeCalculator(SwissRailRaptor raptor, Network network, int maxSize, int timeBinSize, double timeToLive) {
+        super(raptor, network);
+        Preconditions.checkArgument(timeBinSize > 0, "Time bin size must be positive");
+        this.timeBinSize = timeBinSize;
+        this.timeToLiveNanos = timeToLive > 0 ? (long) (timeToLive * 1e9) : Long.MAX_VALUE;
+        this.clock = System::nanoTime;
+        this.cache = createLruCache(maxSize);
+    }
+
+    private static Map<CacheKey, CacheEntry> createLruCache(int maxSize) {
+        Preconditions.checkArgument(maxSize > 0, "Cache size must be positive");
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the valid entry of the trip (created, if there is none)
+     */
+    private CacheEntry getEntry(Link fromLink, Link toLink, double departureTime) {
+        CacheKey key = new CacheKey(fromLink.getId().index(), toLink.getId().index(), (int) Math.floor(departureTime / timeBinSize));
+        long now = clock.getAsLong();
+        CacheEntry entry = cache.get(key);
+        if (entry != null && now - entry.creationTime > timeToLiveNanos) {
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            entry = new CacheEntry(now);
+            cache.put(key, entry);
+        }
+        return entry;
+    }
+
+    @Override
+    public double calculateDirectCarTravelTime(Link fromLink, Link toLink, double departureTime) {
+        CacheEntry entry = getEntry(fromLink, toLink, departureTime);
+        if (Double.isNaN(entry.directCarTravelTime)) {
+            entry.directCarTravelTime = super.calculateDirectCarTravelTime(fromLink, toLink, departureTime);
+        }
+        return entry.directCarTravelTime;
+    }
+
+    @Override
+    protected void calculatePtSide(Link fromLink, Link toLink, double departureTime, double directCarTravelTime,
+                                   AlternativeModeResultSink sink, int index) {
+        CacheEntry entry = getEntry(fromLink, toLink, departureTime);
+        if (entry.ptSideCalculated) {
+            hits++;
+        } else {
+            misses++;
+            super.calculatePtSide(fromLink, toLink, departureTime, directCarTravelTime, sink, index);
+            entry.actualTotalTravelTime = sink.actualTotalTravelTime(index);
+            entry.totalWalkDistance = sink.totalWalkDistance(index);
+            entry.modeCode = sink.modeCode(index);
+            entry.ptSideCalculated = true;
+        }
+        sink.set(index, directCarTravelTime, entry.actualTotalTravelTime, entry.totalWalkDistance, entry.modeCode);
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void logStatistics() {
+        log.info("Alternative mode cache: " + hits + " hits, " + misses + " misses (hit rate = " + getHitRate() +
+                "), " + expirations + " expired entries, " + cache.size() + " entries cached");
+    }
+}
@@ -0,0 +1,220 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.pt.transitSchedule.api.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Incremental calculation of the alternative mode data. Next to the output (alternative mode data), a key file is
+ * written with the fingerprint of the inputs (network, transit schedule, routing config and calculation options) and
+ * the key (from link, to link, departure time) of each trip. When the fingerprint of the next run is the same, the rows
+ * of the previous output are reused for all trips with an unchanged key, and only the new or changed trips are routed.
+ */
+public class IncrementalAlternativeModeCalculation {
+    private static final Logger log = LogManager.getLogger(IncrementalAlternativeModeCalculation.class);
+    private static final String FINGERPRINT = "fingerprint";
+    private static final List<String> KEYS_TITLE_ROW = List.of("id", "from_link", "to_link", "departure_time");
+
+    private final Path previousOutput;
+    private final Path keysPath;
+    private final String fingerprint;
+
+    private record TripKey(String fromLinkId, String toLinkId, double departureTime) {
+        static TripKey of(AlternativeModeTripQuery query) {
+            return new TripKey(query.fromLink().getId().toString(), query.toLink().getId().toString(), query.departureTime());
+        }
+    }
+
+    /**
+     * @param previousOutput alternative mode data (tab-separated or binary) of the previous run. The key file is
+     *                       stored next to it
+     */
+    public IncrementalAlternativeModeCalculation(Path previousOutput, String fingerprint) {
+        this.previousOutput = previousOutput;
+        this.keysPath = getKeysPath(previousOutput);
+        this.fingerprint = fingerprint;
+    }
+
+    private static Path getKeysPath(Path output) {
+        return Path.of(output + ".keys.tsv");
+    }
+
+    /**
+     * Remove the key file of an output that is (re)written without incremental calculation, so that a later
+     * incremental run does not match the stale keys to the new rows.
+     */
+    public static void deleteKeys(Path output) throws IOException {
+        Files.deleteIfExists(getKeysPath(output));
+    }
+
+    /**
+     * @param calculator calculation of the new or changed trips (results in the same order as the queries)
+     * @return the alternative mode data in the same order as the input queries
+     */
+    public List<AlternativeModeTripData> calculateAlternativeTripData(List<AlternativeModeTripQuery> queries,
+                                                                     Function<List<AlternativeModeTripQuery>, List<AlternativeModeTripData>> calculator) throws IOException {
+        Map<TripKey, AlternativeModeTripData> previousData = readPreviousData();
+
+        AlternativeModeTripData[] results = new AlternativeModeTripData[queries.size()];
+        List<Integer> changedTrips = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            AlternativeModeTripQuery query = queries.get(i);
+            AlternativeModeTripData previous = previousData.get(TripKey.of(query));
+            if (previous != null) {
+                results[i] = new AlternativeModeTripData(query.id(), query.departureTime(), previous.fromCoord(), previous.toCoord(),
+                        previous.directCarTravelTime(), previous.actualTotalTravelTime(), previous.mode(), previous.totalWalkDistance());
+            } else {
+                changedTrips.add(i);
+            }
+        }
+        log.info("Incremental alternative mode calculation: " + (queries.size() - changedTrips.size()) + " trips reused, " +
+                changedTrips.size() + " trips to be calculated");
+
+        List<AlternativeModeTripQuery> changedQueries = new ArrayList<>(changedTrips.size());
+        changedTrips.forEach(i -> changedQueries.add(queries.get(i)));
+        List<AlternativeModeTripData> changedResults = changedQueries.isEmpty() ? List.of() : calculator.apply(changedQueries);
+        for (int j = 0; j < changedTrips.size(); j++) {
+            results[changedTrips.get(j)] = changedResults.get(j);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Write the key file. It must be called after the output is written.
+     */
+    public void writeKeys(List<AlternativeModeTripQuery> queries) throws IOException {
+        try (CSVPrinter writer = new CSVPrinter(Files.newBufferedWriter(keysPath), CSVFormat.TDF)) {
+            writer.printRecord(FINGERPRINT, fingerprint);
+            writer.printRecord(KEYS_TITLE_ROW);
+            for (AlternativeModeTripQuery query : queries) {
+                writer.printRecord(query.id(), query.fromLink().getId().toString(), query.toLink().getId().toString(),
+                        Double.toString(query.departureTime()));
+            }
+        }
+    }
+
+    private Map<TripKey, AlternativeModeTripData> readPreviousData() throws IOException {
+        if (!Files.exists(previousOutput) || !Files.exists(keysPath)) {
+            log.info("No previous alternative mode data found. All trips will be calculated");
+            return Map.of();
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(keysPath)) {
+            String[] fingerprintRow = Objects.requireNonNullElse(reader.readLine(), "").split("\t");
+            if (fingerprintRow.length != 2 || !fingerprintRow[1].equals(fingerprint)) {
+                log.info("Network, transit schedule or routing config have changed. All trips will be calculated");
+                return Map.of();
+            }
+
+            AlternativeModeTripDataStore store = AlternativeModeTripDataStore.read(previousOutput);
+            Map<TripKey, AlternativeModeTripData> previousData = new HashMap<>();
+            try (CSVParser parser = new CSVParser(reader, CSVFormat.TDF.withFirstRecordAsHeader())) {
+                for (CSVRecord record : parser) {
+                    int index = store.indexOf(record.get("id"));
+                    if (index >= 0) {
+                        previousData.put(new TripKey(record.get("from_link"), record.get("to_link"),
+                                Double.parseDouble(record.get("departure_time"))), store.get(index));
+                    }
+                }
+            }
+            return previousData;
+        }
+    }
+
+    /**
+     * Fingerprint of the inputs of the alternative mode calculation. The network and the transit schedule are hashed
+     * in id order, so that the fingerprint does not depend on the order in the files.
+     *
+     * @param options further settings of the calculation (e.g., departure window, path to travel times)
+     */
+    public static String fingerprint(Network network, TransitSchedule schedule, Config config, String... options) {
+        Hasher hasher = Hashing.sha256().newHasher();
+
+        List<Link> links = new ArrayList<>(network.getLinks().values());
+        links.sort(Comparator.comparing(link -> link.getId().toString()));
+        for (Link link : links) {
+            putString(hasher, link.getId().toString());
+            putString(hasher, link.getFromNode().getId().toString());
+            putString(hasher, link.getToNode().getId().toString());
+            hasher.putDouble(link.getFromNode().getCoord().getX()).putDouble(link.getFromNode().getCoord().getY());
+            hasher.putDouble(link.getToNode().getCoord().getX()).putDouble(link.getToNode().getCoord().getY());
+            hasher.putDouble(link.getLength()).putDouble(link.getFreespeed()).putDouble(link.getCapacity());
+            putString(hasher, new TreeSet<>(link.getAllowedModes()).toString());
+        }
+
+        List<TransitStopFacility> stops = new ArrayList<>(schedule.getFacilities().values());
+        stops.sort(Comparator.comparing(stop -> stop.getId().toString()));
+        for (TransitStopFacility stop : stops) {
+            putString(hasher, stop.getId().toString());
+            hasher.putDouble(stop.getCoord().getX()).putDouble(stop.getCoord().getY());
+            putString(hasher, String.valueOf(stop.getLinkId()));
+        }
+        List<TransitLine> lines = new ArrayList<>(schedule.getTransitLines().values());
+        lines.sort(Comparator.comparing(line -> line.getId().toString()));
+        for (TransitLine line : lines) {
+            putString(hasher, line.getId().toString());
+            List<TransitRoute> routes = new ArrayList<>(line.getRoutes().values());
+            routes.sort(Comparator.comparing(route -> route.getId().toString()));
+            for (TransitRoute route : routes) {
+                putString(hasher, route.getId().toString());
+                putString(hasher, route.getTransportMode());
+                for (TransitRouteStop routeStop : route.getStops()) {
+                    putString(hasher, routeStop.getStopFacility().getId().toString());
+                    hasher.putDouble(routeStop.getArrivalOffset().orElse(Double.NaN));
+                    hasher.putDouble(routeStop.getDepartureOffset().orElse(Double.NaN));
+                }
+                List<Departure> departures = new ArrayList<>(route.getDepartures().values());
+                departures.sort(Comparator.comparingDouble(Departure::getDepartureTime));
+                for (Departure departure : departures) {
+                    hasher.putDouble(departure.getDepartureTime());
+                }
+            }
+        }
+
+        // The raptor uses the transit router, routing (walk) and scoring parameters
+        putConfigGroup(hasher, config.transitRouter());
+        putConfigGroup(hasher, config.routing());
+        putConfigGroup(hasher, config.scoring());
+        ConfigGroup raptorConfigGroup = config.getModules().get("swissRailRaptor");
+        if (raptorConfigGroup != null) {
+            putConfigGroup(hasher, raptorConfigGroup);
+        }
+
+        for (String option : options) {
+            putString(hasher, option);
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putConfigGroup(Hasher hasher, ConfigGroup configGroup) {
+        putString(hasher, configGroup.getName());
+        putString(hasher, new TreeMap<>(configGroup.getParams()).toString());
+        for (String type : new TreeSet<>(configGroup.getParameterSets().keySet())) {
+            for (ConfigGroup parameterSet : configGroup.getParameterSets().get(type)) {
+                putConfigGroup(hasher, parameterSet);
+            }
+        }
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,131 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compact time-dependent travel time. For each link and time bin, a congestion factor (travel time / free speed
+ * travel time) is stored in a float[linkIndex][timeBin] array, so that a lookup is an allocation-free array read.
+ * Links without a profile are traversed at free speed. Since the factors are relative to the free speed, the profile
+ * also follows later changes of the free speeds (e.g., a calibrated network).
+ * The factors are never below 1, so that the free speed travel time remains a lower bound (as required by ALT routers).
+ * The profile is built by {@link org.matsim.accessibilityDrtOptimizer.prepare.PrepareLinkTravelTimeProfile}.
+ */
+public class LinkTravelTimeProfile implements TravelTime {
+    private static final int MAGIC = 0x4C545450; // "LTTP"
+    private static final int VERSION = 1;
+
+    private final int timeBinSize;
+    private final int numTimeBins;
+    private final float[][] factors;
+
+    private LinkTravelTimeProfile(int timeBinSize, int numTimeBins) {
+        Preconditions.checkArgument(timeBinSize > 0, "Time bin size must be positive");
+        Preconditions.checkArgument(numTimeBins > 0, "Number of time bins must be positive");
+        this.timeBinSize = timeBinSize;
+        this.numTimeBins = numTimeBins;
+        this.factors = new float[Id.getNumberOfIds(Link.class)][];
+    }
+
+    /**
+     * Samples the travel time (e.g., a {@link org.matsim.core.trafficmonitoring.TravelTimeCalculator} of a prior run)
+     * in the middle of each time bin.
+     */
+    public static LinkTravelTimeProfile create(Network network, TravelTime travelTime, int timeBinSize, int numTimeBins) {
+        LinkTravelTimeProfile profile = new LinkTravelTimeProfile(timeBinSize, numTimeBins);
+        for (Link link : network.getLinks().values()) {
+            float[] linkFactors = new float[numTimeBins];
+            for (int timeBin = 0; timeBin < numTimeBins; timeBin++) {
+                double time = (timeBin + 0.5) * timeBinSize;
+                double freeSpeedTravelTime = link.getLength() / link.getFreespeed(time);
+                double factor = travelTime.getLinkTravelTime(link, time, null, null) / freeSpeedTravelTime;
+                linkFactors[timeBin] = (float) (Double.isFinite(factor) ? Math.max(factor, 1) : 1);
+            }
+            profile.factors[link.getId().index()] = linkFactors;
+        }
+        return profile;
+    }
+
+    @Override
+    public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+        double freeSpeedTravelTime = link.getLength() / link.getFreespeed(time);
+        int linkIndex = link.getId().index();
+        float[] linkFactors = linkIndex < factors.length ? factors[linkIndex] : null;
+        if (linkFactors == null) {
+            return freeSpeedTravelTime;
+        }
+        return freeSpeedTravelTime * linkFactors[getTimeBin(time)];
+    }
+
+    public int getTimeBin(double time) {
+        return Math.min(Math.max((int) (time / timeBinSize), 0), numTimeBins - 1);
+    }
+
+    public int getTimeBinSize() {
+        return timeBinSize;
+    }
+
+    public int getNumTimeBins() {
+        return numTimeBins;
+    }
+
+    public void write(Path path) throws IOException {
+        int numLinks = 0;
+        for (float[] linkFactors : factors) {
+            if (linkFactors != null) {
+                numLinks++;
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(timeBinSize);
+            out.writeInt(numTimeBins);
+            out.writeInt(numLinks);
+            for (int linkIndex = 0; linkIndex < factors.length; linkIndex++) {
+                if (factors[linkIndex] == null) {
+                    continue;
+                }
+                out.writeUTF(Id.get(linkIndex, Link.class).toString());
+                for (float factor : factors[linkIndex]) {
+                    out.writeFloat(factor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the profile. Links that are not part of the network are skipped.
+     */
+    public static LinkTravelTimeProfile read(Path path, Network network) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            Preconditions.checkArgument(in.readInt() == MAGIC, "Not a link travel time profile file: " + path);
+            Preconditions.checkArgument(in.readInt() == VERSION, "Unsupported version of link travel time profile file: " + path);
+            int timeBinSize = in.readInt();
+            int numTimeBins = in.readInt();
+            int numLinks = in.readInt();
+
+            LinkTravelTimeProfile profile = new LinkTravelTimeProfile(timeBinSize, numTimeBins);
+            for (int i = 0; i < numLinks; i++) {
+                Link link = network.getLinks().get(Id.createLinkId(in.readUTF()));
+                float[] linkFactors = new float[numTimeBins];
+                for (int timeBin = 0; timeBin < numTimeBins; timeBin++) {
+                    linkFactors[timeBin] = in.readFloat();
+                }
+                if (link != null) {
+                    profile.factors[link.getId().index()] = linkFactors;
+                }
+            }
+            return profile;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorCore;
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.router.LinkWrapperFacility;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator.WALK_BEELINE_DISTANCE_FACTOR;
+import static org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator.WALK_SPEED;
+
+/**
+ * Batch alternative mode calculation for trips sharing an origin. Trips are grouped by origin link and departure
+ * time window; for each group, a single SwissRailRaptor tree search is performed from the origin (departing at the
+ * earliest departure time of the group), and the arrival times at all destinations are read off the tree: the PT
+ * travel time is the earliest arrival at a stop within the search radius of the destination plus the egress walk.
+ * Direct walk is used, when it is faster. All trips of a group are assumed to have the travel time of the earliest
+ * departure, i.e., the departure window bounds the approximation error. Groups consisting of a single trip are
+ * calculated exactly by the underlying {@link AlternativeModeCalculator}.
+ * Same as the {@link AlternativeModeCalculator}, this class is not thread-safe.
+ */
+public class OneToManyAlternativeModeCalculator {
+    private final AlternativeModeCalculator calculator;
+    private final SwissRailRaptor raptor;
+    private final RaptorParameters raptorParameters;
+    private final TransitStopProximityIndex stopIndex;
+    private final double searchRadius;
+    private final double departureWindow;
+
+    /**
+     * @param calculator      calculator for the car travel times and for the groups with a single trip. It should
+     *                        use the same raptor
+     * @param searchRadius    max egress walk (beeline) distance from a stop to the destination
+     * @param departureWindow max difference between the departure times of the trips in a group (in seconds)
+     */
+    public OneToManyAlternativeModeCalculator(AlternativeModeCalculator calculator, SwissRailRaptor raptor,
+                                              RaptorParameters raptorParameters, TransitStopProximityIndex stopIndex,
+                                              double searchRadius, double departureWindow) {
+        Preconditions.checkArgument(departureWindow >= 0, "Departure window must not be negative");
+        this.calculator = calculator;
+        this.raptor = raptor;
+        this.raptorParameters = raptorParameters;
+        this.stopIndex = stopIndex;
+        this.searchRadius = searchRadius;
+        this.departureWindow = departureWindow;
+    }
+
+    /**
+     * @return the alternative mode data in the same order as the input queries
+     */
+    public List<AlternativeModeTripData> calculateAlternativeTripData(List<AlternativeModeTripQuery> queries) {
+        AlternativeModeTripData[] results = new AlternativeModeTripData[queries.size()];
+        for (int[] group : groupQueries(queries, departureWindow)) {
+            List<AlternativeModeTripQuery> groupQueries = new ArrayList<>(group.length);
+            for (int i : group) {
+                groupQueries.add(queries.get(i));
+            }
+            List<AlternativeModeTripData> groupResults = calculateGroup(groupQueries);
+            for (int i = 0; i < group.length; i++) {
+                results[group[i]] = groupResults.get(i);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Groups the queries by origin link and departure time window. Within an origin link, the queries are sorted by
+     * departure time and a new group is started, when the departure time exceeds the first departure of the current
+     * group by more than the window.
+     *
+     * @return the indices of the queries of each group (sorted by departure time)
+     */
+    public static List<int[]> groupQueries(List<AlternativeModeTripQuery> queries, double departureWindow) {
+        List<Integer> order = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer>comparingInt(i -> queries.get(i).fromLink().getId().index())
+                .thenComparingDouble(i -> queries.get(i).departureTime()));
+
+        List<int[]> groups = new ArrayList<>();
+        int groupStart = 0;
+        for (int k = 1; k <= order.size(); k++) {
+            if (k == order.size() || !belongsToGroup(queries.get(order.get(groupStart)), queries.get(order.get(k)), departureWindow)) {
+                groups.add(order.subList(groupStart, k).stream().mapToInt(Integer::intValue).toArray());
+                groupStart = k;
+            }
+        }
+        return groups;
+    }
+
+    private static boolean belongsToGroup(AlternativeModeTripQuery first, AlternativeModeTripQuery query, double departureWindow) {
+        return first.fromLink().getId().equals(query.fromLink().getId()) &&
+                query.departureTime() - first.departureTime() <= departureWindow;
+    }
+
+    /**
+     * @param group queries with the same origin link, sorted by departure time
+     */
+    public List<AlternativeModeTripData> calculateGroup(List<AlternativeModeTripQuery> group) {
+        if (group.size() == 1) {
+            AlternativeModeTripQuery query = group.get(0);
+            return List.of(calculator.calculateAlternativeTripData(query.id(), query.fromLink(), query.toLink(), query.departureTime()));
+        }
+
+        AlternativeModeTripQuery first = group.get(0);
+        double treeDepartureTime = first.departureTime();
+        Coord fromCoord = first.fromLink().getToNode().getCoord();
+        Map<Id<TransitStopFacility>, SwissRailRaptorCore.TravelInfo> tree =
+                raptor.calcTree(new LinkWrapperFacility(first.fromLink()), treeDepartureTime, raptorParameters, null);
+
+        List<AlternativeModeTripData> results = new ArrayList<>(group.size());
+        for (AlternativeModeTripQuery query : group) {
+            Coord toCoord = query.toLink().getToNode().getCoord();
+            double directCarTravelTime = calculator.calculateDirectCarTravelTime(query.fromLink(), query.toLink(), query.departureTime());
+
+            double totalWalkDistance = CoordUtils.calcEuclideanDistance(fromCoord, toCoord) * WALK_BEELINE_DISTANCE_FACTOR;
+            double actualTotalTravelTime = totalWalkDistance / WALK_SPEED;
+            String mode = TransportMode.walk;
+            for (TransitStopFacility stop : stopIndex.getStopsWithinRadius(toCoord, searchRadius)) {
+                SwissRailRaptorCore.TravelInfo travelInfo = tree.get(stop.getId());
+                if (travelInfo == null) {
+                    continue;
+                }
+                double egressDistance = CoordUtils.calcEuclideanDistance(stop.getCoord(), toCoord) * WALK_BEELINE_DISTANCE_FACTOR;
+                double travelTime = travelInfo.ptArrivalTime + egressDistance / WALK_SPEED - treeDepartureTime;
+                if (travelTime < actualTotalTravelTime) {
+                    actualTotalTravelTime = travelTime;
+                    totalWalkDistance = travelInfo.accessTime * WALK_SPEED + egressDistance;
+                    mode = TransportMode.pt;
+                }
+            }
+            results.add(new AlternativeModeTripData(query.id(), query.departureTime(), fromCoord, toCoord, directCarTravelTime,
+                    actualTotalTravelTime, mode, totalWalkDistance));
+        }
+        return results;
+    }
+}
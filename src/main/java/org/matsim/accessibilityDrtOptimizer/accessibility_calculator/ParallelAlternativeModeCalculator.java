@@ -0,0 +1,180 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Calculates the alternative mode data of many trips with several worker threads. Each worker owns its raptor and
+ * car router (both are not thread-safe), while the raptor data and the network are shared. The results are returned
+ * in the same order as the input queries, independent of the number of threads.
+ * With a positive departure window, trips sharing an origin link are evaluated with one raptor tree search per group
+ * (see {@link OneToManyAlternativeModeCalculator}), and the groups are distributed over the workers.
+ */
+public class ParallelAlternativeModeCalculator {
+    private static final Logger log = LogManager.getLogger(ParallelAlternativeModeCalculator.class);
+    private static final int CHUNK_SIZE = 64;
+
+    private final List<AlternativeModeCalculator> calculators = new ArrayList<>();
+    private final List<OneToManyAlternativeModeCalculator> oneToManyCalculators = new ArrayList<>();
+    private final double departureWindow;
+
+    public ParallelAlternativeModeCalculator(SwissRailRaptorData raptorData, Config config, Network network,
+                                             TravelTime travelTime, TravelDisutility travelDisutility, int threads) {
+        this(raptorData, config, network, null, travelTime, travelDisutility, threads, 0);
+    }
+
+    /**
+     * @param stopIndex       stop index (optional, may be null). Required for a positive departure window (egress
+     *                        of the grouped trips). If it is created with the network, the raptor is skipped for
+     *                        trips without a stop in the walk radius of the origin or destination
+     * @param departureWindow departure time window (in seconds) for grouping trips with the same origin link.
+     *                        Non-positive value: each trip is calculated separately
+     */
+    public ParallelAlternativeModeCalculator(SwissRailRaptorData raptorData, Config config, Network network, TransitStopProximityIndex stopIndex,
+                                             TravelTime travelTime, TravelDisutility travelDisutility, int threads, double departureWindow) {
+        Preconditions.checkArgument(threads >= 1, "Number of threads must be at least 1");
+        Preconditions.checkArgument(departureWindow <= 0 || stopIndex != null, "Stop index is required for grouping trips");
+        this.departureWindow = departureWindow;
+        // The routers are created here (i.e., on the calling thread), so that the shared factory only builds the graph once
+        SpeedyALTFactory routerFactory = new SpeedyALTFactory();
+        TransitStopProximityIndex linkStopIndex = stopIndex != null && stopIndex.hasLinkIndex() ? stopIndex : null;
+        RaptorParameters raptorParameters = RaptorUtils.createParameters(config);
+        for (int i = 0; i < threads; i++) {
+            SwissRailRaptor raptor = new SwissRailRaptor.Builder(raptorData, config).build();
+            AlternativeModeCalculator calculator = new AlternativeModeCalculator(raptor, network, travelTime, travelDisutility, routerFactory, linkStopIndex);
+            calculators.add(calculator);
+            if (departureWindow > 0) {
+                oneToManyCalculators.add(new OneToManyAlternativeModeCalculator(calculator, raptor, raptorParameters, stopIndex,
+                        config.transitRouter().getSearchRadius(), departureWindow));
+            }
+        }
+    }
+
+    public List<AlternativeModeTripData> calculateAlternativeTripData(List<AlternativeModeTripQuery> queries) {
+        if (departureWindow > 0) {
+            return calculateGroupedAlternativeTripData(queries);
+        }
+        return calculateInParallel(queries, (calculator, query) -> calculator.calculateAlternativeTripData(query.id(),
+                query.fromLink(), query.toLink(), query.departureTime()));
+    }
+
+    /**
+     * @param window half width of the departure window around the departure time of each trip (in seconds)
+     */
+    public List<TravelTimeProfile> calculateTravelTimeProfiles(List<AlternativeModeTripQuery> queries, double window) {
+        return calculateInParallel(queries, (calculator, query) -> calculator.calculateTravelTimeProfile(query.fromLink(),
+                query.toLink(), query.departureTime(), window));
+    }
+
+    private <T> List<T> calculateInParallel(List<AlternativeModeTripQuery> queries,
+                                            BiFunction<AlternativeModeCalculator, AlternativeModeTripQuery, T> calculation) {
+        @SuppressWarnings("unchecked")
+        T[] results = (T[]) new Object[queries.size()];
+        forEachInParallel(queries.size(), (calculator, i) -> results[i] = calculation.apply(calculator, queries.get(i)));
+        return Arrays.asList(results);
+    }
+
+    private interface IndexedCalculation {
+        void calculate(AlternativeModeCalculator calculator, int index);
+    }
+
+    private void forEachInParallel(int size, IndexedCalculation calculation) {
+        AtomicInteger nextChunk = new AtomicInteger(0);
+        AtomicInteger processed = new AtomicInteger(0);
+        int logInterval = Math.max(size / 10, 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(calculators.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (AlternativeModeCalculator calculator : calculators) {
+                futures.add(executor.submit(() -> {
+                    int start;
+                    while ((start = nextChunk.getAndAdd(CHUNK_SIZE)) < size) {
+                        int end = Math.min(start + CHUNK_SIZE, size);
+                        for (int i = start; i < end; i++) {
+                            calculation.calculate(calculator, i);
+                            if (processed.incrementAndGet() % logInterval == 0) {
+                                log.info("Alternative mode data: " + processed.get() + " / " + size + " trips processed");
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<AlternativeModeTripData> calculateGroupedAlternativeTripData(List<AlternativeModeTripQuery> queries) {
+        List<int[]> groups = OneToManyAlternativeModeCalculator.groupQueries(queries, departureWindow);
+        log.info(queries.size() + " trips are grouped into " + groups.size() + " origin groups");
+        AlternativeModeTripData[] results = new AlternativeModeTripData[queries.size()];
+        AtomicInteger nextGroup = new AtomicInteger(0);
+        AtomicInteger processed = new AtomicInteger(0);
+        int logInterval = Math.max(groups.size() / 10, 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(oneToManyCalculators.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (OneToManyAlternativeModeCalculator calculator : oneToManyCalculators) {
+                futures.add(executor.submit(() -> {
+                    int g;
+                    while ((g = nextGroup.getAndIncrement()) < groups.size()) {
+                        int[] group = groups.get(g);
+                        List<AlternativeModeTripQuery> groupQueries = new ArrayList<>(group.length);
+                        for (int i : group) {
+                            groupQueries.add(queries.get(i));
+                        }
+                        List<AlternativeModeTripData> groupResults = calculator.calculateGroup(groupQueries);
+                        for (int i = 0; i < group.length; i++) {
+                            results[group[i]] = groupResults.get(i);
+                        }
+                        if (processed.incrementAndGet() % logInterval == 0) {
+                            log.info("Alternative mode data: " + processed.get() + " / " + groups.size() + " origin groups processed");
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        return Arrays.asList(results);
+    }
+}
@@ -0,0 +1,138 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Spatial index over the stop facilities of a transit schedule. Optionally, it is precomputed for each link of a
+ * network whether there is a stop within the walk radius of the link (to node), so that trips without any reachable
+ * stop can be answered as walk trips without calling the raptor.
+ * <p>
+ * Note that this is an approximation of the raptor: without a stop within the search radius, the raptor falls back to
+ * the nearest stop (plus the extension radius) instead of giving up, so that a trip without a stop in the walk radius
+ * may still have a PT route.
+ */
+public class TransitStopProximityIndex {
+    private final QuadTree<TransitStopFacility> stopsQuadTree;
+    // indexed by the link id index. Only available, if the index is created with a network
+    private final BitSet linksWithNearbyStop;
+    // max beeline speed between two consecutive stops of any transit route
+    private final double maxTransitSpeed;
+
+    public TransitStopProximityIndex(TransitSchedule schedule) {
+        this(schedule, null, 0);
+    }
+
+    /**
+     * @param walkRadius max (beeline) distance between the to node of a link and a stop
+     */
+    public TransitStopProximityIndex(TransitSchedule schedule, Network network, double walkRadius) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (TransitStopFacility stop : schedule.getFacilities().values()) {
+            minX = Math.min(minX, stop.getCoord().getX());
+            minY = Math.min(minY, stop.getCoord().getY());
+            maxX = Math.max(maxX, stop.getCoord().getX());
+            maxY = Math.max(maxY, stop.getCoord().getY());
+        }
+        if (schedule.getFacilities().isEmpty()) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        stopsQuadTree = new QuadTree<>(minX, minY, maxX, maxY);
+        for (TransitStopFacility stop : schedule.getFacilities().values()) {
+            stopsQuadTree.put(stop.getCoord().getX(), stop.getCoord().getY(), stop);
+        }
+
+        maxTransitSpeed = calculateMaxTransitSpeed(schedule);
+
+        if (network == null) {
+            linksWithNearbyStop = null;
+            return;
+        }
+        linksWithNearbyStop = new BitSet(Id.getNumberOfIds(Link.class));
+        for (Link link : network.getLinks().values()) {
+            if (!getStopsWithinRadius(link.getToNode().getCoord(), walkRadius).isEmpty()) {
+                linksWithNearbyStop.set(link.getId().index());
+            }
+        }
+    }
+
+    private static double calculateMaxTransitSpeed(TransitSchedule schedule) {
+        double maxSpeed = 0;
+        for (TransitLine line : schedule.getTransitLines().values()) {
+            for (TransitRoute route : line.getRoutes().values()) {
+                List<TransitRouteStop> stops = route.getStops();
+                for (int i = 1; i < stops.size(); i++) {
+                    TransitRouteStop previous = stops.get(i - 1);
+                    TransitRouteStop next = stops.get(i);
+                    OptionalTime departureOffset = previous.getDepartureOffset().or(previous.getArrivalOffset());
+                    OptionalTime arrivalOffset = next.getArrivalOffset().or(next.getDepartureOffset());
+                    if (departureOffset.isUndefined() || arrivalOffset.isUndefined()) {
+                        continue;
+                    }
+                    double distance = CoordUtils.calcEuclideanDistance(previous.getStopFacility().getCoord(), next.getStopFacility().getCoord());
+                    // at least one second between two stops, so that a zero travel time does not result in an infinite speed
+                    maxSpeed = Math.max(maxSpeed, distance / Math.max(arrivalOffset.seconds() - departureOffset.seconds(), 1));
+                }
+            }
+        }
+        return maxSpeed;
+    }
+
+    /**
+     * @return the max beeline speed between two consecutive stops of any transit route (an upper bound of the speed of
+     * any PT connection)
+     */
+    public double getMaxTransitSpeed() {
+        return maxTransitSpeed;
+    }
+
+    public boolean hasLinkIndex() {
+        return linksWithNearbyStop != null;
+    }
+
+    /**
+     * @return whether there is a stop within the walk radius of the link. Only available, if the index is created
+     * with a network
+     */
+    public boolean hasStopWithinWalkRadius(Link link) {
+        Preconditions.checkState(linksWithNearbyStop != null, "The stop index is created without a network");
+        return linksWithNearbyStop.get(link.getId().index());
+    }
+
+    /**
+     * @return the beeline distance to the nearest stop, or infinity if there is no stop
+     */
+    public double getDistanceToNearestStop(Coord coord) {
+        if (stopsQuadTree.size() == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        TransitStopFacility stop = stopsQuadTree.getClosest(coord.getX(), coord.getY());
+        return CoordUtils.calcEuclideanDistance(coord, stop.getCoord());
+    }
+
+    public Collection<TransitStopFacility> getStopsWithinRadius(Coord coord, double radius) {
+        if (stopsQuadTree.size() == 0) {
+            return List.of();
+        }
+        return stopsQuadTree.getDisk(coord.getX(), coord.getY(), radius);
+    }
+}
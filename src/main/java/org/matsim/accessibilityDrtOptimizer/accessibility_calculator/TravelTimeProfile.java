@@ -0,0 +1,64 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import java.util.Arrays;
+
+/**
+ * Earliest-arrival step function of the alternative modes over a departure window. The PT connections are stored as
+ * (departure time, arrival time) pairs sorted by departure time, with the arrival times already reduced to the
+ * earliest arrival of all the later departures. The travel time for any departure time within the window is then
+ * answered by a binary search: wait for the next connection, unless the direct walk is faster.
+ */
+public record TravelTimeProfile(double earliestDepartureTime, double latestDepartureTime, double walkTravelTime,
+                                double[] departureTimes, double[] arrivalTimes) {
+
+    /**
+     * @param departureTimes departure times of the PT connections (any order)
+     * @param arrivalTimes   arrival times of the PT connections
+     */
+    public static TravelTimeProfile of(double earliestDepartureTime, double latestDepartureTime, double walkTravelTime,
+                                       double[] departureTimes, double[] arrivalTimes) {
+        Integer[] order = new Integer[departureTimes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(departureTimes[a], departureTimes[b]));
+
+        double[] sortedDepartureTimes = new double[order.length];
+        double[] earliestArrivalTimes = new double[order.length];
+        double earliestArrival = Double.POSITIVE_INFINITY;
+        for (int i = order.length - 1; i >= 0; i--) {
+            earliestArrival = Math.min(earliestArrival, arrivalTimes[order[i]]);
+            sortedDepartureTimes[i] = departureTimes[order[i]];
+            earliestArrivalTimes[i] = earliestArrival;
+        }
+        return new TravelTimeProfile(earliestDepartureTime, latestDepartureTime, walkTravelTime, sortedDepartureTimes, earliestArrivalTimes);
+    }
+
+    public boolean covers(double departureTime) {
+        return departureTime >= earliestDepartureTime && departureTime <= latestDepartureTime;
+    }
+
+    /**
+     * @return the alternative mode travel time, or NaN if the departure time is outside the window or after the last
+     * connection within the window
+     */
+    public double getTravelTime(double departureTime) {
+        if (!covers(departureTime)) {
+            return Double.NaN;
+        }
+        int index = Arrays.binarySearch(departureTimes, departureTime);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            // several connections may depart at the same time: the first one has the earliest arrival
+            while (index > 0 && departureTimes[index - 1] == departureTime) {
+                index--;
+            }
+        }
+        if (index == departureTimes.length) {
+            // No later connection within the window: the next connection may depart after the window
+            return Double.NaN;
+        }
+        return Math.min(arrivalTimes[index] - departureTime, walkTravelTime);
+    }
+}
@@ -0,0 +1,155 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import com.google.common.base.Preconditions;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Travel time profiles of many trips in flat float arrays (the connections of trip i are stored in
+ * [offsets[i], offsets[i + 1])). The profiles are built by
+ * {@link org.matsim.accessibilityDrtOptimizer.prepare.PrepareAlternativeModeData} (option --profile-output).
+ */
+public class TravelTimeProfileStore {
+    private static final int MAGIC = 0x41545450; // "ATTP"
+    private static final int VERSION = 1;
+
+    private final Map<String, Integer> idIndex;
+    private final float[] earliestDepartureTimes;
+    private final float[] latestDepartureTimes;
+    private final float[] walkTravelTimes;
+    private final int[] offsets;
+    private final float[] departureTimes;
+    private final float[] arrivalTimes;
+
+    private TravelTimeProfileStore(Map<String, Integer> idIndex, float[] earliestDepartureTimes, float[] latestDepartureTimes,
+                                   float[] walkTravelTimes, int[] offsets, float[] departureTimes, float[] arrivalTimes) {
+        this.idIndex = idIndex;
+        this.earliestDepartureTimes = earliestDepartureTimes;
+        this.latestDepartureTimes = latestDepartureTimes;
+        this.walkTravelTimes = walkTravelTimes;
+        this.offsets = offsets;
+        this.departureTimes = departureTimes;
+        this.arrivalTimes = arrivalTimes;
+    }
+
+    public static TravelTimeProfileStore of(List<String> ids, List<TravelTimeProfile> profiles) {
+        Preconditions.checkArgument(ids.size() == profiles.size(), "Number of ids and profiles must be the same");
+        int n = profiles.size();
+        Map<String, Integer> idIndex = new HashMap<>();
+        float[] earliestDepartureTimes = new float[n];
+        float[] latestDepartureTimes = new float[n];
+        float[] walkTravelTimes = new float[n];
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + profiles.get(i).departureTimes().length;
+        }
+        float[] departureTimes = new float[offsets[n]];
+        float[] arrivalTimes = new float[offsets[n]];
+        for (int i = 0; i < n; i++) {
+            TravelTimeProfile profile = profiles.get(i);
+            idIndex.put(ids.get(i), i);
+            earliestDepartureTimes[i] = (float) profile.earliestDepartureTime();
+            latestDepartureTimes[i] = (float) profile.latestDepartureTime();
+            walkTravelTimes[i] = (float) profile.walkTravelTime();
+            for (int j = 0; j < profile.departureTimes().length; j++) {
+                departureTimes[offsets[i] + j] = (float) profile.departureTimes()[j];
+                arrivalTimes[offsets[i] + j] = (float) profile.arrivalTimes()[j];
+            }
+        }
+        return new TravelTimeProfileStore(idIndex, earliestDepartureTimes, latestDepartureTimes, walkTravelTimes, offsets,
+                departureTimes, arrivalTimes);
+    }
+
+    public int size() {
+        return walkTravelTimes.length;
+    }
+
+    /**
+     * @return the alternative mode travel time of the trip, or NaN if there is no profile for the trip, the departure
+     * time is outside its window or after the last connection within the window
+     */
+    public double getTravelTime(String id, double departureTime) {
+        Integer i = idIndex.get(id);
+        if (i == null || departureTime < earliestDepartureTimes[i] || departureTime > latestDepartureTimes[i]) {
+            return Double.NaN;
+        }
+        int from = offsets[i];
+        int to = offsets[i + 1];
+        // first connection departing at or after the departure time
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departureTimes[mid] < departureTime) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == to) {
+            return Double.NaN;
+        }
+        return Math.min(arrivalTimes[low] - departureTime, walkTravelTimes[i]);
+    }
+
+    public void write(Path path) throws IOException {
+        String[] ids = new String[size()];
+        idIndex.forEach((id, i) -> ids[i] = id);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size());
+            for (int i = 0; i < size(); i++) {
+                out.writeUTF(ids[i]);
+                out.writeFloat(earliestDepartureTimes[i]);
+                out.writeFloat(latestDepartureTimes[i]);
+                out.writeFloat(walkTravelTimes[i]);
+                out.writeInt(offsets[i + 1] - offsets[i]);
+                for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    out.writeFloat(departureTimes[j]);
+                    out.writeFloat(arrivalTimes[j]);
+                }
+            }
+        }
+    }
+
+    public static TravelTimeProfileStore read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            Preconditions.checkArgument(in.readInt() == MAGIC, "Not a travel time profile file: " + path);
+            Preconditions.checkArgument(in.readInt() == VERSION, "Unsupported version of travel time profile file: " + path);
+            int n = in.readInt();
+            Map<String, Integer> idIndex = new HashMap<>();
+            float[] earliestDepartureTimes = new float[n];
+            float[] latestDepartureTimes = new float[n];
+            float[] walkTravelTimes = new float[n];
+            int[] offsets = new int[n + 1];
+            float[] departureTimes = new float[Math.max(n, 16)];
+            float[] arrivalTimes = new float[Math.max(n, 16)];
+            for (int i = 0; i < n; i++) {
+                idIndex.put(in.readUTF(), i);
+                earliestDepartureTimes[i] = in.readFloat();
+                latestDepartureTimes[i] = in.readFloat();
+                walkTravelTimes[i] = in.readFloat();
+                int numConnections = in.readInt();
+                offsets[i + 1] = offsets[i] + numConnections;
+                if (offsets[i + 1] > departureTimes.length) {
+                    int capacity = Math.max(offsets[i + 1], departureTimes.length * 2);
+                    departureTimes = Arrays.copyOf(departureTimes, capacity);
+                    arrivalTimes = Arrays.copyOf(arrivalTimes, capacity);
+                }
+                for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    departureTimes[j] = in.readFloat();
+                    arrivalTimes[j] = in.readFloat();
+                }
+            }
+            return new TravelTimeProfileStore(idIndex, earliestDepartureTimes, latestDepartureTimes, walkTravelTimes, offsets,
+                    Arrays.copyOf(departureTimes, offsets[n]), Arrays.copyOf(arrivalTimes, offsets[n]));
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package org.matsim.accessibilityDrtOptimizer.analysis;
 
+import com.google.common.base.Preconditions;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
 import org.matsim.contrib.drt.optimizer.constraints.DefaultDrtOptimizationConstraintsSet;
 import org.matsim.contrib.drt.run.DrtConfigGroup;
 
@@ -12,11 +14,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-
-import static org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData.*;
 
 public class PerformanceAnalysis {
     public static final String FLEET_SIZE = "fleet_size";
@@ -31,16 +29,19 @@ public class PerformanceAnalysis {
             Arrays.asList(FLEET_SIZE, TOTAL_TRIPS, SATISFACTORY_TRIPS, SATISFACTORY_RATE,
                     SYSTEM_TOTAL_TRAVEL_TIME, NUM_DRT_TRIPS_SERVED, DRT_TRIPS_SHARE, DRT_SATISFACTORY_RATE);
 
-    private final DrtConfigGroup drtConfigGroup;
     private final String outputSummaryPath;
 
-    private final Map<String, Double> alternativeModeTravelTimeMap = new HashMap<>();
-    private final Map<String, Double> tripDirectTravelTimeMap = new HashMap<>();
+    private final AlternativeModeTripDataStore alternativeModeTripData;
+    private final double[] maxTravelTimes;
     private final int numOfTotalTrips;
 
     public PerformanceAnalysis(DrtConfigGroup drtConfigGroup, String alternativeModeDataPath, String outputSummaryPath) throws IOException {
-        this.drtConfigGroup = drtConfigGroup;
+        this(drtConfigGroup, AlternativeModeTripDataStore.read(Path.of(alternativeModeDataPath)), outputSummaryPath);
+    }
+
+    public PerformanceAnalysis(DrtConfigGroup drtConfigGroup, AlternativeModeTripDataStore alternativeModeTripData, String outputSummaryPath) throws IOException {
         this.outputSummaryPath = outputSummaryPath;
+        this.alternativeModeTripData = alternativeModeTripData;
 
         Path parentPath = Path.of(outputSummaryPath).getParent();
         while (!Files.exists(parentPath)) {
@@ -48,15 +49,12 @@ public class PerformanceAnalysis {
             parentPath = parentPath.getParent();
         }
 
-        try (CSVParser parser = new CSVParser(Files.newBufferedReader(Path.of(alternativeModeDataPath)),
-                CSVFormat.TDF.withFirstRecordAsHeader())) {
-            for (CSVRecord record : parser.getRecords()) {
-                String personId = record.get(ID);
-                alternativeModeTravelTimeMap.put(personId, Double.parseDouble(record.get(ACTUAL_TOTAL_TRAVEL_TIME)));
-                tripDirectTravelTimeMap.put(personId, Double.parseDouble(record.get(DIRECT_CAR_TRAVEL_TIME)));
-            }
+        numOfTotalTrips = alternativeModeTripData.size();
+        DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtConfigGroup.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
+        maxTravelTimes = new double[numOfTotalTrips];
+        for (int i = 0; i < numOfTotalTrips; i++) {
+            maxTravelTimes[i] = constraints.maxTravelTimeAlpha * alternativeModeTripData.directCarTravelTime(i) + constraints.maxTravelTimeBeta;
         }
-        numOfTotalTrips = alternativeModeTravelTimeMap.size();
     }
 
     public void writeTitle() throws IOException {
@@ -68,7 +66,10 @@ public class PerformanceAnalysis {
     public void writeDataEntry(String outputFolder, int fleetSize) throws IOException {
         CSVPrinter summaryWriter = new CSVPrinter(new FileWriter(outputSummaryPath, true), CSVFormat.TDF);
 
-        Map<String, Double> systemTotalTravelTimeMap = new HashMap<>(alternativeModeTravelTimeMap);
+        double[] systemTotalTravelTimes = new double[numOfTotalTrips];
+        for (int i = 0; i < numOfTotalTrips; i++) {
+            systemTotalTravelTimes[i] = alternativeModeTripData.actualTotalTravelTime(i);
+        }
 
         int numDrtTrips = 0;
         int satisfactoryDrtTrips = 0;
@@ -76,12 +77,14 @@ public class PerformanceAnalysis {
                 CSVFormat.DEFAULT.withDelimiter(';').withFirstRecordAsHeader())) {
             for (CSVRecord record : parser.getRecords()) {
                 String personId = record.get("personId");
+                int tripIndex = alternativeModeTripData.indexOf(personId);
+                Preconditions.checkState(tripIndex >= 0, "No alternative mode data for person " + personId);
                 double arrivalTime = Double.parseDouble(record.get("arrivalTime"));
                 double latestArrivalTime = Double.parseDouble(record.get("latestArrivalTime"));
                 double departureTime = Double.parseDouble(record.get("departureTime"));
                 double totalTravelTime = arrivalTime - departureTime;
                 // override with DRT data
-                systemTotalTravelTimeMap.put(personId, totalTravelTime);
+                systemTotalTravelTimes[tripIndex] = totalTravelTime;
                 numDrtTrips++;
                 if (arrivalTime <= latestArrivalTime) {
                     satisfactoryDrtTrips++;
@@ -90,18 +93,15 @@ public class PerformanceAnalysis {
         }
 
         int satisfactoryTrips = 0;
-        for (String personId : systemTotalTravelTimeMap.keySet()) {
-            double directTravelTime = tripDirectTravelTimeMap.get(personId);
-            DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtConfigGroup.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
-            double maxTravelTime = constraints.maxTravelTimeAlpha * directTravelTime + constraints.maxTravelTimeBeta;
-            double actualTravelTime = systemTotalTravelTimeMap.get(personId);
-            if (actualTravelTime <= maxTravelTime) {
+        double systemTotalTravelTime = 0;
+        for (int i = 0; i < numOfTotalTrips; i++) {
+            if (systemTotalTravelTimes[i] <= maxTravelTimes[i]) {
                 satisfactoryTrips++;
             }
+            systemTotalTravelTime += systemTotalTravelTimes[i];
         }
 
         double satisfactoryRate = (double) satisfactoryTrips / numOfTotalTrips;
-        double systemTotalTravelTime = systemTotalTravelTimeMap.values().stream().mapToDouble(t -> t).sum();
         double drtTripsShare = (double) numDrtTrips / numOfTotalTrips;
         double drtSatisfactoryRate = (double) satisfactoryDrtTrips / numDrtTrips;
 
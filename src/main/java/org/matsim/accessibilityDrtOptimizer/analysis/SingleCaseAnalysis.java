@@ -17,6 +17,10 @@ import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator;
 import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripQuery;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.CachedAlternativeModeCalculator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.OneToManyAlternativeModeCalculator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TransitStopProximityIndex;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
@@ -66,6 +70,16 @@ public class SingleCaseAnalysis implements MATSimAppCommand {
     @CommandLine.Option(names = "--cell-size", description = "cell size for the analysis", defaultValue = "2000")
     private double cellSize;
 
+    @CommandLine.Option(names = "--cache-size", description = "max number of cached alternative mode results (0: no cache)", defaultValue = "0")
+    private int cacheSize;
+
+    @CommandLine.Option(names = "--cache-time-bin", description = "departure time bin (in seconds) for the alternative mode cache", defaultValue = "60")
+    private int cacheTimeBin;
+
+    @CommandLine.Option(names = "--departure-window", description = "departure time window (in seconds) for evaluating trips " +
+            "from the same origin link with one PT tree search (0: each trip is routed separately)", defaultValue = "0")
+    private double departureWindow;
+
     private static final Logger log = LogManager.getLogger(SingleCaseAnalysis.class);
 
     public static void main(String[] args) {
@@ -87,7 +101,12 @@ public class SingleCaseAnalysis implements MATSimAppCommand {
         SwissRailRaptorData data = SwissRailRaptorData.create(schedule, null, RaptorUtils.createStaticConfig(config), network, null);
         SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
 
-        AlternativeModeCalculator alternativeModeCalculator = new AlternativeModeCalculator(raptor, network);
+        AlternativeModeCalculator alternativeModeCalculator = cacheSize > 0 ?
+                new CachedAlternativeModeCalculator(raptor, network, cacheSize, cacheTimeBin, 0) :
+                new AlternativeModeCalculator(raptor, network);
+        OneToManyAlternativeModeCalculator oneToManyCalculator = departureWindow > 0 ?
+                new OneToManyAlternativeModeCalculator(alternativeModeCalculator, raptor, RaptorUtils.createParameters(config),
+                        new TransitStopProximityIndex(schedule), config.transitRouter().getSearchRadius(), departureWindow) : null;
 
         Path servedDemandsFile = ApplicationUtils.globFile(Path.of(directory + "/ITERS/it." + iterationFolder), "*drt_legs_drt.csv*");
         Path rejectedDemandsFile = ApplicationUtils.globFile(Path.of(directory + "/ITERS/it." + iterationFolder), "*drt_rejections_drt.csv*");
@@ -134,11 +153,21 @@ public class SingleCaseAnalysis implements MATSimAppCommand {
         // Process rejected requests
         try (CSVParser parser = new CSVParser(Files.newBufferedReader(rejectedDemandsFile),
                 CSVFormat.DEFAULT.withDelimiter(';').withFirstRecordAsHeader())) {
-            for (CSVRecord record : parser.getRecords()) {
-                double departureTime = Double.parseDouble(record.get("time"));
-                Link fromLink = network.getLinks().get(Id.createLinkId(record.get("fromLinkId")));
-                Link toLink = network.getLinks().get(Id.createLinkId(record.get("toLinkId")));
-                AlternativeModeTripData alternativeModeTripData = alternativeModeCalculator.calculateAlternativeTripData(record.get("personId"), fromLink, toLink, departureTime);
+            List<CSVRecord> records = parser.getRecords();
+            List<AlternativeModeTripQuery> queries = new ArrayList<>();
+            for (CSVRecord record : records) {
+                queries.add(new AlternativeModeTripQuery(record.get("personId"),
+                        network.getLinks().get(Id.createLinkId(record.get("fromLinkId"))),
+                        network.getLinks().get(Id.createLinkId(record.get("toLinkId"))),
+                        Double.parseDouble(record.get("time"))));
+            }
+            List<AlternativeModeTripData> alternativeModeResults = calculateAlternativeTripData(queries, alternativeModeCalculator, oneToManyCalculator);
+
+            for (int i = 0; i < records.size(); i++) {
+                CSVRecord record = records.get(i);
+                Link fromLink = queries.get(i).fromLink();
+                Link toLink = queries.get(i).toLink();
+                AlternativeModeTripData alternativeModeTripData = alternativeModeResults.get(i);
                 double directCarTravelTime = alternativeModeTripData.directCarTravelTime();
                 DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtConfigGroup.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
                 double travelTimeIndex = alternativeModeTripData.actualTotalTravelTime() / (constraints.maxTravelTimeAlpha * directCarTravelTime + constraints.maxTravelTimeBeta);
@@ -168,13 +197,23 @@ public class SingleCaseAnalysis implements MATSimAppCommand {
         // Process served DRT trips
         try (CSVParser parser = new CSVParser(Files.newBufferedReader(servedDemandsFile),
                 CSVFormat.DEFAULT.withDelimiter(';').withFirstRecordAsHeader())) {
-            for (CSVRecord record : parser.getRecords()) {
+            List<CSVRecord> records = parser.getRecords();
+            List<AlternativeModeTripQuery> queries = new ArrayList<>();
+            for (CSVRecord record : records) {
+                queries.add(new AlternativeModeTripQuery(record.get("personId"),
+                        network.getLinks().get(Id.createLinkId(record.get("fromLinkId"))),
+                        network.getLinks().get(Id.createLinkId(record.get("toLinkId"))),
+                        Double.parseDouble(record.get("departureTime"))));
+            }
+            List<AlternativeModeTripData> alternativeModeResults = calculateAlternativeTripData(queries, alternativeModeCalculator, oneToManyCalculator);
+
+            for (int i = 0; i < records.size(); i++) {
+                CSVRecord record = records.get(i);
                 double departureTime = Double.parseDouble(record.get("departureTime"));
                 double arrivalTime = Double.parseDouble(record.get("arrivalTime"));
                 double journeyTime = arrivalTime - departureTime;
-                Link fromLink = network.getLinks().get(Id.createLinkId(record.get("fromLinkId")));
-                Link toLink = network.getLinks().get(Id.createLinkId(record.get("toLinkId")));
-                AlternativeModeTripData alternativeModeTripData = alternativeModeCalculator.calculateAlternativeTripData(record.get("personId"), fromLink, toLink, departureTime);
+                Link fromLink = queries.get(i).fromLink();
+                AlternativeModeTripData alternativeModeTripData = alternativeModeResults.get(i);
                 double directCarTravelTime = alternativeModeTripData.directCarTravelTime();
                 DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtConfigGroup.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
                 double travelTimeIndex = journeyTime / (constraints.maxTravelTimeAlpha * directCarTravelTime + constraints.maxTravelTimeBeta);
@@ -203,6 +242,9 @@ public class SingleCaseAnalysis implements MATSimAppCommand {
             }
         }
         tripsWriter.close();
+        if (alternativeModeCalculator instanceof CachedAlternativeModeCalculator cachedAlternativeModeCalculator) {
+            cachedAlternativeModeCalculator.logStatistics();
+        }
 
         String fleetDistance = "0";
         String fleetSize = "0";
@@ -234,6 +276,18 @@ public class SingleCaseAnalysis implements MATSimAppCommand {
         return 0;
     }
 
+    private List<AlternativeModeTripData> calculateAlternativeTripData(List<AlternativeModeTripQuery> queries,
+                                                                       AlternativeModeCalculator alternativeModeCalculator,
+                                                                       OneToManyAlternativeModeCalculator oneToManyCalculator) {
+        if (oneToManyCalculator != null) {
+            return oneToManyCalculator.calculateAlternativeTripData(queries);
+        }
+        List<AlternativeModeTripData> results = new ArrayList<>(queries.size());
+        for (AlternativeModeTripQuery query : queries) {
+            results.add(alternativeModeCalculator.calculateAlternativeTripData(query.id(), query.fromLink(), query.toLink(), query.departureTime()));
+        }
+        return results;
+    }
 
     private Collection<SimpleFeature> convertGeometriesToSimpleFeatures(String targetCoordinateSystem, ZoneSystem zones,
                                                                         Map<String, List<Double>> statsMap,
@@ -1,16 +1,19 @@
 package org.matsim.accessibilityDrtOptimizer.optimizer;
 
+import com.google.common.base.Preconditions;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator;
-import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeSkimMatrix;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTravelTimeEstimator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.CachedAlternativeModeCalculator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TravelTimeProfileStore;
 import org.matsim.api.core.v01.network.Link;
-import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.drt.optimizer.DrtOptimizer;
 import org.matsim.contrib.drt.optimizer.DrtRequestInsertionRetryQueue;
-import org.matsim.contrib.drt.optimizer.constraints.DefaultDrtOptimizationConstraintsSet;
 import org.matsim.contrib.drt.optimizer.depot.DepotFinder;
 import org.matsim.contrib.drt.optimizer.depot.Depots;
+import org.matsim.contrib.drt.optimizer.insertion.DefaultUnplannedRequestInserter;
 import org.matsim.contrib.drt.optimizer.insertion.UnplannedRequestInserter;
 import org.matsim.contrib.drt.optimizer.rebalancing.RebalancingStrategy;
 import org.matsim.contrib.drt.passenger.DrtRequest;
@@ -22,23 +25,34 @@ import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.contrib.dvrp.fleet.Fleet;
 import org.matsim.contrib.dvrp.optimizer.Request;
 import org.matsim.contrib.dvrp.passenger.PassengerRequestRejectedEvent;
-import org.matsim.contrib.dvrp.path.VrpPaths;
-import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
 import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.mobsim.framework.MobsimTimer;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeCleanupEvent;
 import org.matsim.core.mobsim.framework.events.MobsimBeforeSimStepEvent;
-import org.matsim.core.router.speedy.SpeedyALTFactory;
-import org.matsim.core.router.util.LeastCostPathCalculator;
-import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeCleanupListener;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
+/**
+ * The requests submitted within a sim step are collected and their alternative modes are evaluated at the beginning of
+ * the next sim step, in parallel with more than one accessibility calculator (one worker per calculator), otherwise
+ * directly on the mobsim thread. The rejections and the hand-off to the inserter are then resolved in submission
+ * order, so that the decisions and the event times do not depend on the number of workers. The rejection thresholds depend on the fleet state (time varying threshold), which
+ * is not thread-safe, so that they are determined on the mobsim thread before the workers are started.
+ */
 @Deprecated
-public class DefaultDrtOptimizerWithRejection implements DrtOptimizer {
+public class DefaultDrtOptimizerWithRejection implements DrtOptimizer, MobsimBeforeCleanupListener {
     private static final Logger log = LogManager.getLogger(DefaultDrtOptimizerWithRejection.class);
 
     private final DrtConfigGroup drtCfg;
@@ -53,10 +67,20 @@ public class DefaultDrtOptimizerWithRejection implements DrtOptimizer {
     private final UnplannedRequestInserter requestInserter;
     private final DrtRequestInsertionRetryQueue insertionRetryQueue;
 
-    private final AlternativeModeCalculator accessibilityCalculator;
-
-    private final TravelTime travelTime;
-    private final LeastCostPathCalculator router;
+    // one calculator per worker (the calculators are not thread-safe)
+    private final List<AlternativeModeCalculator> accessibilityCalculators;
+    // null, if there is only one calculator (the requests are then evaluated on the mobsim thread)
+    private final ExecutorService accessibilityExecutor;
+    private final List<DrtRequest> submittedRequests = new ArrayList<>();
+    // optional (may be null): zone-to-zone skims, the exact calculation is only used for trips not covered by the skims
+    private final AlternativeModeSkimMatrix skims;
+    // optional (may be null): departure time profiles of the trips (by passenger id), used before the skims
+    private final TravelTimeProfileStore travelTimeProfiles;
+    // optional (may be null): fast estimate, the exact calculation is only used when the confidence interval of the
+    // estimate contains the rejection threshold
+    private final AlternativeModeTravelTimeEstimator estimator;
+    private final AtomicInteger estimatedRequests = new AtomicInteger();
+    private final AtomicInteger exactlyCalculatedRequests = new AtomicInteger();
 
     private final Queue<DrtRequest> unplannedRequests = new LinkedList<>();
 
@@ -65,12 +89,84 @@ public class DefaultDrtOptimizerWithRejection implements DrtOptimizer {
     private final EventsManager eventsManager;
 
     private final TimeVaryingRejectionThreshold timeVaryingRejectionThreshold;
+    // optional (may be null): incrementally maintained idle state of the fleet, otherwise the whole fleet is filtered
+    private final FleetStateIndex fleetStateIndex;
+    // optional (may be null): schedule timings are only updated for the vehicles that may be outdated, otherwise the
+    // whole fleet is updated
+    private final DirtyScheduleTimingUpdater dirtyScheduleTimingUpdater;
+    // optional (may be null): the whole fleet is updated in parallel, otherwise serially
+    private final ParallelScheduleTimingUpdater parallelScheduleTimingUpdater;
+    private final List<DvrpVehicle> vehicles;
+    // optional (may be null): requests that no vehicle can reach in time skip the insertion search
+    private final InsertionFeasibilityPreScreen feasibilityPreScreen;
+
+    /**
+     * Optional collaborators of the optimizer (all may be null). Without them, the alternative modes are calculated
+     * exactly and the whole fleet is filtered and updated.
+     */
+    public static class OptionalComponents {
+        private AlternativeModeSkimMatrix skims;
+        private TravelTimeProfileStore travelTimeProfiles;
+        private AlternativeModeTravelTimeEstimator estimator;
+        private FleetStateIndex fleetStateIndex;
+        private DirtyScheduleTimingUpdater dirtyScheduleTimingUpdater;
+        private ParallelScheduleTimingUpdater parallelScheduleTimingUpdater;
+        private InsertionFeasibilityPreScreen feasibilityPreScreen;
+
+        public OptionalComponents setSkims(AlternativeModeSkimMatrix skims) {
+            this.skims = skims;
+            return this;
+        }
+
+        public OptionalComponents setTravelTimeProfiles(TravelTimeProfileStore travelTimeProfiles) {
+            this.travelTimeProfiles = travelTimeProfiles;
+            return this;
+        }
+
+        public OptionalComponents setEstimator(AlternativeModeTravelTimeEstimator estimator) {
+            this.estimator = estimator;
+            return this;
+        }
+
+        public OptionalComponents setFleetStateIndex(FleetStateIndex fleetStateIndex) {
+            this.fleetStateIndex = fleetStateIndex;
+            return this;
+        }
+
+        public OptionalComponents setDirtyScheduleTimingUpdater(DirtyScheduleTimingUpdater dirtyScheduleTimingUpdater) {
+            this.dirtyScheduleTimingUpdater = dirtyScheduleTimingUpdater;
+            return this;
+        }
+
+        /**
+         * Parallel full sweep over the fleet (only used without a dirty schedule timing updater, which has its own)
+         */
+        public OptionalComponents setParallelScheduleTimingUpdater(ParallelScheduleTimingUpdater parallelScheduleTimingUpdater) {
+            this.parallelScheduleTimingUpdater = parallelScheduleTimingUpdater;
+            return this;
+        }
+
+        public OptionalComponents setFeasibilityPreScreen(InsertionFeasibilityPreScreen feasibilityPreScreen) {
+            this.feasibilityPreScreen = feasibilityPreScreen;
+            return this;
+        }
+    }
 
     public DefaultDrtOptimizerWithRejection(DrtConfigGroup drtCfg, Fleet fleet, MobsimTimer mobsimTimer, DepotFinder depotFinder,
                                             RebalancingStrategy rebalancingStrategy, DrtScheduleInquiry scheduleInquiry, ScheduleTimingUpdater scheduleTimingUpdater,
                                             EmptyVehicleRelocator relocator, UnplannedRequestInserter requestInserter, DrtRequestInsertionRetryQueue insertionRetryQueue,
-                                            AlternativeModeCalculator accessibilityCalculator, Network network, TravelTime travelTime, double baseThreshold, EventsManager eventsManager,
+                                            List<AlternativeModeCalculator> accessibilityCalculators, double baseThreshold, EventsManager eventsManager,
                                             TimeVaryingRejectionThreshold timeVaryingRejectionThreshold) {
+        this(drtCfg, fleet, mobsimTimer, depotFinder, rebalancingStrategy, scheduleInquiry, scheduleTimingUpdater, relocator,
+                requestInserter, insertionRetryQueue, accessibilityCalculators, baseThreshold, eventsManager, timeVaryingRejectionThreshold,
+                new OptionalComponents());
+    }
+
+    public DefaultDrtOptimizerWithRejection(DrtConfigGroup drtCfg, Fleet fleet, MobsimTimer mobsimTimer, DepotFinder depotFinder,
+                                            RebalancingStrategy rebalancingStrategy, DrtScheduleInquiry scheduleInquiry, ScheduleTimingUpdater scheduleTimingUpdater,
+                                            EmptyVehicleRelocator relocator, UnplannedRequestInserter requestInserter, DrtRequestInsertionRetryQueue insertionRetryQueue,
+                                            List<AlternativeModeCalculator> accessibilityCalculators, double baseThreshold, EventsManager eventsManager,
+                                            TimeVaryingRejectionThreshold timeVaryingRejectionThreshold, OptionalComponents optionalComponents) {
         this.drtCfg = drtCfg;
         this.fleet = fleet;
         this.mobsimTimer = mobsimTimer;
@@ -81,42 +177,101 @@ public class DefaultDrtOptimizerWithRejection implements DrtOptimizer {
         this.relocator = relocator;
         this.requestInserter = requestInserter;
         this.insertionRetryQueue = insertionRetryQueue;
-        this.accessibilityCalculator = accessibilityCalculator;
-        this.travelTime = travelTime;
-        this.router = new SpeedyALTFactory().createPathCalculator(network, new TimeAsTravelDisutility(travelTime), travelTime);
+        Preconditions.checkArgument(!accessibilityCalculators.isEmpty(), "At least one accessibility calculator is required");
+        this.accessibilityCalculators = accessibilityCalculators;
+        this.accessibilityExecutor = accessibilityCalculators.size() > 1 ?
+                Executors.newFixedThreadPool(accessibilityCalculators.size(), runnable -> {
+                    Thread thread = new Thread(runnable, "accessibility-evaluation");
+                    thread.setDaemon(true);
+                    return thread;
+                }) : null;
 
         rebalancingInterval = drtCfg.getRebalancingParams().map(rebalancingParams -> rebalancingParams.interval).orElse(null);
         this.baseThreshold = baseThreshold;
         this.eventsManager = eventsManager;
         this.timeVaryingRejectionThreshold = timeVaryingRejectionThreshold;
+        this.skims = optionalComponents.skims;
+        this.travelTimeProfiles = optionalComponents.travelTimeProfiles;
+        this.estimator = optionalComponents.estimator;
+        this.fleetStateIndex = optionalComponents.fleetStateIndex;
+        this.dirtyScheduleTimingUpdater = optionalComponents.dirtyScheduleTimingUpdater;
+        this.parallelScheduleTimingUpdater = optionalComponents.parallelScheduleTimingUpdater;
+        this.vehicles = new ArrayList<>(fleet.getVehicles().values());
+        this.feasibilityPreScreen = optionalComponents.feasibilityPreScreen;
     }
 
     @Override
     public void notifyMobsimBeforeSimStep(@SuppressWarnings("rawtypes") MobsimBeforeSimStepEvent e) {
+        if (fleetStateIndex != null) {
+            // the service of idle vehicles may have ended
+            fleetStateIndex.refreshIdleVehicles();
+        }
+        if (!submittedRequests.isEmpty()) {
+            evaluateSubmittedRequests();
+        }
+
         boolean scheduleTimingUpdated = false;
         if (!unplannedRequests.isEmpty() || insertionRetryQueue.hasRequestsToRetryNow(e.getSimulationTime())) {
-            for (DvrpVehicle v : fleet.getVehicles().values()) {
-                scheduleTimingUpdater.updateTimings(v);
-            }
+            updateTimings(e.getSimulationTime());
             scheduleTimingUpdated = true;
 
+            if (feasibilityPreScreen != null && !unplannedRequests.isEmpty()) {
+                screenUnplannedRequests(e.getSimulationTime());
+            }
             requestInserter.scheduleUnplannedRequests(unplannedRequests);
+            if (dirtyScheduleTimingUpdater != null) {
+                dirtyScheduleTimingUpdater.markStayingVehiclesDirty();
+            }
+            if (fleetStateIndex != null) {
+                // idle vehicles may have received requests
+                fleetStateIndex.refreshIdleVehicles();
+            }
         }
 
         if (rebalancingInterval != null && e.getSimulationTime() % rebalancingInterval == 0) {
             if (!scheduleTimingUpdated) {
-                for (DvrpVehicle v : fleet.getVehicles().values()) {
-                    scheduleTimingUpdater.updateTimings(v);
-                }
+                updateTimings(e.getSimulationTime());
             }
 
             rebalanceFleet();
         }
     }
 
+    /**
+     * Requests that no vehicle can reach before their latest start time are handled as if the insertion search had
+     * failed (retry later, if possible, otherwise rejection), without the insertion search.
+     */
+    private void screenUnplannedRequests(double now) {
+        feasibilityPreScreen.updateVehiclePositions(now);
+        Iterator<DrtRequest> iterator = unplannedRequests.iterator();
+        while (iterator.hasNext()) {
+            DrtRequest drtRequest = iterator.next();
+            if (!feasibilityPreScreen.isPotentiallyFeasible(drtRequest)) {
+                iterator.remove();
+                if (!insertionRetryQueue.tryAddFailedRequest(drtRequest, now)) {
+                    eventsManager.processEvent(new PassengerRequestRejectedEvent(now, drtCfg.mode, drtRequest.getId(),
+                            drtRequest.getPassengerIds(), DefaultUnplannedRequestInserter.NO_INSERTION_FOUND_CAUSE));
+                }
+            }
+        }
+    }
+
+    private void updateTimings(double now) {
+        if (dirtyScheduleTimingUpdater != null) {
+            dirtyScheduleTimingUpdater.updateTimings(now);
+        } else if (parallelScheduleTimingUpdater != null) {
+            parallelScheduleTimingUpdater.updateTimings(vehicles);
+        } else {
+            for (DvrpVehicle v : fleet.getVehicles().values()) {
+                scheduleTimingUpdater.updateTimings(v);
+            }
+        }
+    }
+
     private void rebalanceFleet() {
         // right now we relocate only idle vehicles (vehicles that are being relocated cannot be relocated)
-        Stream<? extends DvrpVehicle> rebalancableVehicles = fleet.getVehicles().values().stream().filter(scheduleInquiry::isIdle);
+        Stream<? extends DvrpVehicle> rebalancableVehicles = fleetStateIndex != null ? fleetStateIndex.getIdleVehicles() :
+                fleet.getVehicles().values().stream().filter(scheduleInquiry::isIdle);
         List<RebalancingStrategy.Relocation> relocations = rebalancingStrategy.calcRelocations(rebalancableVehicles, mobsimTimer.getTimeOfDay());
 
         if (!relocations.isEmpty()) {
@@ -125,6 +280,12 @@ public class DefaultDrtOptimizerWithRejection implements DrtOptimizer {
                 Link currentLink = ((DrtStayTask) r.vehicle.getSchedule().getCurrentTask()).getLink();
                 if (currentLink != r.link) {
                     relocator.relocateVehicle(r.vehicle, r.link, EmptyVehicleRelocator.RELOCATE_VEHICLE_TASK_TYPE);
+                    if (fleetStateIndex != null) {
+                        fleetStateIndex.refresh(r.vehicle);
+                    }
+                    if (dirtyScheduleTimingUpdater != null) {
+                        dirtyScheduleTimingUpdater.markDirty(r.vehicle);
+                    }
                 }
             }
         }
@@ -132,21 +293,139 @@ public class DefaultDrtOptimizerWithRejection implements DrtOptimizer {
 
     @Override
     public void requestSubmitted(Request request) {
-        double now = mobsimTimer.getTimeOfDay();
         DrtRequest drtRequest = (DrtRequest) request;
-        AlternativeModeTripData alternativeModeData = accessibilityCalculator.calculateAlternativeTripData(drtRequest);
-        double directTravelTime = VrpPaths.calcAndCreatePath(drtRequest.getFromLink(), drtRequest.getToLink(), now, router, travelTime).getTravelTime();
-        DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtCfg.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
-        double maxTravelTime = constraints.maxTravelTimeAlpha * directTravelTime + constraints.maxTravelTimeBeta;
-        double threshold = timeVaryingRejectionThreshold.getThresholdFactor() * baseThreshold;
+        timeVaryingRejectionThreshold.notifyRequestSubmitted(drtRequest);
+        submittedRequests.add(drtRequest);
+    }
+
+    private void evaluateSubmittedRequests() {
+        // the workers only read the thresholds
+        double[] thresholds = new double[submittedRequests.size()];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = getThreshold(submittedRequests.get(i));
+        }
+        double[] alternativeTravelTimes = new double[submittedRequests.size()];
+        if (accessibilityExecutor == null) {
+            for (int i = 0; i < alternativeTravelTimes.length; i++) {
+                alternativeTravelTimes[i] = calculateAlternativeTravelTime(submittedRequests.get(i), thresholds[i],
+                        accessibilityCalculators.get(0));
+            }
+        } else {
+            calculateAlternativeTravelTimes(thresholds, alternativeTravelTimes);
+        }
+
+        // Resolve in submission order
+        for (int i = 0; i < alternativeTravelTimes.length; i++) {
+            processRequest(submittedRequests.get(i), thresholds[i], alternativeTravelTimes[i]);
+        }
+        submittedRequests.clear();
+    }
+
+    private void calculateAlternativeTravelTimes(double[] thresholds, double[] alternativeTravelTimes) {
+        AtomicInteger nextRequest = new AtomicInteger(0);
+        int numWorkers = Math.min(accessibilityCalculators.size(), submittedRequests.size());
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < numWorkers; w++) {
+            AlternativeModeCalculator calculator = accessibilityCalculators.get(w);
+            futures.add(accessibilityExecutor.submit(() -> {
+                int i;
+                while ((i = nextRequest.getAndIncrement()) < alternativeTravelTimes.length) {
+                    alternativeTravelTimes[i] = calculateAlternativeTravelTime(submittedRequests.get(i), thresholds[i], calculator);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Called on the worker threads (with more than one calculator): only thread-safe, read-only state may be accessed
+     * here (the threshold is passed in).
+     */
+    private double calculateAlternativeTravelTime(DrtRequest drtRequest, double threshold, AlternativeModeCalculator accessibilityCalculator) {
+        double alternativeTravelTime = Double.NaN;
+        if (travelTimeProfiles != null) {
+            alternativeTravelTime = travelTimeProfiles.getTravelTime(drtRequest.getPassengerIds().get(0).toString(), drtRequest.getEarliestStartTime());
+        }
+        if (Double.isNaN(alternativeTravelTime) && skims != null) {
+            alternativeTravelTime = skims.getPtTravelTime(drtRequest.getFromLink(), drtRequest.getToLink(), drtRequest.getEarliestStartTime());
+        }
+        if (Double.isNaN(alternativeTravelTime) && estimator != null) {
+            double thresholdTravelTime = getMaxTravelTime(drtRequest) * threshold;
+            double departureTime = drtRequest.getEarliestStartTime();
+            if (estimator.getLowerBound(drtRequest.getFromLink(), drtRequest.getToLink(), departureTime) >= thresholdTravelTime ||
+                    estimator.getUpperBound(drtRequest.getFromLink(), drtRequest.getToLink(), departureTime) < thresholdTravelTime) {
+                // The decision is the same for any travel time within the confidence interval
+                estimatedRequests.incrementAndGet();
+                return estimator.estimate(drtRequest.getFromLink(), drtRequest.getToLink(), departureTime);
+            }
+            exactlyCalculatedRequests.incrementAndGet();
+        }
+        if (Double.isNaN(alternativeTravelTime)) {
+            // No profile or skims covering the trip (e.g., intra-zonal trip) or the estimate is too close to the
+            // threshold -> threshold-bounded calculation (PT side only). Only whether the travel time is below the
+            // threshold matters, so that clearly poor alternatives can be answered by a lower bound without routing
+            // (if the calculator has one)
+            double thresholdTravelTime = getMaxTravelTime(drtRequest) * threshold;
+            alternativeTravelTime = accessibilityCalculator.calculateBoundedTravelTime(drtRequest.getFromLink(), drtRequest.getToLink(),
+                    drtRequest.getEarliestStartTime(), thresholdTravelTime, false).travelTime();
+        }
+        return alternativeTravelTime;
+    }
 
-        if (alternativeModeData.actualTotalTravelTime() < maxTravelTime * threshold) {
+    private double getMaxTravelTime(DrtRequest drtRequest) {
+        // The max travel time (i.e., alpha * direct ride time + beta) is already part of the request constraints
+        return drtRequest.getLatestArrivalTime() - drtRequest.getEarliestStartTime();
+    }
+
+    private double getThreshold(DrtRequest drtRequest) {
+        return timeVaryingRejectionThreshold.getThresholdFactor(drtRequest.getFromLink()) * baseThreshold;
+    }
+
+    private void processRequest(DrtRequest drtRequest, double threshold, double alternativeTravelTime) {
+        double maxTravelTime = getMaxTravelTime(drtRequest);
+
+        if (alternativeTravelTime < maxTravelTime * threshold) {
             // Reject this request directly
-            eventsManager.processEvent(new PassengerRequestRejectedEvent(mobsimTimer.getTimeOfDay(), drtCfg.mode, request.getId(),
+            eventsManager.processEvent(new PassengerRequestRejectedEvent(mobsimTimer.getTimeOfDay(), drtCfg.mode, drtRequest.getId(),
                     drtRequest.getPassengerIds(), "Request is rejected because alternative mode is also attractive"));
             log.info("DRT request" + drtRequest.getPassengerIds().get(0).toString() + " is rejected, because a good alternative mode exists!");
         } else {
-            unplannedRequests.add((DrtRequest)request);
+            unplannedRequests.add(drtRequest);
+        }
+    }
+
+    @Override
+    public void notifyMobsimBeforeCleanup(@SuppressWarnings("rawtypes") MobsimBeforeCleanupEvent e) {
+        if (estimator != null) {
+            log.info("Alternative mode travel time estimator: " + estimatedRequests.get() + " requests decided by the estimate, " +
+                    exactlyCalculatedRequests.get() + " requests within the uncertainty band calculated exactly");
+        }
+        for (AlternativeModeCalculator accessibilityCalculator : accessibilityCalculators) {
+            if (accessibilityCalculator instanceof CachedAlternativeModeCalculator cachedAlternativeModeCalculator) {
+                cachedAlternativeModeCalculator.logStatistics();
+            }
+        }
+        if (feasibilityPreScreen != null) {
+            feasibilityPreScreen.printStatistics();
+        }
+        if (dirtyScheduleTimingUpdater != null) {
+            dirtyScheduleTimingUpdater.printStatistics();
+            dirtyScheduleTimingUpdater.shutdown();
+        }
+        if (parallelScheduleTimingUpdater != null) {
+            parallelScheduleTimingUpdater.shutdown();
+        }
+        if (accessibilityExecutor != null) {
+            accessibilityExecutor.shutdown();
         }
     }
 
@@ -162,6 +441,13 @@ public class DefaultDrtOptimizerWithRejection implements DrtOptimizer {
                 relocator.relocateVehicle(vehicle, depotLink, EmptyVehicleRelocator.RELOCATE_VEHICLE_TO_DEPOT_TASK_TYPE);
             }
         }
+
+        if (fleetStateIndex != null) {
+            fleetStateIndex.refresh(vehicle);
+        }
+        if (dirtyScheduleTimingUpdater != null) {
+            dirtyScheduleTimingUpdater.markDirty(vehicle);
+        }
     }
 
 }
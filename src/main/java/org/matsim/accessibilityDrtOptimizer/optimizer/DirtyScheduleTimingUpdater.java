@@ -0,0 +1,193 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.schedule.Schedule;
+import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
+import org.matsim.contrib.dvrp.schedule.StayTask;
+import org.matsim.contrib.dvrp.schedule.Task;
+import org.matsim.contrib.dvrp.tracker.TaskTrackers;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Updates the schedule timings only for the vehicles whose timings may be outdated, instead of the whole fleet.
+ * {@link ScheduleTimingUpdater#updateTimings} only changes a schedule when the predicted end time of the current task
+ * differs from its planned end time. For a task with a tracker (e.g., an online drive task), the prediction may change
+ * at any time step. For a task without a tracker, the prediction is max(planned end time, now), i.e., it only differs
+ * once the planned end time has passed. The vehicles to update are therefore:
+ * <ul>
+ * <li>the vehicles marked dirty (task transitions, relocations, and the staying vehicles after insertions, which may
+ * shorten the current stay task),</li>
+ * <li>the vehicles with a tracked current task,</li>
+ * <li>the vehicles with an untracked current task whose planned end time has passed (queue ordered by end time).</li>
+ * </ul>
+ * The vehicles to update are updated in parallel with a {@link ParallelScheduleTimingUpdater}, if provided, and are
+ * classified afterwards on the calling thread. In the verification mode, every update is cross-checked against a full sweep over the fleet. Outdated vehicles
+ * missed by the dirty set are reported and updated.
+ */
+public class DirtyScheduleTimingUpdater {
+    private static final Logger log = LogManager.getLogger(DirtyScheduleTimingUpdater.class);
+
+    private record PlannedEndTime(double endTime, int vehicleIndex, int stamp) {
+    }
+
+    private final ScheduleTimingUpdater scheduleTimingUpdater;
+    private final boolean verify;
+    // optional (may be null): the vehicles are then updated serially
+    private final ParallelScheduleTimingUpdater parallelUpdater;
+
+    private final List<DvrpVehicle> vehicles;
+    private final Map<Id<DvrpVehicle>, Integer> vehicleIndices = new HashMap<>();
+    private final BitSet dirtyVehicles;
+    private final BitSet trackedVehicles;
+    private final BitSet stayingVehicles;
+    // entries of vehicles that have been re-classified since are outdated (stamp differs)
+    private final PriorityQueue<PlannedEndTime> plannedEndTimes = new PriorityQueue<>(Comparator.comparingDouble(PlannedEndTime::endTime));
+    private final int[] stamps;
+    private final List<DvrpVehicle> vehiclesToUpdate = new ArrayList<>();
+
+    private long updatedVehicles = 0;
+    private long skippedVehicles = 0;
+    private long missedVehicles = 0;
+
+    public DirtyScheduleTimingUpdater(Fleet fleet, ScheduleTimingUpdater scheduleTimingUpdater, boolean verify) {
+        this(fleet, scheduleTimingUpdater, verify, null);
+    }
+
+    public DirtyScheduleTimingUpdater(Fleet fleet, ScheduleTimingUpdater scheduleTimingUpdater, boolean verify,
+                                      ParallelScheduleTimingUpdater parallelUpdater) {
+        this.scheduleTimingUpdater = scheduleTimingUpdater;
+        this.verify = verify;
+        this.parallelUpdater = parallelUpdater;
+        this.vehicles = new ArrayList<>(fleet.getVehicles().values());
+        for (int i = 0; i < vehicles.size(); i++) {
+            vehicleIndices.put(vehicles.get(i).getId(), i);
+        }
+        this.dirtyVehicles = new BitSet(vehicles.size());
+        this.trackedVehicles = new BitSet(vehicles.size());
+        this.stayingVehicles = new BitSet(vehicles.size());
+        this.stamps = new int[vehicles.size()];
+        // nothing is known about the schedules yet
+        dirtyVehicles.set(0, vehicles.size());
+    }
+
+    public void markDirty(DvrpVehicle vehicle) {
+        Integer index = vehicleIndices.get(vehicle.getId());
+        if (index != null) {
+            dirtyVehicles.set(index);
+        }
+    }
+
+    /**
+     * To be called after the insertion of requests. An insertion may end the current stay task of a vehicle earlier
+     * (e.g., an idle vehicle leaving now), other current tasks are either tracked or only extended.
+     */
+    public void markStayingVehiclesDirty() {
+        dirtyVehicles.or(stayingVehicles);
+    }
+
+    public void updateTimings(double now) {
+        while (!plannedEndTimes.isEmpty() && plannedEndTimes.peek().endTime() < now) {
+            PlannedEndTime plannedEndTime = plannedEndTimes.poll();
+            if (plannedEndTime.stamp() == stamps[plannedEndTime.vehicleIndex()]) {
+                dirtyVehicles.set(plannedEndTime.vehicleIndex());
+            }
+        }
+        dirtyVehicles.or(trackedVehicles);
+
+        vehiclesToUpdate.clear();
+        for (int i = dirtyVehicles.nextSetBit(0); i >= 0; i = dirtyVehicles.nextSetBit(i + 1)) {
+            vehiclesToUpdate.add(vehicles.get(i));
+        }
+        if (parallelUpdater != null) {
+            parallelUpdater.updateTimings(vehiclesToUpdate);
+        } else {
+            for (DvrpVehicle vehicle : vehiclesToUpdate) {
+                scheduleTimingUpdater.updateTimings(vehicle);
+            }
+        }
+        int numDirty = vehiclesToUpdate.size();
+        for (int i = dirtyVehicles.nextSetBit(0); i >= 0; i = dirtyVehicles.nextSetBit(i + 1)) {
+            classify(i);
+        }
+        dirtyVehicles.clear();
+        updatedVehicles += numDirty;
+        skippedVehicles += vehicles.size() - numDirty;
+
+        if (verify) {
+            verifyTimings(now);
+        }
+        if (plannedEndTimes.size() > 4 * vehicles.size()) {
+            plannedEndTimes.removeIf(plannedEndTime -> plannedEndTime.stamp() != stamps[plannedEndTime.vehicleIndex()]);
+        }
+    }
+
+    private void classify(int index) {
+        stamps[index]++;
+        trackedVehicles.clear(index);
+        stayingVehicles.clear(index);
+        Schedule schedule = vehicles.get(index).getSchedule();
+        if (schedule.getStatus() != Schedule.ScheduleStatus.STARTED) {
+            // not started yet (the start is a task transition) or completed
+            return;
+        }
+        Task currentTask = schedule.getCurrentTask();
+        if (currentTask.getTaskTracker() != null) {
+            trackedVehicles.set(index);
+        } else {
+            plannedEndTimes.add(new PlannedEndTime(currentTask.getEndTime(), index, stamps[index]));
+            if (currentTask instanceof StayTask) {
+                stayingVehicles.set(index);
+            }
+        }
+    }
+
+    private void verifyTimings(double now) {
+        for (int i = 0; i < vehicles.size(); i++) {
+            Schedule schedule = vehicles.get(i).getSchedule();
+            if (schedule.getStatus() != Schedule.ScheduleStatus.STARTED) {
+                continue;
+            }
+            Task currentTask = schedule.getCurrentTask();
+            if (TaskTrackers.predictEndTime(currentTask, now) != currentTask.getEndTime()) {
+                log.warn("Schedule timings of vehicle " + vehicles.get(i).getId() + " are outdated at " + now +
+                        " but the vehicle is not in the dirty set (current task: " + currentTask + ")");
+                missedVehicles++;
+                scheduleTimingUpdater.updateTimings(vehicles.get(i));
+                classify(i);
+            }
+        }
+    }
+
+    public long getUpdatedVehicles() {
+        return updatedVehicles;
+    }
+
+    /**
+     * @return number of outdated vehicles missed by the dirty set (only counted in the verification mode)
+     */
+    public long getMissedVehicles() {
+        return missedVehicles;
+    }
+
+    public void shutdown() {
+        if (parallelUpdater != null) {
+            parallelUpdater.shutdown();
+        }
+    }
+
+    public void printStatistics() {
+        log.info("Schedule timing updates: " + updatedVehicles + " vehicle updates, " + skippedVehicles + " vehicles skipped" +
+                (verify ? ", " + missedVehicles + " outdated vehicles missed by the dirty set" : ""));
+    }
+}
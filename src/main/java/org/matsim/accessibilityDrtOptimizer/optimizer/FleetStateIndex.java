@@ -0,0 +1,140 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.common.zones.Zone;
+import org.matsim.contrib.common.zones.ZoneSystem;
+import org.matsim.contrib.drt.schedule.DrtStayTask;
+import org.matsim.contrib.drt.scheduler.DrtScheduleInquiry;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Incrementally maintained idle state of the fleet (same definition as {@link DrtScheduleInquiry#isIdle}). A vehicle
+ * only becomes idle when it starts its last (stay) task, i.e., in {@link org.matsim.contrib.dvrp.optimizer.VrpOptimizer#nextTask},
+ * and an idle vehicle only stops being idle when tasks are appended to its schedule (insertion, relocation) or its
+ * service ends. The optimizer therefore refreshes the vehicle on task transitions and re-checks only the idle vehicles
+ * after schedule changes, so that the idle ratio and the idle counts per zone are available in O(1) and the idle
+ * vehicles are streamed in O(idle) (in fleet order, same as filtering the whole fleet).
+ */
+public class FleetStateIndex {
+    public interface IdleListener {
+        /**
+         * @param zoneIndex zone id index of the stay task (-1: no zone)
+         */
+        void vehicleBecameIdle(DvrpVehicle vehicle, int zoneIndex);
+    }
+
+    private final DrtScheduleInquiry scheduleInquiry;
+    // optional (may be null): idle counts per zone are only available with a zonal system
+    private final ZoneSystem zoneSystem;
+
+    private final List<DvrpVehicle> vehicles;
+    private final Map<Id<DvrpVehicle>, Integer> vehicleIndices = new HashMap<>();
+    private final BitSet idleVehicles;
+    private int idleCount = 0;
+    // indexed by the vehicle index: zone id index of the stay task of the idle vehicle (-1: no zone)
+    private final int[] idleZones;
+    // indexed by the zone id index
+    private final int[] idleCountsPerZone;
+    private final List<IdleListener> idleListeners = new ArrayList<>();
+
+    public FleetStateIndex(Fleet fleet, DrtScheduleInquiry scheduleInquiry, ZoneSystem zoneSystem) {
+        this.scheduleInquiry = scheduleInquiry;
+        this.zoneSystem = zoneSystem;
+        this.vehicles = new ArrayList<>(fleet.getVehicles().values());
+        for (int i = 0; i < vehicles.size(); i++) {
+            vehicleIndices.put(vehicles.get(i).getId(), i);
+        }
+        this.idleVehicles = new BitSet(vehicles.size());
+        this.idleZones = new int[vehicles.size()];
+        this.idleCountsPerZone = new int[zoneSystem == null ? 0 : Id.getNumberOfIds(Zone.class)];
+    }
+
+    public void addIdleListener(IdleListener listener) {
+        idleListeners.add(listener);
+    }
+
+    /**
+     * Re-check the idle state of a vehicle (e.g., after a task transition or a relocation).
+     */
+    public void refresh(DvrpVehicle vehicle) {
+        Integer index = vehicleIndices.get(vehicle.getId());
+        if (index != null) {
+            refresh(index);
+        }
+    }
+
+    /**
+     * Re-check all the idle vehicles (e.g., after the insertion of requests or when the service of vehicles may have
+     * ended). Vehicles that are not idle cannot become idle without a task transition.
+     */
+    public void refreshIdleVehicles() {
+        for (int i = idleVehicles.nextSetBit(0); i >= 0; i = idleVehicles.nextSetBit(i + 1)) {
+            refresh(i);
+        }
+    }
+
+    private void refresh(int index) {
+        DvrpVehicle vehicle = vehicles.get(index);
+        boolean idle = scheduleInquiry.isIdle(vehicle);
+        if (idle == idleVehicles.get(index)) {
+            return;
+        }
+        if (idle) {
+            idleVehicles.set(index);
+            idleCount++;
+            idleZones[index] = getZoneIndex(vehicle);
+            if (idleZones[index] >= 0) {
+                idleCountsPerZone[idleZones[index]]++;
+            }
+            for (IdleListener listener : idleListeners) {
+                listener.vehicleBecameIdle(vehicle, idleZones[index]);
+            }
+        } else {
+            idleVehicles.clear(index);
+            idleCount--;
+            if (idleZones[index] >= 0) {
+                idleCountsPerZone[idleZones[index]]--;
+            }
+        }
+    }
+
+    private int getZoneIndex(DvrpVehicle vehicle) {
+        if (zoneSystem == null) {
+            return -1;
+        }
+        DrtStayTask stayTask = (DrtStayTask) vehicle.getSchedule().getCurrentTask();
+        return zoneSystem.getZoneForLinkId(stayTask.getLink().getId()).map(zone -> zone.getId().index()).orElse(-1);
+    }
+
+    public int getFleetSize() {
+        return vehicles.size();
+    }
+
+    public int getIdleCount() {
+        return idleCount;
+    }
+
+    public double getIdleRatio() {
+        return (double) getIdleCount() / (double) vehicles.size();
+    }
+
+    /**
+     * @return number of idle vehicles staying in the zone (0, if the index is created without a zonal system)
+     */
+    public int getIdleCount(Zone zone) {
+        int zoneIndex = zone.getId().index();
+        return zoneIndex < idleCountsPerZone.length ? idleCountsPerZone[zoneIndex] : 0;
+    }
+
+    public Stream<DvrpVehicle> getIdleVehicles() {
+        return idleVehicles.stream().mapToObj(vehicles::get);
+    }
+}
@@ -1,53 +1,184 @@
 package org.matsim.accessibilityDrtOptimizer.optimizer;
 
+import com.google.common.base.Preconditions;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeSkimMatrix;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.contrib.dvrp.passenger.PassengerRequest;
 import org.matsim.contrib.dvrp.passenger.PassengerRequestValidator;
-import org.matsim.core.utils.collections.Tuple;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 
 import static org.matsim.contrib.dvrp.passenger.DefaultPassengerRequestValidator.EQUAL_FROM_LINK_AND_TO_LINK_CAUSE;
 
+/**
+ * The population, the per-person alternative mode data and the thresholds are resolved into arrays at construction
+ * (persons by {@link Id#index()}, thresholds by time bin), so that the validation is allocation-free array access.
+ * With an {@link OnlineThresholdController}, the thresholds are learned from the completed legs instead. With a
+ * {@link ZonalThresholdMatrix}, the thresholds are looked up by the zone of the from link and the time bin.
+ */
 public class HeteogeneousRequestValidator implements PassengerRequestValidator {
     private static final String USE_ALTERNATIVE_MODE = "please_use_alternative_mode";
-    private final Population population;
-    private final Map<Integer, Double> thresholdMap;
+    private static final Set<String> INVALID_USE_ALTERNATIVE_MODE = Set.of(USE_ALTERNATIVE_MODE);
+    private static final Set<String> INVALID_EQUAL_FROM_LINK_AND_TO_LINK = Set.of(EQUAL_FROM_LINK_AND_TO_LINK_CAUSE);
+
+    private static final byte REMARK_UNKNOWN = 0;
+    private static final byte REMARK_NORMAL = 1;
+    // e.g., "old" or "special": always valid
+    private static final byte REMARK_SPECIAL_NEED = 2;
+
     private final int timeBinSize;
-    private final Map<String, Tuple<Double, Double>> alternativeModeTripData;
+    // indexed by the time bin
+    private final double[] thresholds;
+    // indexed by the person id index
+    private final byte[] remarks;
+    private final double[] travelTimeRatios;
+
+    // max travel time = alpha * direct travel time + beta (DRT constraints), for the travel time ratios
+    private final double maxTravelTimeAlpha;
+    private final double maxTravelTimeBeta;
+    // optional (may be null): the travel time ratio is then looked up from the skims. The per-person data is
+    // only used for trips not covered by the skims
+    private final AlternativeModeSkimMatrix skims;
+
+    // optional (may be null): thresholds learned from the completed legs, otherwise the fixed thresholds are used
+    private final OnlineThresholdController thresholdController;
+    // optional (may be null): thresholds per zone and time bin, otherwise the thresholds only depend on the time bin
+    private final ZonalThresholdMatrix zonalThresholds;
+
+    /**
+     * Optional collaborators of the validator (all may be null). Without them, the fixed thresholds by time bin and the
+     * per-person alternative mode data are used.
+     */
+    public static class OptionalComponents {
+        private AlternativeModeSkimMatrix skims;
+        private OnlineThresholdController thresholdController;
+        private ZonalThresholdMatrix zonalThresholds;
+
+        public OptionalComponents setSkims(AlternativeModeSkimMatrix skims) {
+            this.skims = skims;
+            return this;
+        }
+
+        public OptionalComponents setThresholdController(OnlineThresholdController thresholdController) {
+            this.thresholdController = thresholdController;
+            return this;
+        }
+
+        public OptionalComponents setZonalThresholds(ZonalThresholdMatrix zonalThresholds) {
+            this.zonalThresholds = zonalThresholds;
+            return this;
+        }
+    }
+
+    public HeteogeneousRequestValidator(Population population, Map<Integer, Double> thresholdMap, int timeBinSize,
+                                        AlternativeModeTripDataStore alternativeModeTripData, double maxTravelTimeAlpha,
+                                        double maxTravelTimeBeta) {
+        this(population, thresholdMap, timeBinSize, alternativeModeTripData, maxTravelTimeAlpha, maxTravelTimeBeta,
+                new OptionalComponents());
+    }
 
+    /**
+     * @param thresholdMap            threshold by the start time of the time bin (in seconds)
+     * @param alternativeModeTripData alternative mode data by person id
+     */
     public HeteogeneousRequestValidator(Population population, Map<Integer, Double> thresholdMap, int timeBinSize,
-                                        Map<String, Tuple<Double, Double>> alternativeModeTripData) {
-        this.population = population;
-        this.thresholdMap = thresholdMap;
+                                        AlternativeModeTripDataStore alternativeModeTripData, double maxTravelTimeAlpha,
+                                        double maxTravelTimeBeta, OptionalComponents optionalComponents) {
+        Preconditions.checkArgument(optionalComponents.thresholdController == null || optionalComponents.zonalThresholds == null,
+                "Online thresholds are not supported per zone");
+        Preconditions.checkArgument(optionalComponents.zonalThresholds == null || optionalComponents.zonalThresholds.getTimeBinSize() == timeBinSize,
+                "Time bin size of the zonal thresholds differs");
+        Preconditions.checkArgument(timeBinSize > 0, "Time bin size must be positive");
         this.timeBinSize = timeBinSize;
-        this.alternativeModeTripData = alternativeModeTripData;
+        this.skims = optionalComponents.skims;
+        this.maxTravelTimeAlpha = maxTravelTimeAlpha;
+        this.maxTravelTimeBeta = maxTravelTimeBeta;
+        this.thresholdController = optionalComponents.thresholdController;
+        this.zonalThresholds = optionalComponents.zonalThresholds;
+
+        int numTimeBins = thresholdMap.keySet().stream().mapToInt(timeBinStart -> timeBinStart / timeBinSize + 1).max().orElse(0);
+        this.thresholds = new double[numTimeBins];
+        Arrays.fill(thresholds, Double.NaN);
+        thresholdMap.forEach((timeBinStart, threshold) -> thresholds[timeBinStart / timeBinSize] = threshold);
+
+        this.remarks = new byte[Id.getNumberOfIds(Person.class)];
+        this.travelTimeRatios = new double[remarks.length];
+        Arrays.fill(travelTimeRatios, Double.NaN);
+        // resolved by the persons of the population, so that no person ids are created for the data rows of unknown
+        // persons (the requests are only made by persons of the population)
+        for (Person person : population.getPersons().values()) {
+            int index = person.getId().index();
+            Object remark = person.getAttributes().getAttribute("remark");
+            if (remark != null) {
+                remarks[index] = remark.toString().equals("normal") ? REMARK_NORMAL : REMARK_SPECIAL_NEED;
+            }
+            int tripIndex = alternativeModeTripData.indexOf(person.getId().toString());
+            if (tripIndex >= 0) {
+                travelTimeRatios[index] = alternativeModeTripData.actualTotalTravelTime(tripIndex) /
+                        (maxTravelTimeAlpha * alternativeModeTripData.directCarTravelTime(tripIndex) + maxTravelTimeBeta);
+            }
+        }
     }
 
     @Override
     public Set<String> validateRequest(PassengerRequest request) {
         // same as in DefaultPassengerRequestValidator, the request is invalid if fromLink == toLink
         if (request.getFromLink() == request.getToLink()) {
-            return Collections.singleton(EQUAL_FROM_LINK_AND_TO_LINK_CAUSE);
+            return INVALID_EQUAL_FROM_LINK_AND_TO_LINK;
         }
 
         // if the request is made by a person with special need (e.g., attribute: "remark" = "old" or "special")
         // Then they will always be valid request
-        Person person = population.getPersons().get(request.getPassengerIds().get(0));
-        if (!person.getAttributes().getAttribute("remark").toString().equals("normal")) {
+        int personIndex = request.getPassengerIds().get(0).index();
+        byte remark = personIndex < remarks.length ? remarks[personIndex] : REMARK_UNKNOWN;
+        if (remark == REMARK_UNKNOWN) {
+            throw new IllegalStateException("Person " + request.getPassengerIds().get(0) + " has no remark attribute");
+        }
+        if (remark == REMARK_SPECIAL_NEED) {
+            registerValidRequest(request);
             return Set.of();
         }
 
         // otherwise, we determine if a request is valid based on its alternative modes
-        double travelTimeRatioOfAlternativeMode = alternativeModeTripData.get(person.getId().toString()).getSecond();
-        int timeBin = (int) (Math.floor(request.getEarliestStartTime() / timeBinSize) * timeBinSize);
-        double threshold = thresholdMap.get(timeBin);
+        double travelTimeRatioOfAlternativeMode = Double.NaN;
+        if (skims != null) {
+            double alternativeTravelTime = skims.getPtTravelTime(request.getFromLink(), request.getToLink(), request.getEarliestStartTime());
+            double directTravelTime = skims.getCarTravelTime(request.getFromLink(), request.getToLink());
+            travelTimeRatioOfAlternativeMode = alternativeTravelTime / (maxTravelTimeAlpha * directTravelTime + maxTravelTimeBeta);
+        }
+        if (Double.isNaN(travelTimeRatioOfAlternativeMode)) {
+            travelTimeRatioOfAlternativeMode = travelTimeRatios[personIndex];
+            if (Double.isNaN(travelTimeRatioOfAlternativeMode)) {
+                throw new IllegalStateException("No alternative mode data for person " + request.getPassengerIds().get(0));
+            }
+        }
+        int timeBin = (int) Math.floor(request.getEarliestStartTime() / timeBinSize);
+        double threshold;
+        if (zonalThresholds != null) {
+            threshold = zonalThresholds.getThreshold(zonalThresholds.getZoneIndex(request.getFromLink().getId()), timeBin);
+        } else if (thresholdController != null) {
+            threshold = thresholdController.getThreshold(timeBin);
+        } else {
+            threshold = timeBin < thresholds.length ? thresholds[timeBin] : Double.NaN;
+        }
+        if (Double.isNaN(threshold)) {
+            throw new IllegalStateException("No threshold for time bin " + timeBin);
+        }
         if (travelTimeRatioOfAlternativeMode <  threshold) {
-            return Set.of(USE_ALTERNATIVE_MODE);
+            return INVALID_USE_ALTERNATIVE_MODE;
         }
+        registerValidRequest(request);
         return Set.of();
     }
+
+    private void registerValidRequest(PassengerRequest request) {
+        if (thresholdController != null) {
+            thresholdController.registerRequest(request);
+        }
+    }
 }
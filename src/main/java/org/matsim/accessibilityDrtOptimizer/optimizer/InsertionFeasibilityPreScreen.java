@@ -0,0 +1,241 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.drt.passenger.DrtRequest;
+import org.matsim.contrib.drt.run.DrtConfigGroup;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.schedule.DriveTask;
+import org.matsim.contrib.dvrp.schedule.Schedule;
+import org.matsim.contrib.dvrp.schedule.StayTask;
+import org.matsim.contrib.dvrp.schedule.Task;
+import org.matsim.contrib.dvrp.tracker.OnlineDriveTaskTracker;
+import org.matsim.contrib.dvrp.util.LinkTimePair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lower-bound pre-screen of the requests before the insertion search. A vehicle can reach the pickup (the end of the
+ * from link) at the earliest when it is available at its position (now for a staying vehicle, the diversion point for
+ * a driving vehicle, the service begin for a vehicle not yet in service) plus the beeline distance at the maximum free
+ * speed of the network. If no vehicle can reach the pickup before the latest start time, no insertion exists.
+ * <p>
+ * The vehicle positions are collected once per sim step into a uniform grid. A request is checked by a ring search
+ * around its pickup cell, which stops at the first vehicle that may reach the pickup in time, or when the rings are
+ * too far away to be reached in time. Vehicles with an unknown position disable the pre-screen for the sim step.
+ * <p>
+ * The latest start time is only a hard limit of the insertion search if the max wait and travel times are hard
+ * constraints (rejectRequestIfMaxWaitOrTravelTimeViolated). Otherwise, late pickups are inserted with a penalty, so that
+ * the pre-screen must not be used (see {@link #hasHardConstraints}).
+ */
+public class InsertionFeasibilityPreScreen {
+    private static final Logger log = LogManager.getLogger(InsertionFeasibilityPreScreen.class);
+    public static final double DEFAULT_CELL_SIZE = 1000;
+
+    private final List<DvrpVehicle> vehicles;
+    private final double maxSpeed;
+    private final double cellSize;
+    private final double minX;
+    private final double minY;
+    private final int numCellsX;
+    private final int numCellsY;
+
+    // vehicles sorted by cell (counting sort): the vehicles of cell c are at cellStarts[c] ... cellStarts[c + 1] - 1
+    private final int[] cellStarts;
+    private final double[] vehicleX;
+    private final double[] vehicleY;
+    private final double[] vehicleAvailableTimes;
+    private final int[] vehicleCells;
+    private final double[] positionX;
+    private final double[] positionY;
+    private final double[] positionAvailableTimes;
+    private int numPositions = 0;
+    private boolean unknownPositions = false;
+    private double now;
+
+    private long screenedRequests = 0;
+    private long infeasibleRequests = 0;
+
+    /**
+     * @return true, if all the constraint sets of the mode reject requests violating the max wait or travel time
+     */
+    public static boolean hasHardConstraints(DrtConfigGroup drtConfigGroup) {
+        return drtConfigGroup.addOrGetDrtOptimizationConstraintsParams().getDrtOptimizationConstraintsSets().stream()
+                .allMatch(constraintsSet -> constraintsSet.rejectRequestIfMaxWaitOrTravelTimeViolated);
+    }
+
+    public InsertionFeasibilityPreScreen(Network network, Fleet fleet, double cellSize) {
+        Preconditions.checkArgument(cellSize > 0, "Cell size must be positive");
+        this.vehicles = new ArrayList<>(fleet.getVehicles().values());
+        this.cellSize = cellSize;
+        this.maxSpeed = network.getLinks().values().stream().mapToDouble(Link::getFreespeed).max().orElse(Double.POSITIVE_INFINITY);
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Node node : network.getNodes().values()) {
+            minX = Math.min(minX, node.getCoord().getX());
+            minY = Math.min(minY, node.getCoord().getY());
+            maxX = Math.max(maxX, node.getCoord().getX());
+            maxY = Math.max(maxY, node.getCoord().getY());
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.numCellsX = (int) Math.floor((maxX - minX) / cellSize) + 1;
+        this.numCellsY = (int) Math.floor((maxY - minY) / cellSize) + 1;
+
+        this.cellStarts = new int[numCellsX * numCellsY + 1];
+        this.vehicleX = new double[vehicles.size()];
+        this.vehicleY = new double[vehicles.size()];
+        this.vehicleAvailableTimes = new double[vehicles.size()];
+        this.vehicleCells = new int[vehicles.size()];
+        this.positionX = new double[vehicles.size()];
+        this.positionY = new double[vehicles.size()];
+        this.positionAvailableTimes = new double[vehicles.size()];
+    }
+
+    /**
+     * Collect the current positions of the vehicles (once per sim step, before the requests are checked).
+     */
+    public void updateVehiclePositions(double now) {
+        this.now = now;
+        numPositions = 0;
+        unknownPositions = false;
+        Arrays.fill(cellStarts, 0);
+        for (DvrpVehicle vehicle : vehicles) {
+            Schedule schedule = vehicle.getSchedule();
+            Link link;
+            double availableTime;
+            if (schedule.getStatus() == Schedule.ScheduleStatus.PLANNED) {
+                link = vehicle.getStartLink();
+                availableTime = Math.max(now, vehicle.getServiceBeginTime());
+            } else if (schedule.getStatus() == Schedule.ScheduleStatus.STARTED) {
+                Task currentTask = schedule.getCurrentTask();
+                if (currentTask instanceof StayTask stayTask) {
+                    link = stayTask.getLink();
+                    availableTime = now;
+                } else if (currentTask instanceof DriveTask driveTask && driveTask.getTaskTracker() instanceof OnlineDriveTaskTracker tracker) {
+                    LinkTimePair diversionPoint = tracker.getDiversionPoint();
+                    if (diversionPoint != null) {
+                        link = diversionPoint.link;
+                        availableTime = Math.max(now, diversionPoint.time);
+                    } else {
+                        // cannot be diverted any more: the vehicle continues to the end of the drive
+                        link = driveTask.getPath().getToLink();
+                        availableTime = Math.max(now, driveTask.getEndTime());
+                    }
+                } else {
+                    unknownPositions = true;
+                    return;
+                }
+            } else {
+                // service completed
+                continue;
+            }
+
+            Coord coord = link.getToNode().getCoord();
+            vehicleX[numPositions] = coord.getX();
+            vehicleY[numPositions] = coord.getY();
+            vehicleAvailableTimes[numPositions] = availableTime;
+            vehicleCells[numPositions] = getCell(getCellX(coord.getX()), getCellY(coord.getY()));
+            cellStarts[vehicleCells[numPositions] + 1]++;
+            numPositions++;
+        }
+
+        for (int c = 1; c < cellStarts.length; c++) {
+            cellStarts[c] += cellStarts[c - 1];
+        }
+        int[] nextSlot = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+        for (int i = 0; i < numPositions; i++) {
+            int slot = nextSlot[vehicleCells[i]]++;
+            positionX[slot] = vehicleX[i];
+            positionY[slot] = vehicleY[i];
+            positionAvailableTimes[slot] = vehicleAvailableTimes[i];
+        }
+    }
+
+    /**
+     * @return false, if no vehicle can reach the pickup before the latest start time of the request (i.e., the insertion
+     * search cannot find an insertion)
+     */
+    public boolean isPotentiallyFeasible(DrtRequest request) {
+        if (unknownPositions) {
+            return true;
+        }
+        screenedRequests++;
+        Coord pickup = request.getFromLink().getToNode().getCoord();
+        double latestStartTime = request.getLatestStartTime();
+        int cellX = getCellX(pickup.getX());
+        int cellY = getCellY(pickup.getY());
+        int maxRing = Math.max(Math.max(cellX, numCellsX - 1 - cellX), Math.max(cellY, numCellsY - 1 - cellY));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // the cells of the ring are at least (ring - 1) cells away from the pickup
+            if (now + Math.max(0, ring - 1) * cellSize / maxSpeed > latestStartTime) {
+                break;
+            }
+            // top and bottom rows of the ring, then the left and right columns (without the corners)
+            for (int x = cellX - ring; x <= cellX + ring; x++) {
+                if (canReachInTime(x, cellY - ring, pickup, latestStartTime) ||
+                        (ring > 0 && canReachInTime(x, cellY + ring, pickup, latestStartTime))) {
+                    return true;
+                }
+            }
+            for (int y = cellY - ring + 1; y <= cellY + ring - 1; y++) {
+                if (canReachInTime(cellX - ring, y, pickup, latestStartTime) || canReachInTime(cellX + ring, y, pickup, latestStartTime)) {
+                    return true;
+                }
+            }
+        }
+        infeasibleRequests++;
+        return false;
+    }
+
+    private boolean canReachInTime(int x, int y, Coord pickup, double latestStartTime) {
+        if (x < 0 || y < 0 || x >= numCellsX || y >= numCellsY) {
+            return false;
+        }
+        int cell = getCell(x, y);
+        for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+            double distance = Math.hypot(positionX[i] - pickup.getX(), positionY[i] - pickup.getY());
+            if (positionAvailableTimes[i] + distance / maxSpeed <= latestStartTime) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int getCellX(double x) {
+        return Math.min(numCellsX - 1, Math.max(0, (int) Math.floor((x - minX) / cellSize)));
+    }
+
+    private int getCellY(double y) {
+        return Math.min(numCellsY - 1, Math.max(0, (int) Math.floor((y - minY) / cellSize)));
+    }
+
+    private int getCell(int cellX, int cellY) {
+        return cellY * numCellsX + cellX;
+    }
+
+    public long getScreenedRequests() {
+        return screenedRequests;
+    }
+
+    /**
+     * @return number of requests found infeasible (i.e., insertion searches avoided)
+     */
+    public long getInfeasibleRequests() {
+        return infeasibleRequests;
+    }
+
+    public void printStatistics() {
+        log.info("Insertion feasibility pre-screen: " + screenedRequests + " requests screened, " + infeasibleRequests +
+                " insertion searches avoided");
+    }
+}
@@ -0,0 +1,162 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.drt.passenger.DrtRequest;
+import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.contrib.dvrp.passenger.PassengerDroppedOffEvent;
+import org.matsim.contrib.dvrp.passenger.PassengerDroppedOffEventHandler;
+import org.matsim.contrib.dvrp.passenger.PassengerRequest;
+import org.matsim.contrib.dvrp.passenger.PassengerRequestRejectedEvent;
+import org.matsim.contrib.dvrp.passenger.PassengerRequestRejectedEventHandler;
+import org.matsim.core.events.MobsimScopeEventHandler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Learns the per-time-bin thresholds of {@link HeteogeneousRequestValidator} from the legs completed in the simulation,
+ * instead of parsing the output DRT legs after the simulation. The feedback rule is the same as in the outer loop
+ * (RunHeterogeneousDrt): the travel time ratio (actual / max travel time) of a completed leg is attributed to the time
+ * bin of its departure, and the threshold of a time bin is updated to
+ * min(1, learning rate * average ratio + (1 - learning rate) * previous threshold).
+ * As in the outer loop, each time bin is updated exactly once per simulation (after the mobsim, with all the legs
+ * completed in the simulation), so that the learning rate has the same meaning. The thresholds are kept across the
+ * iterations of the controller, i.e., one iteration of the controller is one step of the outer loop, without writing
+ * and parsing the output legs.
+ * <p>
+ * A leg is completed only after its wait and travel time, so that most of the feedback of a time bin arrives after
+ * the time bin has passed. Updating a time bin during the simulation would therefore hardly affect the requests of the
+ * same simulation, but it would apply several update steps per simulation (i.e., a higher effective learning rate).
+ * <p>
+ * The requests are registered by the validator (mobsim thread), the legs are completed by the events (possibly on the
+ * events thread), so that the methods are synchronized.
+ */
+public class OnlineThresholdController implements PassengerDroppedOffEventHandler, PassengerRequestRejectedEventHandler,
+        MobsimScopeEventHandler {
+    private static final Logger log = LogManager.getLogger(OnlineThresholdController.class);
+
+    private record RegisteredRequest(double departureTime, double latestArrivalTime) {
+    }
+
+    private final String mode;
+    private final int timeBinSize;
+    private final double learningRate;
+    // indexed by the person id index: persons whose legs are not considered (e.g., premium)
+    private final boolean[] excludedPersons;
+
+    // indexed by the time bin
+    private final double[] thresholds;
+    private final double[] ratioSums;
+    private final int[] ratioCounts;
+
+    private final Map<Id<Request>, RegisteredRequest> registeredRequests = new HashMap<>();
+
+    /**
+     * @param initialThresholds threshold by the start time of the time bin (in seconds)
+     */
+    public OnlineThresholdController(String mode, Map<Integer, Double> initialThresholds, int timeBinSize, double learningRate,
+                                     Set<Id<Person>> excludedPersons) {
+        Preconditions.checkArgument(timeBinSize > 0, "Time bin size must be positive");
+        Preconditions.checkArgument(learningRate > 0 && learningRate <= 1, "Learning rate must be within (0, 1]");
+        this.mode = mode;
+        this.timeBinSize = timeBinSize;
+        this.learningRate = learningRate;
+
+        int numTimeBins = initialThresholds.keySet().stream().mapToInt(timeBinStart -> timeBinStart / timeBinSize + 1).max().orElse(0);
+        this.thresholds = new double[numTimeBins];
+        Arrays.fill(thresholds, Double.NaN);
+        initialThresholds.forEach((timeBinStart, threshold) -> thresholds[timeBinStart / timeBinSize] = threshold);
+        this.ratioSums = new double[numTimeBins];
+        this.ratioCounts = new int[numTimeBins];
+
+        this.excludedPersons = new boolean[Id.getNumberOfIds(Person.class)];
+        excludedPersons.forEach(personId -> this.excludedPersons[personId.index()] = true);
+    }
+
+    /**
+     * @return threshold of the time bin (NaN, if there is no threshold for the time bin)
+     */
+    public synchronized double getThreshold(int timeBin) {
+        return timeBin < thresholds.length ? thresholds[timeBin] : Double.NaN;
+    }
+
+    /**
+     * To be called for the valid requests. Requests of excluded persons are ignored.
+     */
+    public synchronized void registerRequest(PassengerRequest request) {
+        int personIndex = request.getPassengerIds().get(0).index();
+        if (personIndex < excludedPersons.length && excludedPersons[personIndex]) {
+            return;
+        }
+        if (request instanceof DrtRequest drtRequest) {
+            registeredRequests.put(drtRequest.getId(), new RegisteredRequest(drtRequest.getEarliestStartTime(), drtRequest.getLatestArrivalTime()));
+        }
+    }
+
+    @Override
+    public synchronized void handleEvent(PassengerDroppedOffEvent event) {
+        if (!event.getMode().equals(mode)) {
+            return;
+        }
+        RegisteredRequest request = registeredRequests.remove(event.getRequestId());
+        if (request == null) {
+            return;
+        }
+        double ratio = (event.getTime() - request.departureTime()) / (request.latestArrivalTime() - request.departureTime());
+        int timeBin = (int) Math.floor(request.departureTime() / timeBinSize);
+        if (timeBin < ratioSums.length) {
+            ratioSums[timeBin] += ratio;
+            ratioCounts[timeBin]++;
+        }
+    }
+
+    @Override
+    public synchronized void handleEvent(PassengerRequestRejectedEvent event) {
+        if (event.getMode().equals(mode)) {
+            registeredRequests.remove(event.getRequestId());
+        }
+    }
+
+    private int updateThresholds() {
+        int updatedTimeBins = 0;
+        for (int timeBin = 0; timeBin < thresholds.length; timeBin++) {
+            if (ratioCounts[timeBin] == 0) {
+                continue;
+            }
+            double averageTripLengthRatio = ratioSums[timeBin] / ratioCounts[timeBin];
+            thresholds[timeBin] = Math.min(1.0, learningRate * averageTripLengthRatio + (1 - learningRate) * thresholds[timeBin]);
+            ratioSums[timeBin] = 0;
+            ratioCounts[timeBin] = 0;
+            updatedTimeBins++;
+        }
+        return updatedTimeBins;
+    }
+
+    @Override
+    public synchronized void cleanupAfterMobsim(int iteration) {
+        int updatedTimeBins = updateThresholds();
+        log.info("Online threshold controller: " + updatedTimeBins + " time bins updated, " + registeredRequests.size() +
+                " registered requests not completed");
+        registeredRequests.clear();
+    }
+
+    /**
+     * @return threshold by the start time of the time bin (in seconds)
+     */
+    public synchronized Map<Integer, Double> getThresholds() {
+        Map<Integer, Double> thresholdMap = new LinkedHashMap<>();
+        for (int timeBin = 0; timeBin < thresholds.length; timeBin++) {
+            if (!Double.isNaN(thresholds[timeBin])) {
+                thresholdMap.put(timeBin * timeBinSize, thresholds[timeBin]);
+            }
+        }
+        return thresholdMap;
+    }
+}
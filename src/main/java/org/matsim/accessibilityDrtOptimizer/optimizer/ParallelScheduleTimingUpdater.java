@@ -0,0 +1,67 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import com.google.common.base.Preconditions;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Schedule timing updates of many vehicles on a fork-join pool. The vehicles are split into a fixed number of
+ * contiguous partitions (one per thread). The timings of a vehicle only depend on its own schedule, so that the results
+ * are identical to the serial loop. Below the configured number of vehicles, the vehicles are updated serially on the
+ * calling thread.
+ */
+public class ParallelScheduleTimingUpdater {
+    private final ScheduleTimingUpdater scheduleTimingUpdater;
+    private final int numPartitions;
+    private final int minParallelVehicles;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param threads             number of threads (and partitions)
+     * @param minParallelVehicles minimum number of vehicles to update in parallel
+     */
+    public ParallelScheduleTimingUpdater(ScheduleTimingUpdater scheduleTimingUpdater, int threads, int minParallelVehicles) {
+        Preconditions.checkArgument(threads >= 1, "Number of threads must be at least 1");
+        this.scheduleTimingUpdater = scheduleTimingUpdater;
+        this.numPartitions = threads;
+        this.minParallelVehicles = Math.max(minParallelVehicles, threads);
+        this.pool = new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("schedule-timing-update-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    public void updateTimings(List<DvrpVehicle> vehicles) {
+        if (numPartitions == 1 || vehicles.size() < minParallelVehicles) {
+            for (DvrpVehicle vehicle : vehicles) {
+                scheduleTimingUpdater.updateTimings(vehicle);
+            }
+            return;
+        }
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(numPartitions);
+        for (int p = 0; p < numPartitions; p++) {
+            int from = (int) ((long) vehicles.size() * p / numPartitions);
+            int to = (int) ((long) vehicles.size() * (p + 1) / numPartitions);
+            tasks.add(pool.submit(() -> {
+                for (int i = from; i < to; i++) {
+                    scheduleTimingUpdater.updateTimings(vehicles.get(i));
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
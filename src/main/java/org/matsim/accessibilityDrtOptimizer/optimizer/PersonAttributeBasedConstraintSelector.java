@@ -1,7 +1,10 @@
 package org.matsim.accessibilityDrtOptimizer.optimizer;
 
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
 import org.matsim.contrib.drt.optimizer.constraints.ConstraintSetChooser;
 import org.matsim.contrib.drt.optimizer.constraints.DefaultDrtOptimizationConstraintsSet;
 import org.matsim.contrib.drt.optimizer.constraints.DrtOptimizationConstraintsParams;
@@ -9,25 +12,82 @@ import org.matsim.contrib.drt.optimizer.constraints.DrtOptimizationConstraintsSe
 import org.matsim.contrib.drt.run.DrtConfigGroup;
 import org.matsim.utils.objectattributes.attributable.Attributes;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Chooses the constraint set of a request by a person attribute, with a declarative mapping from attribute value to
+ * constraint set name (any number of tiers). The constraint set of each person of the population is resolved once at
+ * construction into an array indexed by the person id index, so that a lookup is an array read. Persons not known at
+ * construction are resolved from their attributes.
+ */
 public class PersonAttributeBasedConstraintSelector implements ConstraintSetChooser {
-    private final Map<String, DrtOptimizationConstraintsSet> constraintsMap;
+    public static final String DEFAULT_ATTRIBUTE = "remark";
+    public static final Map<String, String> DEFAULT_MAPPING = Map.of("premium", "premium");
+    public static final String DEFAULT_CONSTRAINT_SET = "default";
+
+    private final String attributeName;
+    private final Map<String, Integer> attributeValueToSetIndex = new HashMap<>();
+    private final int defaultSetIndex;
+    private final List<Optional<DrtOptimizationConstraintsSet>> constraintSets = new ArrayList<>();
+    // indexed by the person id index (-1: not resolved)
+    private final int[] personSetIndices;
 
     public PersonAttributeBasedConstraintSelector(DrtConfigGroup drtConfigGroup) {
-        this.constraintsMap = new HashMap<>();
-        drtConfigGroup.addOrGetDrtOptimizationConstraintsParams().getDrtOptimizationConstraintsSets().
-                forEach(constraintSet -> constraintsMap.put(constraintSet.name, constraintSet));
+        this(drtConfigGroup, null);
+    }
+
+    public PersonAttributeBasedConstraintSelector(DrtConfigGroup drtConfigGroup, Population population) {
+        this(drtConfigGroup, population, DEFAULT_ATTRIBUTE, DEFAULT_MAPPING, DEFAULT_CONSTRAINT_SET);
+    }
+
+    /**
+     * @param population           persons to be resolved in advance (optional, may be null)
+     * @param attributeName        person attribute selecting the constraint set
+     * @param mapping              attribute value to constraint set name
+     * @param defaultConstraintSet constraint set of persons without attribute or with an unmapped value
+     */
+    public PersonAttributeBasedConstraintSelector(DrtConfigGroup drtConfigGroup, Population population, String attributeName,
+                                                  Map<String, String> mapping, String defaultConstraintSet) {
+        this.attributeName = attributeName;
+        Map<String, Integer> setIndices = new HashMap<>();
+        drtConfigGroup.addOrGetDrtOptimizationConstraintsParams().getDrtOptimizationConstraintsSets().forEach(constraintSet -> {
+            setIndices.put(constraintSet.name, constraintSets.size());
+            constraintSets.add(Optional.of(constraintSet));
+        });
+        Preconditions.checkArgument(setIndices.containsKey(defaultConstraintSet), "Unknown constraint set: " + defaultConstraintSet);
+        this.defaultSetIndex = setIndices.get(defaultConstraintSet);
+        mapping.forEach((attributeValue, constraintSet) -> {
+            Preconditions.checkArgument(setIndices.containsKey(constraintSet), "Unknown constraint set: " + constraintSet);
+            attributeValueToSetIndex.put(attributeValue, setIndices.get(constraintSet));
+        });
+
+        this.personSetIndices = new int[population == null ? 0 : Id.getNumberOfIds(Person.class)];
+        Arrays.fill(personSetIndices, -1);
+        if (population != null) {
+            for (Person person : population.getPersons().values()) {
+                personSetIndices[person.getId().index()] = resolve(person);
+            }
+        }
+    }
+
+    private int resolve(Person person) {
+        Object attributeValue = person.getAttributes().getAttribute(attributeName);
+        if (attributeValue == null) {
+            return defaultSetIndex;
+        }
+        return attributeValueToSetIndex.getOrDefault(attributeValue.toString(), defaultSetIndex);
     }
 
     @Override
     public Optional<DrtOptimizationConstraintsSet> chooseConstraintSet(double time, Link from, Link to, Person person, Attributes attributes) {
-        if (person.getAttributes().getAttribute("remark").toString().equals("premium")) {
-            return Optional.of(constraintsMap.get("premium"));
-        }
-        return Optional.of(constraintsMap.get("default"));
+        int personIndex = person.getId().index();
+        int setIndex = personIndex < personSetIndices.length ? personSetIndices[personIndex] : -1;
+        return constraintSets.get(setIndex >= 0 ? setIndex : resolve(person));
     }
 
     public static void prepareDrtConstraint(DrtConfigGroup drtConfigGroup,
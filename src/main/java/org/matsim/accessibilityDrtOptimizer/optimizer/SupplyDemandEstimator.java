@@ -0,0 +1,119 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.common.zones.Zone;
+import org.matsim.contrib.common.zones.ZoneSystem;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.core.mobsim.framework.MobsimTimer;
+
+/**
+ * Rolling-window estimate of the load of the fleet: exponentially decayed counts of the submitted requests (demand)
+ * and of the vehicles becoming idle (supply), globally and per zone. With the time window tau, a count decays by
+ * exp(-dt / tau), so that it is the expected number of events within the window (rate * tau). Each count stores its
+ * last update time and is decayed lazily, i.e., an event is recorded in O(1) and a query is O(1).
+ * <p>
+ * The load is the expected demand within the window over the expected supply within the window (idle vehicles now plus
+ * vehicles becoming idle within the window). The load of a zone is shrunk towards the global load by a prior weight
+ * of {@link #PRIOR_WEIGHT} vehicles, so that zones with few observations follow the global load.
+ */
+public class SupplyDemandEstimator implements FleetStateIndex.IdleListener {
+    public static final double PRIOR_WEIGHT = 1.0;
+
+    private final MobsimTimer mobsimTimer;
+    private final FleetStateIndex fleetStateIndex;
+    // optional (may be null): only the global load is then estimated
+    private final ZoneSystem zoneSystem;
+    private final double window;
+
+    private final DecayedCount demand = new DecayedCount();
+    private final DecayedCount supply = new DecayedCount();
+    // indexed by the zone id index
+    private final DecayedCount[] zonalDemand;
+    private final DecayedCount[] zonalSupply;
+
+    private static class DecayedCount {
+        private double count = 0;
+        private double lastUpdateTime = 0;
+    }
+
+    /**
+     * @param window time window tau of the exponential decay (in seconds)
+     */
+    public SupplyDemandEstimator(MobsimTimer mobsimTimer, FleetStateIndex fleetStateIndex, ZoneSystem zoneSystem, double window) {
+        Preconditions.checkArgument(window > 0, "Time window must be positive");
+        this.mobsimTimer = mobsimTimer;
+        this.fleetStateIndex = fleetStateIndex;
+        this.zoneSystem = zoneSystem;
+        this.window = window;
+
+        int numZones = zoneSystem == null ? 0 : Id.getNumberOfIds(Zone.class);
+        this.zonalDemand = new DecayedCount[numZones];
+        this.zonalSupply = new DecayedCount[numZones];
+        for (int i = 0; i < numZones; i++) {
+            zonalDemand[i] = new DecayedCount();
+            zonalSupply[i] = new DecayedCount();
+        }
+        fleetStateIndex.addIdleListener(this);
+    }
+
+    public void recordRequest(Link fromLink) {
+        double now = mobsimTimer.getTimeOfDay();
+        increment(demand, now);
+        int zoneIndex = getZoneIndex(fromLink);
+        if (zoneIndex >= 0) {
+            increment(zonalDemand[zoneIndex], now);
+        }
+    }
+
+    @Override
+    public void vehicleBecameIdle(DvrpVehicle vehicle, int zoneIndex) {
+        double now = mobsimTimer.getTimeOfDay();
+        increment(supply, now);
+        if (zoneIndex >= 0 && zoneIndex < zonalSupply.length) {
+            increment(zonalSupply[zoneIndex], now);
+        }
+    }
+
+    /**
+     * @return expected demand over expected supply within the time window
+     */
+    public double getLoad() {
+        double now = mobsimTimer.getTimeOfDay();
+        // the prior weight also avoids the division by zero without idle vehicles
+        return decayed(demand, now) / (fleetStateIndex.getIdleCount() + decayed(supply, now) + PRIOR_WEIGHT);
+    }
+
+    /**
+     * @return load of the zone of the link, shrunk towards the global load (global load, if the link is not in a zone)
+     */
+    public double getLoad(Link link) {
+        double globalLoad = getLoad();
+        Zone zone = zoneSystem == null ? null : zoneSystem.getZoneForLinkId(link.getId()).orElse(null);
+        if (zone == null || zone.getId().index() >= zonalDemand.length) {
+            return globalLoad;
+        }
+        int zoneIndex = zone.getId().index();
+        double now = mobsimTimer.getTimeOfDay();
+        return (decayed(zonalDemand[zoneIndex], now) + PRIOR_WEIGHT * globalLoad) /
+                (fleetStateIndex.getIdleCount(zone) + decayed(zonalSupply[zoneIndex], now) + PRIOR_WEIGHT);
+    }
+
+    private int getZoneIndex(Link link) {
+        if (zoneSystem == null) {
+            return -1;
+        }
+        int zoneIndex = zoneSystem.getZoneForLinkId(link.getId()).map(zone -> zone.getId().index()).orElse(-1);
+        return zoneIndex < zonalDemand.length ? zoneIndex : -1;
+    }
+
+    private void increment(DecayedCount count, double now) {
+        count.count = decayed(count, now) + 1;
+        count.lastUpdateTime = now;
+    }
+
+    private double decayed(DecayedCount count, double now) {
+        return count.count * Math.exp(-(now - count.lastUpdateTime) / window);
+    }
+}
@@ -1,29 +1,87 @@
 package org.matsim.accessibilityDrtOptimizer.optimizer;
 
+import com.google.common.base.Preconditions;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.drt.passenger.DrtRequest;
 import org.matsim.contrib.drt.scheduler.DrtScheduleInquiry;
 import org.matsim.contrib.dvrp.fleet.Fleet;
 
 @Deprecated
 public class TimeVaryingRejectionThreshold {
+    public static final double DEFAULT_LOWER_LOAD = 0.5;
+    public static final double DEFAULT_UPPER_LOAD = 1.5;
+
     private final Fleet fleet;
     private final DrtScheduleInquiry scheduleInquiry;
 
+    // optional (may be null): incrementally maintained idle state, otherwise the whole fleet is filtered
+    private final FleetStateIndex fleetStateIndex;
+    // optional (may be null): continuous threshold factor by the estimated load, otherwise the on/off model by the idle
+    // ratio is used
+    private final SupplyDemandEstimator supplyDemandEstimator;
+    // the threshold factor increases from 0 to 1 between these loads
+    private final double lowerLoad;
+    private final double upperLoad;
+
     private final boolean enable;
 
     public TimeVaryingRejectionThreshold(Fleet fleet, DrtScheduleInquiry scheduleInquiry, boolean enable) {
+        this(fleet, scheduleInquiry, enable, null);
+    }
+
+    public TimeVaryingRejectionThreshold(Fleet fleet, DrtScheduleInquiry scheduleInquiry, boolean enable, FleetStateIndex fleetStateIndex) {
+        this(fleet, scheduleInquiry, enable, fleetStateIndex, null, Double.NaN, Double.NaN);
+    }
+
+    public TimeVaryingRejectionThreshold(Fleet fleet, DrtScheduleInquiry scheduleInquiry, boolean enable, FleetStateIndex fleetStateIndex,
+                                         SupplyDemandEstimator supplyDemandEstimator, double lowerLoad, double upperLoad) {
+        Preconditions.checkArgument(supplyDemandEstimator == null || lowerLoad < upperLoad, "Lower load must be below upper load");
         this.fleet = fleet;
         this.scheduleInquiry = scheduleInquiry;
         this.enable = enable;
+        this.fleetStateIndex = fleetStateIndex;
+        this.supplyDemandEstimator = supplyDemandEstimator;
+        this.lowerLoad = lowerLoad;
+        this.upperLoad = upperLoad;
+    }
+
+    public void notifyRequestSubmitted(DrtRequest request) {
+        if (enable && supplyDemandEstimator != null) {
+            supplyDemandEstimator.recordRequest(request.getFromLink());
+        }
+    }
+
+    /**
+     * @return threshold factor for a request departing at the link (with the supply and demand of its zone, if
+     * estimated)
+     */
+    public double getThresholdFactor(Link fromLink) {
+        if (!enable || supplyDemandEstimator == null) {
+            return getThresholdFactor();
+        }
+        return getThresholdFactor(supplyDemandEstimator.getLoad(fromLink));
+    }
+
+    private double getThresholdFactor(double load) {
+        return Math.min(1, Math.max(0, (load - lowerLoad) / (upperLoad - lowerLoad)));
     }
 
     public double getThresholdFactor() {
         if (!enable){
             return 1;
         }
+        if (supplyDemandEstimator != null) {
+            return getThresholdFactor(supplyDemandEstimator.getLoad());
+        }
 
-        int fleetSize = fleet.getVehicles().size();
-        long idleVehicles = fleet.getVehicles().values().stream().filter(scheduleInquiry::isIdle).count();
-        double freeRatio = (double) idleVehicles / (double) fleetSize;
+        double freeRatio;
+        if (fleetStateIndex != null) {
+            freeRatio = fleetStateIndex.getIdleRatio();
+        } else {
+            int fleetSize = fleet.getVehicles().size();
+            long idleVehicles = fleet.getVehicles().values().stream().filter(scheduleInquiry::isIdle).count();
+            freeRatio = (double) idleVehicles / (double) fleetSize;
+        }
 
         // Currently, a simple on/off model. More complex model can be implemented later
         if (freeRatio < 0.75) {
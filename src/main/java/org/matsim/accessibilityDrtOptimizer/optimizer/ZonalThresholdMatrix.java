@@ -0,0 +1,118 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.common.zones.Zone;
+import org.matsim.contrib.common.zones.ZoneSystem;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Thresholds of {@link HeteogeneousRequestValidator} per zone and time bin, stored as a dense matrix
+ * [zone][time bin]. The zones are indexed by the zone id index, with an additional last row for the links outside the
+ * zonal system. The zone of a link is resolved by a precomputed array (by the link id index), so that a lookup is
+ * constant-time.
+ */
+public class ZonalThresholdMatrix {
+    private final int timeBinSize;
+    // indexed by the zone id index (last row: links outside the zonal system), then by the time bin
+    private final double[][] thresholds;
+    // indexed by the link id index
+    private final int[] linkZones;
+    private final int outsideZoneIndex;
+
+    /**
+     * @param initialThresholds threshold by the start time of the time bin (in seconds), same for all zones
+     */
+    public ZonalThresholdMatrix(Network network, ZoneSystem zoneSystem, Map<Integer, Double> initialThresholds, int timeBinSize) {
+        Preconditions.checkArgument(timeBinSize > 0, "Time bin size must be positive");
+        this.timeBinSize = timeBinSize;
+
+        this.outsideZoneIndex = Id.getNumberOfIds(Zone.class);
+        this.linkZones = new int[Id.getNumberOfIds(Link.class)];
+        Arrays.fill(linkZones, outsideZoneIndex);
+        for (Link link : network.getLinks().values()) {
+            zoneSystem.getZoneForLinkId(link.getId()).ifPresent(zone -> linkZones[link.getId().index()] = zone.getId().index());
+        }
+
+        int numTimeBins = initialThresholds.keySet().stream().mapToInt(timeBinStart -> timeBinStart / timeBinSize + 1).max().orElse(0);
+        double[] initialRow = new double[numTimeBins];
+        Arrays.fill(initialRow, Double.NaN);
+        initialThresholds.forEach((timeBinStart, threshold) -> initialRow[timeBinStart / timeBinSize] = threshold);
+        this.thresholds = new double[outsideZoneIndex + 1][];
+        for (int zoneIndex = 0; zoneIndex < thresholds.length; zoneIndex++) {
+            thresholds[zoneIndex] = initialRow.clone();
+        }
+    }
+
+    public int getTimeBinSize() {
+        return timeBinSize;
+    }
+
+    public int getNumZoneIndices() {
+        return thresholds.length;
+    }
+
+    public int getNumTimeBins() {
+        return thresholds[0].length;
+    }
+
+    /**
+     * @return row of the link (the last row, if the link is outside the zonal system)
+     */
+    public int getZoneIndex(Id<Link> linkId) {
+        int linkIndex = linkId.index();
+        return linkIndex < linkZones.length ? linkZones[linkIndex] : outsideZoneIndex;
+    }
+
+    /**
+     * @return threshold of the zone and the time bin (NaN, if there is no threshold for the time bin)
+     */
+    public double getThreshold(int zoneIndex, int timeBin) {
+        double[] row = thresholds[zoneIndex];
+        return timeBin < row.length ? row[timeBin] : Double.NaN;
+    }
+
+    public double getThreshold(Link fromLink, double departureTime) {
+        return getThreshold(getZoneIndex(fromLink.getId()), (int) Math.floor(departureTime / timeBinSize));
+    }
+
+    public void setThreshold(int zoneIndex, int timeBin, double threshold) {
+        thresholds[zoneIndex][timeBin] = threshold;
+    }
+
+    /**
+     * Write the thresholds of the zones with at least one link (zone id "outside" for the links outside the zonal system).
+     */
+    public void write(Path path, ZoneSystem zoneSystem) throws IOException {
+        boolean[] usedZones = new boolean[thresholds.length];
+        for (int zoneIndex : linkZones) {
+            usedZones[zoneIndex] = true;
+        }
+        try (CSVPrinter printer = new CSVPrinter(new FileWriter(path.toString()), CSVFormat.TDF)) {
+            printer.printRecord("zone", "time", "threshold");
+            for (Id<Zone> zoneId : zoneSystem.getZones().keySet()) {
+                if (zoneId.index() < usedZones.length && usedZones[zoneId.index()]) {
+                    printRow(printer, zoneId.toString(), thresholds[zoneId.index()]);
+                }
+            }
+            if (usedZones[outsideZoneIndex]) {
+                printRow(printer, "outside", thresholds[outsideZoneIndex]);
+            }
+        }
+    }
+
+    private void printRow(CSVPrinter printer, String zone, double[] row) throws IOException {
+        for (int timeBin = 0; timeBin < row.length; timeBin++) {
+            printer.printRecord(zone, timeBin * timeBinSize, row[timeBin]);
+        }
+    }
+}
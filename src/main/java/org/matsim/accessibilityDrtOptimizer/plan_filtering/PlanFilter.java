@@ -1,15 +1,18 @@
 package org.matsim.accessibilityDrtOptimizer.plan_filtering;
 
 import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
-import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
 import com.google.common.base.Preconditions;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
-import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator;
 import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDeduplication;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripQuery;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.IncrementalAlternativeModeCalculation;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.ParallelAlternativeModeCalculator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TransitStopProximityIndex;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
@@ -21,10 +24,8 @@ import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
 import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
-import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.population.io.PopulationWriter;
-import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.scenario.ScenarioUtils;
@@ -39,18 +40,40 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class PlanFilter implements MATSimAppCommand {
+    private static final int DEDUPLICATION_TIME_BIN_SIZE = 60;
+
     @CommandLine.Option(names = "--config", description = "config file", required = true)
     private String configPath;
 
     @CommandLine.Option(names = "--output", description = "directory to store filtered plans", required = true)
     private String outputDirectory;
 
+    @CommandLine.Option(names = "--departure-window", description = "departure time window (in seconds) for evaluating trips " +
+            "from the same origin link with one PT tree search (0: each trip is routed separately)", defaultValue = "0")
+    private double departureWindow;
+
+    @CommandLine.Option(names = "--skip-unreachable-pt", description = "calculate trips without a transit stop within " +
+            "the search radius of the origin or destination directly as walk trips (without PT routing). This is an " +
+            "approximation: the raptor falls back to the nearest stop (plus the extension radius), so that some of these trips " +
+            "would have a PT route, i.e., the results may differ from the full calculation", defaultValue = "false")
+    private boolean skipUnreachablePt;
+
+    @CommandLine.Option(names = "--incremental", description = "reuse the alternative mode data of the previous output " +
+            "for unchanged trips, if network, transit schedule and routing config are unchanged (not with --departure-window)", defaultValue = "false")
+    private boolean incremental;
+
+    @CommandLine.Option(names = "--deduplicate", description = "calculate trips with the same from link, to link and " +
+            "departure minute only once (the result is reused for all the persons of the trip)", defaultValue = "false")
+    private boolean deduplicate;
+
     public static void main(String[] args) {
         new PlanFilter().execute(args);
     }
 
     @Override
     public Integer call() throws Exception {
+        Preconditions.checkArgument(!incremental || departureWindow == 0,
+                "The trips of a departure window depend on each other, which is not supported with --incremental");
         if (!Files.exists(Path.of(outputDirectory))){
             Files.createDirectories(Path.of(outputDirectory));
         }
@@ -63,42 +86,44 @@ public class PlanFilter implements MATSimAppCommand {
         Network network = scenario.getNetwork();
         Population inputPlans = scenario.getPopulation();
 
-        SwissRailRaptorData data = SwissRailRaptorData.create(schedule, vehicles, RaptorUtils.createStaticConfig(config), network, null);
-        SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
-
         MultiModeDrtConfigGroup multiModeDrtConfigGroup = MultiModeDrtConfigGroup.get(config);
         Preconditions.checkArgument(multiModeDrtConfigGroup.getModalElements().size() == 1, "Only one DRT is currently supported. Check config file");
         DrtConfigGroup drtConfigGroup = multiModeDrtConfigGroup.getModalElements().iterator().next();
 
-        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
-        TravelDisutility travelDisutility = new TimeAsTravelDisutility(travelTime);
-        AlternativeModeCalculator alternativeModeCalculator = new AlternativeModeCalculator(raptor, network, travelTime, travelDisutility);
-
         List<Person> personList02 = new ArrayList<>();
         List<Person> personList04 = new ArrayList<>();
         List<Person> personList06 = new ArrayList<>();
         List<Person> personList08 = new ArrayList<>();
         List<Person> personList10 = new ArrayList<>();
 
-        String alternativeModeDataOutput = outputDirectory + "/alternative-mode-data.csv";
-        CSVPrinter tripsWriter = new CSVPrinter(new FileWriter(alternativeModeDataOutput), CSVFormat.TDF);
-        tripsWriter.printRecord(AlternativeModeTripData.ALTERNATIVE_TRIP_DATA_TITLE_ROW);
+        List<Person> persons = new ArrayList<>(inputPlans.getPersons().values());
+        List<AlternativeModeTripQuery> queries = new ArrayList<>();
+        for (Person person : persons) {
+            queries.add(AlternativeModeTripQuery.of(person, network));
+        }
+        Path alternativeModeDataPath = Path.of(outputDirectory + "/alternative-mode-data.csv");
+        IncrementalAlternativeModeCalculation incrementalCalculation = null;
+        List<AlternativeModeTripData> results;
+        if (incremental) {
+            String fingerprint = IncrementalAlternativeModeCalculation.fingerprint(network, schedule, config,
+                    Double.toString(departureWindow), Boolean.toString(skipUnreachablePt), Boolean.toString(deduplicate));
+            incrementalCalculation = new IncrementalAlternativeModeCalculation(alternativeModeDataPath, fingerprint);
+            // The calculator is only created when there are trips to be calculated
+            results = incrementalCalculation.calculateAlternativeTripData(queries,
+                    changedQueries -> calculateAlternativeTripData(changedQueries, config, schedule, vehicles, network));
+        } else {
+            results = calculateAlternativeTripData(queries, config, schedule, vehicles, network);
+            IncrementalAlternativeModeCalculation.deleteKeys(alternativeModeDataPath);
+        }
 
-        for (Person person : inputPlans.getPersons().values()) {
-            List<TripStructureUtils.Trip> trips = TripStructureUtils.getTrips(person.getSelectedPlan());
-            Preconditions.checkArgument(trips.size() == 1, "Only trip based plan are supported. Check the input plans!");
-            TripStructureUtils.Trip trip = trips.get(0);
-            Link fromLink = network.getLinks().get(trip.getOriginActivity().getLinkId());
-            if (fromLink == null) {
-                fromLink = NetworkUtils.getNearestLink(network, trip.getOriginActivity().getCoord());
-            }
-            Link toLink = network.getLinks().get(trip.getDestinationActivity().getLinkId());
-            if (toLink == null) {
-                toLink = NetworkUtils.getNearestLink(network, trip.getDestinationActivity().getCoord());
-            }
-            double departureTime = trip.getOriginActivity().getEndTime().orElseThrow(RuntimeException::new);
+        // The output is only opened now, since the incremental calculation reads the previous output
+        List<AlternativeModeTripData> alternativeModeTripDataList = new ArrayList<>();
+        CSVPrinter tripsWriter = new CSVPrinter(new FileWriter(alternativeModeDataPath.toString()), CSVFormat.TDF);
+        tripsWriter.printRecord(AlternativeModeTripData.ALTERNATIVE_TRIP_DATA_TITLE_ROW);
 
-            AlternativeModeTripData alternativeModeTripData = alternativeModeCalculator.calculateAlternativeTripData(person.getId().toString(), fromLink, toLink, departureTime);
+        for (int i = 0; i < persons.size(); i++) {
+            Person person = persons.get(i);
+            AlternativeModeTripData alternativeModeTripData = results.get(i);
             DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtConfigGroup.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
             double upperBound = constraints.maxTravelTimeAlpha * alternativeModeTripData.directCarTravelTime() + constraints.maxTravelTimeBeta;
             double alternativeTravelTime = alternativeModeTripData.actualTotalTravelTime();
@@ -124,8 +149,13 @@ public class PlanFilter implements MATSimAppCommand {
 
             // print alternative mode data
             alternativeModeTripData.printData(tripsWriter);
+            alternativeModeTripDataList.add(alternativeModeTripData);
         }
         tripsWriter.close();
+        AlternativeModeTripDataStore.write(alternativeModeTripDataList, Path.of(outputDirectory + "/alternative-mode-data.bin"));
+        if (incrementalCalculation != null) {
+            incrementalCalculation.writeKeys(queries);
+        }
 
         Population population02 = PopulationUtils.createPopulation(ConfigUtils.createConfig());
         personList02.forEach(population02::addPerson);
@@ -149,4 +179,26 @@ public class PlanFilter implements MATSimAppCommand {
 
         return 0;
     }
+
+    private List<AlternativeModeTripData> calculateAlternativeTripData(List<AlternativeModeTripQuery> queries, Config config,
+                                                                      TransitSchedule schedule, Vehicles vehicles, Network network) {
+        if (!deduplicate) {
+            return createCalculator(config, schedule, vehicles, network).calculateAlternativeTripData(queries);
+        }
+        return AlternativeModeTripDeduplication.calculateAlternativeTripData(queries, DEDUPLICATION_TIME_BIN_SIZE,
+                uniqueQueries -> createCalculator(config, schedule, vehicles, network).calculateAlternativeTripData(uniqueQueries));
+    }
+
+    private ParallelAlternativeModeCalculator createCalculator(Config config, TransitSchedule schedule, Vehicles vehicles, Network network) {
+        SwissRailRaptorData data = SwissRailRaptorData.create(schedule, vehicles, RaptorUtils.createStaticConfig(config), network, null);
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        TravelDisutility travelDisutility = new TimeAsTravelDisutility(travelTime);
+        TransitStopProximityIndex stopIndex = null;
+        if (skipUnreachablePt) {
+            stopIndex = new TransitStopProximityIndex(schedule, network, config.transitRouter().getSearchRadius());
+        } else if (departureWindow > 0) {
+            stopIndex = new TransitStopProximityIndex(schedule);
+        }
+        return new ParallelAlternativeModeCalculator(data, config, network, stopIndex, travelTime, travelDisutility, 1, departureWindow);
+    }
 }
@@ -0,0 +1,35 @@
+package org.matsim.accessibilityDrtOptimizer.prepare;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Deterministic partition of the persons by the hash of their id (shard i of N, i = 0 ... N - 1). The hash of a
+ * string is the same in every JVM, so that independent processes agree on the partition.
+ */
+public record AlternativeModeDataShard(int index, int count) {
+    public static final AlternativeModeDataShard ALL = new AlternativeModeDataShard(0, 1);
+
+    public AlternativeModeDataShard {
+        Preconditions.checkArgument(count >= 1 && index >= 0 && index < count, "Invalid shard " + index + "/" + count);
+    }
+
+    /**
+     * @param shard "i/N", or an empty string for all persons
+     */
+    public static AlternativeModeDataShard parse(String shard) {
+        if (shard.equals("")) {
+            return ALL;
+        }
+        String[] parts = shard.split("/");
+        Preconditions.checkArgument(parts.length == 2, "Shard must be given as i/N: " + shard);
+        return new AlternativeModeDataShard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+    }
+
+    public static int getShardIndex(String personId, int count) {
+        return Math.floorMod(personId.hashCode(), count);
+    }
+
+    public boolean contains(String personId) {
+        return getShardIndex(personId, count) == index;
+    }
+}
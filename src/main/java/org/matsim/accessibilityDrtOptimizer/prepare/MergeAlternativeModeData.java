@@ -0,0 +1,84 @@
+package org.matsim.accessibilityDrtOptimizer.prepare;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.io.StreamingPopulationReader;
+import org.matsim.core.scenario.ScenarioUtils;
+import picocli.CommandLine;
+
+import java.io.FileWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combine the partial outputs of {@link PrepareAlternativeModeData} (option --shard) into one output in the original
+ * order of the plans. Within a shard, the trips are already in the original order, so that the plans only need to be
+ * streamed once to interleave the shards.
+ */
+public class MergeAlternativeModeData implements MATSimAppCommand {
+    private static final Logger log = LogManager.getLogger(MergeAlternativeModeData.class);
+
+    @CommandLine.Option(names = "--plans", description = "path to plans file (same as for the shards)", required = true)
+    private String plans;
+
+    @CommandLine.Option(names = "--shards", description = "paths to the partial outputs (tab-separated or binary), " +
+            "ordered by shard index (0 ... N-1)", required = true, split = ",")
+    private List<Path> shards;
+
+    @CommandLine.Option(names = "--output", description = "output path to alternative mode data", required = true)
+    private Path output;
+
+    @CommandLine.Option(names = "--binary-output", description = "optional output path to the binary (memory-mappable) alternative mode data", defaultValue = "")
+    private String binaryOutput;
+
+    public static void main(String[] args) {
+        new MergeAlternativeModeData().execute(args);
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        int numShards = shards.size();
+        List<AlternativeModeTripDataStore> stores = new ArrayList<>();
+        for (Path shard : shards) {
+            stores.add(AlternativeModeTripDataStore.read(shard));
+        }
+        int[] cursors = new int[numShards];
+
+        List<AlternativeModeTripData> results = new ArrayList<>();
+        StreamingPopulationReader populationReader = new StreamingPopulationReader(ScenarioUtils.createScenario(ConfigUtils.createConfig()));
+        populationReader.addAlgorithm(person -> {
+            String personId = person.getId().toString();
+            int shard = AlternativeModeDataShard.getShardIndex(personId, numShards);
+            AlternativeModeTripDataStore store = stores.get(shard);
+            Preconditions.checkState(cursors[shard] < store.size() && store.id(cursors[shard]).equals(personId),
+                    "Person " + personId + " is not the next trip of shard " + shard + ". Check the order of the shards and the plans file");
+            results.add(store.get(cursors[shard]));
+            cursors[shard]++;
+        });
+        populationReader.readFile(plans);
+
+        for (int shard = 0; shard < numShards; shard++) {
+            Preconditions.checkState(cursors[shard] == stores.get(shard).size(), "Shard " + shard + " contains trips that are not in the plans file");
+        }
+        log.info(results.size() + " trips of " + numShards + " shards merged");
+
+        try (CSVPrinter writer = new CSVPrinter(new FileWriter(output.toString(), false), CSVFormat.TDF)) {
+            writer.printRecord(AlternativeModeTripData.ALTERNATIVE_TRIP_DATA_TITLE_ROW);
+            for (AlternativeModeTripData alternativeModeTripData : results) {
+                alternativeModeTripData.printData(writer);
+            }
+        }
+        if (!binaryOutput.equals("")) {
+            AlternativeModeTripDataStore.write(results, Path.of(binaryOutput));
+        }
+        return 0;
+    }
+}
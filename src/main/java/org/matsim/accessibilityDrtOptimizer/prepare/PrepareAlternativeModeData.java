@@ -1,27 +1,32 @@
 package org.matsim.accessibilityDrtOptimizer.prepare;
 
 import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
-import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
-import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDeduplication;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripQuery;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.IncrementalAlternativeModeCalculation;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.LinkTravelTimeProfile;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.ParallelAlternativeModeCalculator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TransitStopProximityIndex;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TravelTimeProfile;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TravelTimeProfileStore;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
-import org.matsim.api.core.v01.population.Person;
-import org.matsim.api.core.v01.population.Population;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.contrib.drt.run.MultiModeDrtConfigGroup;
 import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
 import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
-import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.population.PopulationUtils;
-import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.population.io.StreamingPopulationReader;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.scenario.ScenarioUtils;
@@ -30,10 +35,17 @@ import org.matsim.vehicles.Vehicles;
 import picocli.CommandLine;
 
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 public class PrepareAlternativeModeData implements MATSimAppCommand {
+    private static final Logger log = LogManager.getLogger(PrepareAlternativeModeData.class);
+    private static final int DEDUPLICATION_TIME_BIN_SIZE = 60;
+
     @CommandLine.Option(names = "--config", description = "path to config file", required = true)
     private String configPath;
 
@@ -43,49 +55,150 @@ public class PrepareAlternativeModeData implements MATSimAppCommand {
     @CommandLine.Option(names = "--output", description = "output path to alternative mode data", required = true)
     private Path output;
 
+    @CommandLine.Option(names = "--binary-output", description = "optional output path to the binary (memory-mappable) alternative mode data", defaultValue = "")
+    private String binaryOutput;
+
+    @CommandLine.Option(names = "--threads", description = "number of threads for the alternative mode calculation", defaultValue = "1")
+    private int threads;
+
+    @CommandLine.Option(names = "--departure-window", description = "departure time window (in seconds) for evaluating trips " +
+            "from the same origin link with one PT tree search (0: each trip is routed separately)", defaultValue = "0")
+    private double departureWindow;
+
+    @CommandLine.Option(names = "--skip-unreachable-pt", description = "calculate trips without a transit stop within " +
+            "the search radius of the origin or destination directly as walk trips (without PT routing). This is an " +
+            "approximation: the raptor falls back to the nearest stop (plus the extension radius), so that some of these trips " +
+            "would have a PT route, i.e., the results may differ from the full calculation", defaultValue = "false")
+    private boolean skipUnreachablePt;
+
+    @CommandLine.Option(names = "--travel-times", description = "path to the link travel time profile (optional). " +
+            "By default: free speed travel times", defaultValue = "")
+    private String travelTimesPath;
+
+    @CommandLine.Option(names = "--incremental", description = "reuse the results of the previous output for unchanged " +
+            "trips, if network, transit schedule and routing config are unchanged (not with --departure-window)", defaultValue = "false")
+    private boolean incremental;
+
+    @CommandLine.Option(names = "--profile-output", description = "optional output path to the departure time profiles " +
+            "(earliest arrival over the departure window) of the alternative modes. The profiles are calculated for all trips, " +
+            "i.e., not with --incremental or --deduplicate", defaultValue = "")
+    private String profileOutput;
+
+    @CommandLine.Option(names = "--profile-window", description = "half width of the departure window of the profiles (in seconds)", defaultValue = "1800")
+    private double profileWindow;
+
+    @CommandLine.Option(names = "--shard", description = "only calculate shard i of N (format: i/N, i = 0 ... N-1) of the " +
+            "persons, partitioned by the hash of the person id. The partial outputs are combined with MergeAlternativeModeData", defaultValue = "")
+    private String shard;
+
+    @CommandLine.Option(names = "--deduplicate", description = "calculate trips with the same from link, to link and " +
+            "departure minute only once (the result is reused for all the persons of the trip)", defaultValue = "false")
+    private boolean deduplicate;
+
+    // created on the first use (not at all, if the incremental calculation reuses all trips) and shared by the trip
+    // data and the profiles
+    private ParallelAlternativeModeCalculator calculator;
+
     public static void main(String[] args) {
         new PrepareAlternativeModeData().execute(args);
     }
 
     @Override
     public Integer call() throws Exception {
+        Preconditions.checkArgument(profileOutput.equals("") || !(incremental || deduplicate),
+                "The profiles are calculated for all trips, which is not supported with --incremental or --deduplicate");
+        Preconditions.checkArgument(!incremental || departureWindow == 0,
+                "The trips of a departure window depend on each other, which is not supported with --incremental");
         Config config = ConfigUtils.loadConfig(configPath, new MultiModeDrtConfigGroup());
         config.global().setCoordinateSystem("EPSG:25832");
         Scenario scenario = ScenarioUtils.loadScenario(config);
         TransitSchedule schedule = scenario.getTransitSchedule();
         Vehicles vehicles = scenario.getTransitVehicles();
         Network network = scenario.getNetwork();
-        Population inputPlans = PopulationUtils.readPopulation(plans);
 
-        SwissRailRaptorData data = SwissRailRaptorData.create(schedule, vehicles, RaptorUtils.createStaticConfig(config), network, null);
-        SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
-        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
-        TravelDisutility travelDisutility = new TimeAsTravelDisutility(travelTime);
+        // The plans are streamed, so that only the trips of this shard are kept in memory
+        AlternativeModeDataShard personShard = AlternativeModeDataShard.parse(shard);
+        List<AlternativeModeTripQuery> queries = new ArrayList<>();
+        StreamingPopulationReader populationReader = new StreamingPopulationReader(ScenarioUtils.createScenario(ConfigUtils.createConfig()));
+        populationReader.addAlgorithm(person -> {
+            if (personShard.contains(person.getId().toString())) {
+                queries.add(AlternativeModeTripQuery.of(person, network));
+            }
+        });
+        populationReader.readFile(plans);
+        log.info(queries.size() + " trips in shard " + personShard.index() + "/" + personShard.count());
 
-        AlternativeModeCalculator alternativeModeCalculator = new AlternativeModeCalculator(raptor, network, travelTime, travelDisutility);
+        IncrementalAlternativeModeCalculation incrementalCalculation = null;
+        List<AlternativeModeTripData> results;
+        if (incremental) {
+            String travelTimesHash = travelTimesPath.equals("") ? "" :
+                    Hashing.sha256().hashBytes(Files.readAllBytes(Path.of(travelTimesPath))).toString();
+            String fingerprint = IncrementalAlternativeModeCalculation.fingerprint(network, schedule, config,
+                    Double.toString(departureWindow), Boolean.toString(skipUnreachablePt), Boolean.toString(deduplicate), travelTimesHash);
+            incrementalCalculation = new IncrementalAlternativeModeCalculation(output, fingerprint);
+            // The calculator is only created when there are trips to be calculated
+            results = incrementalCalculation.calculateAlternativeTripData(queries,
+                    changedQueries -> calculateAlternativeTripData(changedQueries, config, schedule, vehicles, network));
+        } else {
+            results = calculateAlternativeTripData(queries, config, schedule, vehicles, network);
+            IncrementalAlternativeModeCalculation.deleteKeys(output);
+        }
 
         CSVPrinter writer = new CSVPrinter(new FileWriter(output.toString(), false), CSVFormat.TDF);
         writer.printRecord(AlternativeModeTripData.ALTERNATIVE_TRIP_DATA_TITLE_ROW);
-
-        for (Person person : inputPlans.getPersons().values()) {
-            List<TripStructureUtils.Trip> trips = TripStructureUtils.getTrips(person.getSelectedPlan());
-            Preconditions.checkArgument(trips.size() == 1, "Only trip based plan are supported. Check the input plans!");
-            TripStructureUtils.Trip trip = trips.get(0);
-            Link fromLink = network.getLinks().get(trip.getOriginActivity().getLinkId());
-            if (fromLink == null) {
-                fromLink = NetworkUtils.getNearestLink(network, trip.getOriginActivity().getCoord());
-            }
-            Link toLink = network.getLinks().get(trip.getDestinationActivity().getLinkId());
-            if (toLink == null) {
-                toLink = NetworkUtils.getNearestLink(network, trip.getDestinationActivity().getCoord());
-            }
-            double departureTime = trip.getOriginActivity().getEndTime().orElseThrow(RuntimeException::new);
-
-            AlternativeModeTripData alternativeModeTripData = alternativeModeCalculator.calculateAlternativeTripData(person.getId().toString(), fromLink, toLink, departureTime);
+        for (AlternativeModeTripData alternativeModeTripData : results) {
             alternativeModeTripData.printData(writer);
         }
 
         writer.close();
+
+        if (!binaryOutput.equals("")) {
+            AlternativeModeTripDataStore.write(results, Path.of(binaryOutput));
+        }
+        if (incrementalCalculation != null) {
+            incrementalCalculation.writeKeys(queries);
+        }
+
+        if (!profileOutput.equals("")) {
+            List<TravelTimeProfile> profiles = getCalculator(config, schedule, vehicles, network).calculateTravelTimeProfiles(queries, profileWindow);
+            TravelTimeProfileStore.of(queries.stream().map(AlternativeModeTripQuery::id).toList(), profiles).write(Path.of(profileOutput));
+        }
         return 0;
     }
+
+    private List<AlternativeModeTripData> calculateAlternativeTripData(List<AlternativeModeTripQuery> queries, Config config,
+                                                                      TransitSchedule schedule, Vehicles vehicles, Network network) {
+        if (!deduplicate) {
+            return getCalculator(config, schedule, vehicles, network).calculateAlternativeTripData(queries);
+        }
+        return AlternativeModeTripDeduplication.calculateAlternativeTripData(queries, DEDUPLICATION_TIME_BIN_SIZE,
+                uniqueQueries -> getCalculator(config, schedule, vehicles, network).calculateAlternativeTripData(uniqueQueries));
+    }
+
+    private ParallelAlternativeModeCalculator getCalculator(Config config, TransitSchedule schedule, Vehicles vehicles, Network network) {
+        if (calculator == null) {
+            calculator = createCalculator(config, schedule, vehicles, network);
+        }
+        return calculator;
+    }
+
+    private ParallelAlternativeModeCalculator createCalculator(Config config, TransitSchedule schedule, Vehicles vehicles, Network network) {
+        SwissRailRaptorData data = SwissRailRaptorData.create(schedule, vehicles, RaptorUtils.createStaticConfig(config), network, null);
+        TravelTime travelTime;
+        try {
+            travelTime = travelTimesPath.equals("") ? new QSimFreeSpeedTravelTime(1) :
+                    LinkTravelTimeProfile.read(Path.of(travelTimesPath), network);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        TravelDisutility travelDisutility = new TimeAsTravelDisutility(travelTime);
+
+        TransitStopProximityIndex stopIndex = null;
+        if (skipUnreachablePt) {
+            stopIndex = new TransitStopProximityIndex(schedule, network, config.transitRouter().getSearchRadius());
+        } else if (departureWindow > 0) {
+            stopIndex = new TransitStopProximityIndex(schedule);
+        }
+        return new ParallelAlternativeModeCalculator(data, config, network, stopIndex, travelTime, travelDisutility, threads, departureWindow);
+    }
 }
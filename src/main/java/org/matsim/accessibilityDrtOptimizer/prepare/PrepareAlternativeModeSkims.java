@@ -0,0 +1,172 @@
+package org.matsim.accessibilityDrtOptimizer.prepare;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorCore;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeSkimMatrix;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TransitStopProximityIndex;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.contrib.common.zones.Zone;
+import org.matsim.contrib.common.zones.systems.grid.square.SquareGridZoneSystem;
+import org.matsim.contrib.drt.run.MultiModeDrtConfigGroup;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.LinkWrapperFacility;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator.WALK_BEELINE_DISTANCE_FACTOR;
+import static org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator.WALK_SPEED;
+
+/**
+ * Precompute the zone-to-zone alternative mode skim matrix on a square grid. For each origin zone and time bin, one
+ * SwissRailRaptor tree search is performed from the link closest to the zone centroid (departing in the middle of
+ * the time bin). The PT travel time to a destination zone is the earliest arrival at a stop within the search radius
+ * of the destination centroid plus the egress walk. Direct walk is used, when it is faster. Intra-zonal entries are
+ * left empty (NaN), so that the users of the matrix fall back to the exact calculation for those trips.
+ */
+public class PrepareAlternativeModeSkims implements MATSimAppCommand {
+    @CommandLine.Option(names = "--config", description = "path to config file", required = true)
+    private String configPath;
+
+    @CommandLine.Option(names = "--output", description = "output path to the skim matrix", required = true)
+    private Path output;
+
+    @CommandLine.Option(names = "--cell-size", description = "cell size of the square grid zonal system", defaultValue = "2000")
+    private double cellSize;
+
+    @CommandLine.Option(names = "--time-bin-size", description = "time bin size of the skim matrix", defaultValue = "3600")
+    private int timeBinSize;
+
+    @CommandLine.Option(names = "--end-time", description = "end time of the skim matrix", defaultValue = "86400")
+    private double endTime;
+
+    @CommandLine.Option(names = "--threads", description = "number of threads", defaultValue = "1")
+    private int threads;
+
+    private static final Logger log = LogManager.getLogger(PrepareAlternativeModeSkims.class);
+
+    public static void main(String[] args) {
+        new PrepareAlternativeModeSkims().execute(args);
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        Config config = ConfigUtils.loadConfig(configPath, new MultiModeDrtConfigGroup());
+        Scenario scenario = ScenarioUtils.loadScenario(config);
+        Network network = scenario.getNetwork();
+
+        SquareGridZoneSystem zonalSystem = new SquareGridZoneSystem(network, cellSize);
+        List<Id<Zone>> zoneIds = new ArrayList<>();
+        List<Link> centroidLinks = new ArrayList<>();
+        for (Zone zone : zonalSystem.getZones().values()) {
+            zoneIds.add(zone.getId());
+            centroidLinks.add(NetworkUtils.getNearestLink(network, zone.getCentroid()));
+        }
+        int numTimeBins = (int) Math.ceil(endTime / timeBinSize);
+        AlternativeModeSkimMatrix skims = new AlternativeModeSkimMatrix(zoneIds, timeBinSize, numTimeBins, network, zonalSystem);
+        log.info("Computing skim matrix for " + zoneIds.size() + " zones and " + numTimeBins + " time bins");
+
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), scenario.getTransitVehicles(),
+                RaptorUtils.createStaticConfig(config), network, null);
+        RaptorParameters raptorParameters = RaptorUtils.createParameters(config);
+        double searchRadius = config.transitRouter().getSearchRadius();
+        TransitStopProximityIndex stopIndex = new TransitStopProximityIndex(scenario.getTransitSchedule());
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        SpeedyALTFactory routerFactory = new SpeedyALTFactory();
+
+        // Each worker processes whole origin zones, therefore the workers write to disjoint parts of the matrix
+        AtomicInteger nextOrigin = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
+                LeastCostPathCalculator router = routerFactory.createPathCalculator(network, new TimeAsTravelDisutility(travelTime), travelTime);
+                futures.add(executor.submit(() -> {
+                    int origin;
+                    while ((origin = nextOrigin.getAndIncrement()) < centroidLinks.size()) {
+                        Link originLink = centroidLinks.get(origin);
+                        for (int destination = 0; destination < centroidLinks.size(); destination++) {
+                            if (destination != origin) {
+                                skims.setCarTravelTime(origin, destination, VrpPaths.calcAndCreatePath(originLink,
+                                        centroidLinks.get(destination), 0, router, travelTime).getTravelTime());
+                            }
+                        }
+                        for (int timeBin = 0; timeBin < numTimeBins; timeBin++) {
+                            computePtTravelTimes(skims, raptor, raptorParameters, stopIndex, searchRadius, centroidLinks, origin, timeBin);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        skims.write(output);
+        return 0;
+    }
+
+    private void computePtTravelTimes(AlternativeModeSkimMatrix skims, SwissRailRaptor raptor, RaptorParameters raptorParameters,
+                                      TransitStopProximityIndex stopIndex, double searchRadius, List<Link> centroidLinks,
+                                      int origin, int timeBin) {
+        Link originLink = centroidLinks.get(origin);
+        Coord originCoord = originLink.getToNode().getCoord();
+        double departureTime = (timeBin + 0.5) * timeBinSize;
+        Map<Id<TransitStopFacility>, SwissRailRaptorCore.TravelInfo> tree =
+                raptor.calcTree(new LinkWrapperFacility(originLink), departureTime, raptorParameters, null);
+
+        for (int destination = 0; destination < centroidLinks.size(); destination++) {
+            if (destination == origin) {
+                continue;
+            }
+            Coord destinationCoord = centroidLinks.get(destination).getToNode().getCoord();
+            double bestWalkDistance = CoordUtils.calcEuclideanDistance(originCoord, destinationCoord) * WALK_BEELINE_DISTANCE_FACTOR;
+            double bestTravelTime = bestWalkDistance / WALK_SPEED;
+
+            for (TransitStopFacility stop : stopIndex.getStopsWithinRadius(destinationCoord, searchRadius)) {
+                SwissRailRaptorCore.TravelInfo travelInfo = tree.get(stop.getId());
+                if (travelInfo == null) {
+                    continue;
+                }
+                double egressDistance = CoordUtils.calcEuclideanDistance(stop.getCoord(), destinationCoord) * WALK_BEELINE_DISTANCE_FACTOR;
+                double travelTime = travelInfo.ptArrivalTime + egressDistance / WALK_SPEED - departureTime;
+                if (travelTime < bestTravelTime) {
+                    bestTravelTime = travelTime;
+                    bestWalkDistance = travelInfo.accessTime * WALK_SPEED + egressDistance;
+                }
+            }
+            skims.setPtTravelTime(origin, destination, timeBin, bestTravelTime, bestWalkDistance);
+        }
+    }
+}
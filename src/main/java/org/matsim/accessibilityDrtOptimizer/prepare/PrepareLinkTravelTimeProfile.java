@@ -0,0 +1,55 @@
+package org.matsim.accessibilityDrtOptimizer.prepare;
+
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.LinkTravelTimeProfile;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.trafficmonitoring.TravelTimeCalculator;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+
+/**
+ * Build the compact link travel time profile from the events of a prior run.
+ */
+public class PrepareLinkTravelTimeProfile implements MATSimAppCommand {
+    @CommandLine.Option(names = "--network", description = "path to network file", required = true)
+    private String networkPath;
+
+    @CommandLine.Option(names = "--events", description = "path to events file of the prior run", required = true)
+    private String eventsPath;
+
+    @CommandLine.Option(names = "--output", description = "output path to the link travel time profile", required = true)
+    private Path output;
+
+    @CommandLine.Option(names = "--time-bin-size", description = "time bin size of the profile", defaultValue = "900")
+    private int timeBinSize;
+
+    @CommandLine.Option(names = "--end-time", description = "end time of the profile", defaultValue = "108000")
+    private int endTime;
+
+    public static void main(String[] args) {
+        new PrepareLinkTravelTimeProfile().execute(args);
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        Network network = NetworkUtils.readNetwork(networkPath);
+
+        TravelTimeCalculator.Builder builder = new TravelTimeCalculator.Builder(network);
+        builder.setTimeslice(timeBinSize);
+        builder.setMaxTime(endTime);
+        TravelTimeCalculator travelTimeCalculator = builder.build();
+
+        EventsManager eventsManager = EventsUtils.createEventsManager();
+        eventsManager.addHandler(travelTimeCalculator);
+        EventsUtils.readEvents(eventsManager, eventsPath);
+
+        int numTimeBins = (int) Math.ceil((double) endTime / timeBinSize);
+        LinkTravelTimeProfile profile = LinkTravelTimeProfile.create(network, travelTimeCalculator.getLinkTravelTimes(), timeBinSize, numTimeBins);
+        profile.write(output);
+        return 0;
+    }
+}
@@ -0,0 +1,56 @@
+package org.matsim.accessibilityDrtOptimizer.prepare;
+
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTravelTimeEstimator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TransitStopProximityIndex;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.contrib.drt.run.MultiModeDrtConfigGroup;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+
+/**
+ * Train the fast alternative mode travel time estimator from the output of {@link PrepareAlternativeModeData}.
+ */
+public class TrainAlternativeModeEstimator implements MATSimAppCommand {
+    @CommandLine.Option(names = "--config", description = "path to config file (network and transit schedule)", required = true)
+    private String configPath;
+
+    @CommandLine.Option(names = "--alternative-mode-data", description = "path to alternative mode data (tab-separated or binary)", required = true)
+    private Path alternativeModeData;
+
+    @CommandLine.Option(names = "--output", description = "output path to the estimator", required = true)
+    private Path output;
+
+    @CommandLine.Option(names = "--time-bin-size", description = "time bin size of the estimator", defaultValue = "3600")
+    private int timeBinSize;
+
+    @CommandLine.Option(names = "--end-time", description = "end time of the estimator", defaultValue = "108000")
+    private int endTime;
+
+    @CommandLine.Option(names = "--confidence", description = "share of the trips within the confidence interval", defaultValue = "0.95")
+    private double confidence;
+
+    public static void main(String[] args) {
+        new TrainAlternativeModeEstimator().execute(args);
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        Config config = ConfigUtils.loadConfig(configPath, new MultiModeDrtConfigGroup());
+        config.global().setCoordinateSystem("EPSG:25832");
+        Scenario scenario = ScenarioUtils.loadScenario(config);
+
+        AlternativeModeTripDataStore tripData = AlternativeModeTripDataStore.read(alternativeModeData);
+        TransitStopProximityIndex stopIndex = new TransitStopProximityIndex(scenario.getTransitSchedule());
+        int numTimeBins = (int) Math.ceil((double) endTime / timeBinSize);
+        AlternativeModeTravelTimeEstimator estimator = AlternativeModeTravelTimeEstimator.train(tripData, scenario.getNetwork(),
+                stopIndex, timeBinSize, numTimeBins, confidence);
+        estimator.write(output);
+        return 0;
+    }
+}
@@ -7,6 +7,7 @@ import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
 import org.matsim.accessibilityDrtOptimizer.analysis.PerformanceAnalysis;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
@@ -28,7 +29,6 @@ import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.scenario.ScenarioUtils;
-import org.matsim.core.utils.collections.Tuple;
 import picocli.CommandLine;
 
 import java.io.FileWriter;
@@ -37,8 +37,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
-import static org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData.*;
-
 public class RunDynamicThresholdExperiments implements MATSimAppCommand {
     @CommandLine.Option(names = "--config", description = "path to config file", required = true)
     private String configPath;
@@ -65,8 +63,9 @@ public class RunDynamicThresholdExperiments implements MATSimAppCommand {
 
     private final Map<Integer, Double> thresholdMap = new LinkedHashMap<>();
 
-    private final Map<String, Tuple<Double, Double>> alternativeModeData = new HashMap<>();
-    // Tuple: departure time, trip length ratio (against max drt travel time)
+    private AlternativeModeTripDataStore alternativeModeTripData;
+    // trip length ratio (against max drt travel time), indexed by trip index of the alternative mode data
+    private double[] travelTimeRatios;
 
     public static void main(String[] args) {
         new RunDynamicThresholdExperiments().execute(args);
@@ -97,26 +96,21 @@ public class RunDynamicThresholdExperiments implements MATSimAppCommand {
         // Read alternative mode data
         log.info("Reading alternative mode data...");
         DrtConfigGroup tempDrtConfigGroup = DrtConfigGroup.getSingleModeDrtConfig(tempConfig);
-        try (CSVParser parser = new CSVParser(Files.newBufferedReader(alternativeDataPath),
-                CSVFormat.TDF.withFirstRecordAsHeader())) {
-            for (CSVRecord record : parser.getRecords()) {
-                String personId = record.get("id");
-                double departureTime = Double.parseDouble(record.get(DEPARTURE_TIME));
-                double alternativeTravelTime = Double.parseDouble(record.get(ACTUAL_TOTAL_TRAVEL_TIME));
-                double directTravelTime = Double.parseDouble(record.get(DIRECT_CAR_TRAVEL_TIME));
-                DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) tempDrtConfigGroup.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
-                double ratio = alternativeTravelTime / ( constraints.maxTravelTimeAlpha * directTravelTime + constraints.maxTravelTimeBeta);
-                alternativeModeData.put(personId, new Tuple<>(departureTime, ratio));
-            }
+        alternativeModeTripData = AlternativeModeTripDataStore.read(alternativeDataPath);
+        DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) tempDrtConfigGroup.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
+        travelTimeRatios = new double[alternativeModeTripData.size()];
+        for (int tripIndex = 0; tripIndex < alternativeModeTripData.size(); tripIndex++) {
+            travelTimeRatios[tripIndex] = alternativeModeTripData.actualTotalTravelTime(tripIndex) /
+                    (constraints.maxTravelTimeAlpha * alternativeModeTripData.directCarTravelTime(tripIndex) + constraints.maxTravelTimeBeta);
         }
 
-        PerformanceAnalysis overallAnalysis = new PerformanceAnalysis(tempDrtConfigGroup, alternativeDataPath.toString(), outputRootDirectory + "/overall-summary.tsv");
+        PerformanceAnalysis overallAnalysis = new PerformanceAnalysis(tempDrtConfigGroup, alternativeModeTripData, outputRootDirectory + "/overall-summary.tsv");
         overallAnalysis.writeTitle();
 
         for (int fleetSize = fleetFrom; fleetSize <= fleetMax; fleetSize += fleetInterval) {
             String fleetSizeFolder = outputRootDirectory + "/" + fleetSize + "-veh";
             PerformanceAnalysis singleCaseAnalysis = new PerformanceAnalysis
-                    (tempDrtConfigGroup, alternativeDataPath.toString(), fleetSizeFolder + "/iterations-summary.tsv");
+                    (tempDrtConfigGroup, alternativeModeTripData, fleetSizeFolder + "/iterations-summary.tsv");
             singleCaseAnalysis.writeTitle();
 
             // Start outer iterations
@@ -209,14 +203,14 @@ public class RunDynamicThresholdExperiments implements MATSimAppCommand {
 
         // Filter plans
         Population filteredPopulation = PopulationUtils.createPopulation(ConfigUtils.createConfig());
-        for (String personIdString : alternativeModeData.keySet()) {
-            double departureTime = alternativeModeData.get(personIdString).getFirst();
-            double ratio = alternativeModeData.get(personIdString).getSecond();
+        for (int tripIndex = 0; tripIndex < alternativeModeTripData.size(); tripIndex++) {
+            double departureTime = alternativeModeTripData.departureTime(tripIndex);
+            double ratio = travelTimeRatios[tripIndex];
 
             int timeBin = (int) Math.floor(departureTime / timeBinSize) * timeBinSize;
             double threshold = thresholdMap.get(timeBin);
             if (ratio > threshold) {
-                filteredPopulation.addPerson(rawPopulation.getPersons().get(Id.createPersonId(personIdString)));
+                filteredPopulation.addPerson(rawPopulation.getPersons().get(Id.createPersonId(alternativeModeTripData.id(tripIndex))));
             }
         }
 
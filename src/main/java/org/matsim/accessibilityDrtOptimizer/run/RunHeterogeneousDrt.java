@@ -8,12 +8,19 @@ import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeSkimMatrix;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
 import org.matsim.accessibilityDrtOptimizer.analysis.PerformanceAnalysis;
 import org.matsim.accessibilityDrtOptimizer.optimizer.HeteogeneousRequestValidator;
+import org.matsim.accessibilityDrtOptimizer.optimizer.OnlineThresholdController;
 import org.matsim.accessibilityDrtOptimizer.optimizer.PersonAttributeBasedConstraintSelector;
+import org.matsim.accessibilityDrtOptimizer.optimizer.ZonalThresholdMatrix;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.application.MATSimAppCommand;
+import org.matsim.contrib.common.zones.ZoneSystem;
 import org.matsim.contrib.drt.analysis.afterSimAnalysis.DrtVehicleStoppingTaskWriter;
 import org.matsim.contrib.drt.analysis.zonal.DrtModeZonalSystemModule;
 import org.matsim.contrib.drt.extension.preplanned.optimizer.WaitForStopTask;
@@ -31,16 +38,15 @@ import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.population.PopulationUtils;
-import org.matsim.core.utils.collections.Tuple;
 import picocli.CommandLine;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
-import static org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData.*;
 import static org.matsim.accessibilityDrtOptimizer.run.demand_generation.RequestTypes.*;
 
 public class RunHeterogeneousDrt implements MATSimAppCommand {
@@ -65,14 +71,28 @@ public class RunHeterogeneousDrt implements MATSimAppCommand {
     @CommandLine.Option(names = "--alternative-data", description = "path to alternative mode data", required = true)
     private Path alternativeDataPath;
 
+    @CommandLine.Option(names = "--skims", description = "path to the alternative mode skim matrix (optional). " +
+            "The zonal system of DRT must be the same as the one used for building the skims", defaultValue = "")
+    private String skimsPath;
+
+    @CommandLine.Option(names = "--online-threshold", description = "learn the time-varying threshold from the completed legs " +
+            "at the end of each simulation instead of parsing the output legs (same update rule, one update per time bin and " +
+            "simulation)", defaultValue = "false")
+    private boolean onlineThreshold;
+
+    @CommandLine.Option(names = "--zonal-threshold", description = "learn the time-varying threshold per zone of the DRT " +
+            "zonal system (by the from link of the trips)", defaultValue = "false")
+    private boolean zonalThreshold;
+
     private static final Logger log = LogManager.getLogger(RunHeterogeneousDrt.class);
 
     private final Map<Integer, Double> thresholdMap = new LinkedHashMap<>();
+    // thresholds per zone and time bin (only with --zonal-threshold), created with the zonal system of the first
+    // simulation (the zones are the same in all the simulations)
+    private ZonalThresholdMatrix zonalThresholds;
+    private ZoneSystem zoneSystem;
     private final Map<String, String> personAttributeMap = new LinkedHashMap<>();
 
-    // Tuple: departure time, trip duration ratio (with respect to max drt total travel time)
-    private final Map<String, Tuple<Double, Double>> alternativeModeData = new HashMap<>();
-
     public static void main(String[] args) {
         new RunHeterogeneousDrt().execute(args);
     }
@@ -81,6 +101,7 @@ public class RunHeterogeneousDrt implements MATSimAppCommand {
     public Integer call() throws Exception {
         // Decoding fleet sizing sequence
         Preconditions.checkArgument(fleetSizing.size() == 3);
+        Preconditions.checkArgument(!(onlineThreshold && zonalThreshold), "Online thresholds are not supported per zone");
         int fleetFrom = fleetSizing.get(0);
         int fleetMax = fleetSizing.get(1);
         int fleetInterval = fleetSizing.get(2);
@@ -102,26 +123,17 @@ public class RunHeterogeneousDrt implements MATSimAppCommand {
         // Read alternative mode data
         log.info("Reading alternative mode data...");
         DrtConfigGroup drtConfigGroupForGettingData = DrtConfigGroup.getSingleModeDrtConfig(configForGettingData);
-        try (CSVParser parser = new CSVParser(Files.newBufferedReader(alternativeDataPath),
-                CSVFormat.TDF.withFirstRecordAsHeader())) {
-            for (CSVRecord record : parser.getRecords()) {
-                String personId = record.get("id");
-                double departureTime = Double.parseDouble(record.get(DEPARTURE_TIME));
-                double alternativeTravelTime = Double.parseDouble(record.get(ACTUAL_TOTAL_TRAVEL_TIME));
-                double directTravelTime = Double.parseDouble(record.get(DIRECT_CAR_TRAVEL_TIME));
-                DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtConfigGroupForGettingData.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
-                double ratio = alternativeTravelTime / (constraints.maxTravelTimeAlpha * directTravelTime + constraints.maxTravelTimeBeta);
-                alternativeModeData.put(personId, new Tuple<>(departureTime, ratio));
-            }
-        }
+        AlternativeModeTripDataStore alternativeModeTripDataStore = AlternativeModeTripDataStore.read(alternativeDataPath);
+        // the trip duration ratios (with respect to max drt total travel time) are resolved by the validator
+        DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtConfigGroupForGettingData.addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
 
-        PerformanceAnalysis overallAnalysis = new PerformanceAnalysis(drtConfigGroupForGettingData, alternativeDataPath.toString(), outputRootDirectory + "/overall-summary.tsv");
+        PerformanceAnalysis overallAnalysis = new PerformanceAnalysis(drtConfigGroupForGettingData, alternativeModeTripDataStore, outputRootDirectory + "/overall-summary.tsv");
         overallAnalysis.writeTitle();
 
         for (int fleetSize = fleetFrom; fleetSize <= fleetMax; fleetSize += fleetInterval) {
             String fleetSizeFolder = outputRootDirectory + "/" + fleetSize + "-veh";
             PerformanceAnalysis singleCaseAnalysis = new PerformanceAnalysis
-                    (drtConfigGroupForGettingData, alternativeDataPath.toString(), fleetSizeFolder + "/iterations-summary.tsv");
+                    (drtConfigGroupForGettingData, alternativeModeTripDataStore, fleetSizeFolder + "/iterations-summary.tsv");
             singleCaseAnalysis.writeTitle();
 
             // Start outer iterations
@@ -141,25 +153,41 @@ public class RunHeterogeneousDrt implements MATSimAppCommand {
                 Controler controler = DrtControlerCreator.createControler(config, false);
 
                 controler.addOverridingModule(new DvrpModule(new DrtModeZonalSystemModule(drtConfigGroup)));
+                // Thresholds learned during the simulation (premium trips are not considered, same as in the outer loop)
+                OnlineThresholdController thresholdController = onlineThreshold ?
+                        new OnlineThresholdController(drtConfigGroup.mode, thresholdMap, timeBinSize, learningRate,
+                                getPremiumPersons()) : null;
                 // Adding the New Request Validator
                 controler.addOverridingQSimModule(new AbstractDvrpModeQSimModule(drtConfigGroup.mode) {
                     @Override
                     protected void configureQSim() {
                         bindModal(PassengerRequestValidator.class).toProvider(
                                 modalProvider(getter -> new HeteogeneousRequestValidator(getter.get(Population.class),
-                                        thresholdMap, timeBinSize, alternativeModeData))).asEagerSingleton();
+                                        thresholdMap, timeBinSize, alternativeModeTripDataStore, constraints.maxTravelTimeAlpha,
+                                        constraints.maxTravelTimeBeta, new HeteogeneousRequestValidator.OptionalComponents()
+                                        .setSkims(skimsPath.equals("") ? null : readSkims(getter.getModal(Network.class), getter.getModal(ZoneSystem.class)))
+                                        .setThresholdController(thresholdController)
+                                        .setZonalThresholds(zonalThreshold ? getZonalThresholds(getter.getModal(Network.class),
+                                                getter.getModal(ZoneSystem.class)) : null))))
+                                .asEagerSingleton();
+                        if (thresholdController != null) {
+                            addMobsimScopeEventHandlerBinding().toInstance(thresholdController);
+                        }
                     }
                 });
                 // Adding person attribute-based constraint selector
                 controler.addOverridingModule(new AbstractDvrpModeModule(drtConfigGroup.mode) {
                     @Override
                     public void install() {
-                        bindModal(ConstraintSetChooser.class).toProvider(
-                                () -> new PersonAttributeBasedConstraintSelector(drtConfigGroup)).in(Singleton.class);
+                        bindModal(ConstraintSetChooser.class).toProvider(modalProvider(
+                                getter -> new PersonAttributeBasedConstraintSelector(drtConfigGroup, getter.get(Population.class)))).in(Singleton.class);
                     }
                 });
 
                 controler.run();
+                if (thresholdController != null) {
+                    thresholdMap.putAll(thresholdController.getThresholds());
+                }
 
                 // Plot DRT stopping tasks
                 new DrtVehicleStoppingTaskWriter(Path.of(outputFolder)).
@@ -172,7 +200,12 @@ public class RunHeterogeneousDrt implements MATSimAppCommand {
                 // Update tem population
                 if (i != outerIterations) {
                     // Analyze
-                    adjustTimeVaryingThreshold(outputFolder);
+                    if (thresholdController == null) {
+                        adjustTimeVaryingThreshold(outputFolder);
+                    } else {
+                        // Already updated at the end of the simulation
+                        writeThresholdMap(outputFolder);
+                    }
                 } else {
                     // Write overall analysis
                     overallAnalysis.writeDataEntry(outputFolder, fleetSize);
@@ -182,10 +215,33 @@ public class RunHeterogeneousDrt implements MATSimAppCommand {
         return 0;
     }
 
+    private AlternativeModeSkimMatrix readSkims(Network network, ZoneSystem zoneSystem) {
+        try {
+            return AlternativeModeSkimMatrix.read(Path.of(skimsPath), network, zoneSystem);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized ZonalThresholdMatrix getZonalThresholds(Network network, ZoneSystem zoneSystem) {
+        if (zonalThresholds == null) {
+            zonalThresholds = new ZonalThresholdMatrix(network, zoneSystem, thresholdMap, timeBinSize);
+            this.zoneSystem = zoneSystem;
+        }
+        return zonalThresholds;
+    }
+
     private void adjustTimeVaryingThreshold(String outputFolder) throws IOException {
         log.info("Processing plans...");
         // Initialization
         Map<Integer, List<Double>> tripLengthRatiosPerTimeBinMap = new HashMap<>();
+        // indexed by the zone index of the zonal thresholds, then by the time bin
+        double[][] zonalRatioSums = null;
+        int[][] zonalRatioCounts = null;
+        if (zonalThresholds != null) {
+            zonalRatioSums = new double[zonalThresholds.getNumZoneIndices()][zonalThresholds.getNumTimeBins()];
+            zonalRatioCounts = new int[zonalThresholds.getNumZoneIndices()][zonalThresholds.getNumTimeBins()];
+        }
 
         // Read output trips
         try (CSVParser parser = new CSVParser(Files.newBufferedReader(Path.of(outputFolder + "/output_drt_legs_drt.csv")),
@@ -207,7 +263,32 @@ public class RunHeterogeneousDrt implements MATSimAppCommand {
 
                 int timeBin = (int) Math.floor(departureTime / timeBinSize) * timeBinSize;
                 tripLengthRatiosPerTimeBinMap.computeIfAbsent(timeBin, t -> new ArrayList<>()).add(ratio);
+
+                if (zonalThresholds != null) {
+                    int zoneIndex = zonalThresholds.getZoneIndex(Id.createLinkId(record.get("fromLinkId")));
+                    int zonalTimeBin = timeBin / timeBinSize;
+                    if (zonalTimeBin < zonalThresholds.getNumTimeBins()) {
+                        zonalRatioSums[zoneIndex][zonalTimeBin] += ratio;
+                        zonalRatioCounts[zoneIndex][zonalTimeBin]++;
+                    }
+                }
+            }
+        }
+
+        // Update the zonal thresholds (same rule as for the threshold map, per zone)
+        if (zonalThresholds != null) {
+            for (int zoneIndex = 0; zoneIndex < zonalRatioSums.length; zoneIndex++) {
+                for (int timeBin = 0; timeBin < zonalRatioSums[zoneIndex].length; timeBin++) {
+                    if (zonalRatioCounts[zoneIndex][timeBin] == 0) {
+                        continue;
+                    }
+                    double averageTripLengthRatio = zonalRatioSums[zoneIndex][timeBin] / zonalRatioCounts[zoneIndex][timeBin];
+                    double previousValue = zonalThresholds.getThreshold(zoneIndex, timeBin);
+                    zonalThresholds.setThreshold(zoneIndex, timeBin,
+                            Math.min(1.0, learningRate * averageTripLengthRatio + (1 - learningRate) * previousValue));
+                }
             }
+            zonalThresholds.write(Path.of(outputFolder + "/zonal-time-varying-threshold-map.tsv"), zoneSystem);
         }
 
         // Update the threshold map
@@ -220,6 +301,20 @@ public class RunHeterogeneousDrt implements MATSimAppCommand {
             thresholdMap.put(timeBin, updatedValue);
         }
 
+        writeThresholdMap(outputFolder);
+    }
+
+    private Set<Id<Person>> getPremiumPersons() {
+        Set<Id<Person>> premiumPersons = new HashSet<>();
+        personAttributeMap.forEach((personId, personAttribute) -> {
+            if (personAttribute.equals(PREMIUM)) {
+                premiumPersons.add(Id.createPersonId(personId));
+            }
+        });
+        return premiumPersons;
+    }
+
+    private void writeThresholdMap(String outputFolder) throws IOException {
         // Write down the current threshold map
         CSVPrinter printer = new CSVPrinter(new FileWriter(outputFolder + "/time-varying-threshold-map.tsv"), CSVFormat.TDF);
         printer.printRecord("time", "threshold");
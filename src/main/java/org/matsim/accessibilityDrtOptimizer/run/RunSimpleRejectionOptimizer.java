@@ -33,6 +33,59 @@ public class RunSimpleRejectionOptimizer implements MATSimAppCommand {
             "this ratio of the maximum travel time of this DRT request", defaultValue = "0.8")
     private double threshold;
 
+    @CommandLine.Option(names = "--skims", description = "path to the alternative mode skim matrix (optional). " +
+            "The zonal system of DRT must be the same as the one used for building the skims", defaultValue = "")
+    private String skims;
+
+    @CommandLine.Option(names = "--accessibility-threads", description = "number of threads for evaluating the " +
+            "alternative modes of the requests submitted within one sim step", defaultValue = "1")
+    private int accessibilityThreads;
+
+    @CommandLine.Option(names = "--profiles", description = "path to the departure time profiles of the alternative modes " +
+            "(optional, see PrepareAlternativeModeData --profile-output). Requests are looked up by person id", defaultValue = "")
+    private String profiles;
+
+    @CommandLine.Option(names = "--estimator", description = "path to the trained alternative mode travel time estimator " +
+            "(optional, see TrainAlternativeModeEstimator). Requests close to the threshold are still calculated exactly", defaultValue = "")
+    private String estimator;
+
+    @CommandLine.Option(names = "--dirty-schedule-timing-updates", description = "update the schedule timings only for the " +
+            "vehicles that may be outdated (dirty set) instead of the whole fleet", defaultValue = "false")
+    private boolean dirtyScheduleTimingUpdates;
+
+    @CommandLine.Option(names = "--verify-schedule-timings", description = "cross-check the dirty-set-based schedule timing " +
+            "updates of the optimizer against a full sweep over the fleet (slow, for debugging)", defaultValue = "false")
+    private boolean verifyScheduleTimings;
+
+    @CommandLine.Option(names = "--timing-update-threads", description = "number of threads for the schedule timing " +
+            "updates of the DRT fleet", defaultValue = "1")
+    private int timingUpdateThreads;
+
+    @CommandLine.Option(names = "--min-parallel-timing-updates", description = "below this number of vehicles to update, " +
+            "the schedule timings are updated serially", defaultValue = "200")
+    private int minParallelTimingUpdates;
+
+    @CommandLine.Option(names = "--supply-demand-window", description = "time window (in seconds) of the decayed supply and " +
+            "demand estimate driving a continuous time varying threshold (0: on/off model by the idle ratio)", defaultValue = "0")
+    private double supplyDemandWindow;
+
+    @CommandLine.Option(names = "--insertion-pre-screen", description = "skip the insertion search for requests that no " +
+            "vehicle can reach before their latest start time (lower bound: beeline at max free speed). Requires hard max wait " +
+            "and travel time constraints (rejectRequestIfMaxWaitOrTravelTimeViolated)", defaultValue = "false")
+    private boolean insertionPreScreen;
+
+    @CommandLine.Option(names = "--alternative-mode-lower-bound", description = "answer requests with a clearly poor " +
+            "alternative mode by a lower bound of its travel time (walk and beeline at the max transit speed) without PT routing. " +
+            "Requires teleported walk and no intermodal access and egress", defaultValue = "false")
+    private boolean alternativeModeLowerBound;
+
+    @CommandLine.Option(names = "--cache-size", description = "max number of cached alternative mode results per " +
+            "accessibility thread (0: no cache)", defaultValue = "0")
+    private int cacheSize;
+
+    @CommandLine.Option(names = "--cache-time-bin", description = "departure time bin (in seconds) for the alternative mode cache", defaultValue = "60")
+    private int cacheTimeBin;
+
     public static void main(String[] args) {
         new RunSimpleRejectionOptimizer().execute(args);
     }
@@ -54,7 +107,21 @@ public class RunSimpleRejectionOptimizer implements MATSimAppCommand {
         for (DrtConfigGroup drtCfg : multiModeDrtConfig.getModalElements()) {
             controler.addOverridingModule(new DvrpModule(new DrtModeZonalSystemModule(drtCfg)));
 //            controler.addOverridingModule(new LinearStopDurationModule(drtCfg));
-            controler.addOverridingQSimModule(new AccessibilityModule(drtCfg, threshold, timeVarying));
+            AccessibilityModule accessibilityModule = new AccessibilityModule(drtCfg, threshold, timeVarying, new AccessibilityModule.Options()
+                    .setSkimsPath(skims.equals("") ? null : Path.of(skims))
+                    .setAccessibilityThreads(accessibilityThreads)
+                    .setProfilesPath(profiles.equals("") ? null : Path.of(profiles))
+                    .setEstimatorPath(estimator.equals("") ? null : Path.of(estimator))
+                    .setDirtyScheduleTimingUpdates(dirtyScheduleTimingUpdates)
+                    .setVerifyScheduleTimings(verifyScheduleTimings)
+                    .setTimingUpdateThreads(timingUpdateThreads)
+                    .setMinParallelTimingUpdates(minParallelTimingUpdates)
+                    .setSupplyDemandWindow(supplyDemandWindow)
+                    .setInsertionPreScreen(insertionPreScreen)
+                    .setAlternativeModeLowerBound(alternativeModeLowerBound)
+                    .setAlternativeModeCache(cacheSize, cacheTimeBin));
+            controler.addOverridingModule(accessibilityModule.createDataModule());
+            controler.addOverridingQSimModule(accessibilityModule);
         }
         controler.run();
 
@@ -1,9 +1,27 @@
 package org.matsim.accessibilityDrtOptimizer.run.modules;
 
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import com.google.common.base.Preconditions;
+import com.google.inject.Singleton;
 import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeLowerBound;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeSkimMatrix;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTravelTimeEstimator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.CachedAlternativeModeCalculator;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TransitStopProximityIndex;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.TravelTimeProfileStore;
 import org.matsim.accessibilityDrtOptimizer.optimizer.DefaultDrtOptimizerWithRejection;
+import org.matsim.accessibilityDrtOptimizer.optimizer.DirtyScheduleTimingUpdater;
+import org.matsim.accessibilityDrtOptimizer.optimizer.FleetStateIndex;
+import org.matsim.accessibilityDrtOptimizer.optimizer.InsertionFeasibilityPreScreen;
+import org.matsim.accessibilityDrtOptimizer.optimizer.ParallelScheduleTimingUpdater;
+import org.matsim.accessibilityDrtOptimizer.optimizer.SupplyDemandEstimator;
 import org.matsim.accessibilityDrtOptimizer.optimizer.TimeVaryingRejectionThreshold;
+import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.common.zones.ZoneSystem;
 import org.matsim.contrib.drt.optimizer.DrtOptimizer;
 import org.matsim.contrib.drt.optimizer.DrtRequestInsertionRetryQueue;
 import org.matsim.contrib.drt.optimizer.depot.DepotFinder;
@@ -13,23 +31,170 @@ import org.matsim.contrib.drt.run.DrtConfigGroup;
 import org.matsim.contrib.drt.scheduler.DrtScheduleInquiry;
 import org.matsim.contrib.drt.scheduler.EmptyVehicleRelocator;
 import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.run.AbstractDvrpModeModule;
 import org.matsim.contrib.dvrp.run.AbstractDvrpModeQSimModule;
+import org.matsim.contrib.dvrp.run.DvrpMode;
+import org.matsim.contrib.dvrp.run.ModalProviders;
 import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
 import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
 import org.matsim.core.mobsim.framework.MobsimTimer;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * QSim module of the rejection optimizer. The data that does not change between the iterations (raptor data, skims,
+ * profiles, estimator and the alternative mode calculators with their caches) is bound by the controller-scoped
+ * {@link #createDataModule()}, which must be added to the controler as well.
+ */
 public class AccessibilityModule extends AbstractDvrpModeQSimModule {
 
     private final DrtConfigGroup drtConfigGroup;
     private final double threshold;
     private final boolean timeVarying;
+    private final Options options;
+
+    /**
+     * Optional features of the module. By default, the alternative modes are calculated exactly by one calculator and
+     * the schedule timings of the whole fleet are updated serially.
+     */
+    public static class Options {
+        // optional (may be null): path to the zone-to-zone alternative mode skims
+        private Path skimsPath;
+        // number of workers evaluating the alternative modes of the requests submitted within one sim step
+        private int accessibilityThreads = 1;
+        // optional (may be null): path to the departure time profiles of the alternative modes (by person id)
+        private Path profilesPath;
+        // optional (may be null): path to the trained alternative mode travel time estimator
+        private Path estimatorPath;
+        // update the schedule timings only for the vehicles in a dirty set, instead of a full sweep over the fleet
+        private boolean dirtyScheduleTimingUpdates = false;
+        // cross-check the dirty-set-based schedule timing updates against a full sweep over the fleet
+        private boolean verifyScheduleTimings = false;
+        // number of threads for the schedule timing updates (1: serial)
+        private int timingUpdateThreads = 1;
+        // below this number of vehicles to update, the schedule timings are updated serially
+        private int minParallelTimingUpdates = 0;
+        // time window of the supply/demand estimator of the time varying threshold (0: on/off model by the idle ratio)
+        private double supplyDemandWindow = 0;
+        // lower-bound pre-screen of the requests before the insertion search
+        private boolean insertionPreScreen = false;
+        // lower-bound pre-check of the threshold-bounded alternative mode query
+        private boolean alternativeModeLowerBound = false;
+        // max number of cached alternative mode results per calculator (0: no cache)
+        private int alternativeModeCacheSize = 0;
+        // departure time bin (in seconds) of the alternative mode cache
+        private int alternativeModeCacheTimeBin = 60;
+
+        public Options setSkimsPath(Path skimsPath) {
+            this.skimsPath = skimsPath;
+            return this;
+        }
+
+        public Options setAccessibilityThreads(int accessibilityThreads) {
+            this.accessibilityThreads = accessibilityThreads;
+            return this;
+        }
+
+        public Options setProfilesPath(Path profilesPath) {
+            this.profilesPath = profilesPath;
+            return this;
+        }
+
+        public Options setEstimatorPath(Path estimatorPath) {
+            this.estimatorPath = estimatorPath;
+            return this;
+        }
+
+        public Options setDirtyScheduleTimingUpdates(boolean dirtyScheduleTimingUpdates) {
+            this.dirtyScheduleTimingUpdates = dirtyScheduleTimingUpdates;
+            return this;
+        }
+
+        public Options setVerifyScheduleTimings(boolean verifyScheduleTimings) {
+            this.verifyScheduleTimings = verifyScheduleTimings;
+            return this;
+        }
+
+        public Options setTimingUpdateThreads(int timingUpdateThreads) {
+            this.timingUpdateThreads = timingUpdateThreads;
+            return this;
+        }
+
+        public Options setMinParallelTimingUpdates(int minParallelTimingUpdates) {
+            this.minParallelTimingUpdates = minParallelTimingUpdates;
+            return this;
+        }
+
+        public Options setSupplyDemandWindow(double supplyDemandWindow) {
+            this.supplyDemandWindow = supplyDemandWindow;
+            return this;
+        }
+
+        public Options setInsertionPreScreen(boolean insertionPreScreen) {
+            this.insertionPreScreen = insertionPreScreen;
+            return this;
+        }
+
+        public Options setAlternativeModeLowerBound(boolean alternativeModeLowerBound) {
+            this.alternativeModeLowerBound = alternativeModeLowerBound;
+            return this;
+        }
+
+        public Options setAlternativeModeCache(int cacheSize, int cacheTimeBin) {
+            this.alternativeModeCacheSize = cacheSize;
+            this.alternativeModeCacheTimeBin = cacheTimeBin;
+            return this;
+        }
+    }
 
     public AccessibilityModule(DrtConfigGroup drtConfigGroup, double threshold, boolean timeVarying) {
+        this(drtConfigGroup, threshold, timeVarying, new Options());
+    }
+
+    public AccessibilityModule(DrtConfigGroup drtConfigGroup, double threshold, boolean timeVarying, Options options) {
         super(drtConfigGroup.mode);
+        Preconditions.checkArgument(options.accessibilityThreads >= 1, "Number of accessibility threads must be at least 1");
+        Preconditions.checkArgument(options.timingUpdateThreads >= 1, "Number of timing update threads must be at least 1");
+        Preconditions.checkArgument(options.alternativeModeCacheSize >= 0, "Cache size must not be negative");
+        Preconditions.checkArgument(!options.verifyScheduleTimings || options.dirtyScheduleTimingUpdates,
+                "Verifying the schedule timings requires the dirty-set-based schedule timing updates");
+        // with soft constraints, the insertion search also inserts late pickups (with a penalty)
+        Preconditions.checkArgument(!options.insertionPreScreen || InsertionFeasibilityPreScreen.hasHardConstraints(drtConfigGroup),
+                "The insertion pre-screen requires hard max wait and travel time constraints (rejectRequestIfMaxWaitOrTravelTimeViolated)");
         this.drtConfigGroup = drtConfigGroup;
         this.threshold = threshold;
         this.timeVarying = timeVarying;
+        this.options = options;
+    }
+
+    /**
+     * Created once per controller and shared by the QSims of all the iterations. The calculators are only used by one
+     * simulation at a time (one calculator per worker), so that their caches are kept across the iterations: the car
+     * travel times are free speed and the transit schedule does not change.
+     */
+    record AccessibilityData(List<AlternativeModeCalculator> calculators, AlternativeModeSkimMatrix skims,
+                             TravelTimeProfileStore travelTimeProfiles, AlternativeModeTravelTimeEstimator estimator) {
+    }
+
+    public AbstractDvrpModeModule createDataModule() {
+        return new AbstractDvrpModeModule(drtConfigGroup.mode) {
+            @Override
+            public void install() {
+                bindModal(AccessibilityData.class).toProvider(modalProvider(
+                        getter -> createAccessibilityData(getter.get(Scenario.class), getter.getModal(Network.class),
+                                options.skimsPath == null ? null : getter.getModal(ZoneSystem.class)))).in(Singleton.class);
+            }
+        };
     }
 
     @Override
@@ -39,13 +204,109 @@ public class AccessibilityModule extends AbstractDvrpModeQSimModule {
                         getter.getModal(DepotFinder.class), getter.getModal(RebalancingStrategy.class),
                         getter.getModal(DrtScheduleInquiry.class), getter.getModal(ScheduleTimingUpdater.class),
                         getter.getModal(EmptyVehicleRelocator.class), getter.getModal(UnplannedRequestInserter.class),
-                        getter.getModal(DrtRequestInsertionRetryQueue.class), getter.getModal(AlternativeModeCalculator.class),
-                        getter.getModal(Network.class), getter.getModal(TravelTime.class), threshold, getter.get(EventsManager.class),
-                        getter.getModal(TimeVaryingRejectionThreshold.class))));
+                        getter.getModal(DrtRequestInsertionRetryQueue.class),
+                        getter.getModal(AccessibilityData.class).calculators(),
+                        threshold, getter.get(EventsManager.class),
+                        getter.getModal(TimeVaryingRejectionThreshold.class),
+                        createOptionalComponents(getter))));
 
         bindModal(TimeVaryingRejectionThreshold.class).toProvider(modalProvider(
                 getter -> new TimeVaryingRejectionThreshold(getter.getModal(Fleet.class),
-                        getter.getModal(DrtScheduleInquiry.class), timeVarying)
+                        getter.getModal(DrtScheduleInquiry.class), timeVarying,
+                        timeVarying ? getter.getModal(FleetStateIndex.class) : null,
+                        isSupplyDemandEstimated() ? new SupplyDemandEstimator(getter.get(MobsimTimer.class), getter.getModal(FleetStateIndex.class),
+                                getter.getModal(ZoneSystem.class), options.supplyDemandWindow) : null,
+                        TimeVaryingRejectionThreshold.DEFAULT_LOWER_LOAD, TimeVaryingRejectionThreshold.DEFAULT_UPPER_LOAD)
         ));
+
+        if (timeVarying) {
+            // shared by the optimizer (which keeps it up to date) and the time varying threshold. The idle counts per
+            // zone (zonal system) are only needed by the supply/demand estimator
+            bindModal(FleetStateIndex.class).toProvider(modalProvider(
+                    getter -> new FleetStateIndex(getter.getModal(Fleet.class), getter.getModal(DrtScheduleInquiry.class),
+                            isSupplyDemandEstimated() ? getter.getModal(ZoneSystem.class) : null))).in(Singleton.class);
+        }
+    }
+
+    private boolean isSupplyDemandEstimated() {
+        // the estimate only drives the time varying threshold
+        return timeVarying && options.supplyDemandWindow > 0;
+    }
+
+    private DefaultDrtOptimizerWithRejection.OptionalComponents createOptionalComponents(ModalProviders.InstanceGetter<DvrpMode> getter) {
+        Fleet fleet = getter.getModal(Fleet.class);
+        ScheduleTimingUpdater scheduleTimingUpdater = getter.getModal(ScheduleTimingUpdater.class);
+        ParallelScheduleTimingUpdater parallelUpdater = options.timingUpdateThreads == 1 ? null :
+                new ParallelScheduleTimingUpdater(scheduleTimingUpdater, options.timingUpdateThreads, options.minParallelTimingUpdates);
+        AccessibilityData accessibilityData = getter.getModal(AccessibilityData.class);
+        return new DefaultDrtOptimizerWithRejection.OptionalComponents()
+                .setSkims(accessibilityData.skims())
+                .setTravelTimeProfiles(accessibilityData.travelTimeProfiles())
+                .setEstimator(accessibilityData.estimator())
+                .setFleetStateIndex(timeVarying ? getter.getModal(FleetStateIndex.class) : null)
+                .setDirtyScheduleTimingUpdater(options.dirtyScheduleTimingUpdates ?
+                        new DirtyScheduleTimingUpdater(fleet, scheduleTimingUpdater, options.verifyScheduleTimings, parallelUpdater) : null)
+                .setParallelScheduleTimingUpdater(options.dirtyScheduleTimingUpdates ? null : parallelUpdater)
+                .setFeasibilityPreScreen(options.insertionPreScreen ? new InsertionFeasibilityPreScreen(getter.getModal(Network.class), fleet,
+                        InsertionFeasibilityPreScreen.DEFAULT_CELL_SIZE) : null);
+    }
+
+    private AccessibilityData createAccessibilityData(Scenario scenario, Network network, ZoneSystem zoneSystem) {
+        // shared by the lower bound and the estimator (read-only)
+        TransitStopProximityIndex stopIndex = options.alternativeModeLowerBound || options.estimatorPath != null ?
+                new TransitStopProximityIndex(scenario.getTransitSchedule()) : null;
+        return new AccessibilityData(createAccessibilityCalculators(scenario, network, stopIndex),
+                options.skimsPath == null ? null : readSkims(network, zoneSystem),
+                options.profilesPath == null ? null : readProfiles(),
+                options.estimatorPath == null ? null : readEstimator(network, stopIndex));
+    }
+
+    /**
+     * One calculator per worker. The raptor data and the routing graph are shared by the calculators. With a cache,
+     * each calculator has its own cache.
+     */
+    private List<AlternativeModeCalculator> createAccessibilityCalculators(Scenario scenario, Network network,
+                                                                          TransitStopProximityIndex stopIndex) {
+        Config config = scenario.getConfig();
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), scenario.getTransitVehicles(),
+                RaptorUtils.createStaticConfig(config), scenario.getNetwork(), null);
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        TravelDisutility travelDisutility = new TimeAsTravelDisutility(travelTime);
+        SpeedyALTFactory routerFactory = new SpeedyALTFactory();
+        // lower bound of the threshold-bounded query (shared, read-only)
+        AlternativeModeLowerBound lowerBound = options.alternativeModeLowerBound ? new AlternativeModeLowerBound(stopIndex, config) : null;
+        List<AlternativeModeCalculator> calculators = new ArrayList<>();
+        for (int i = 0; i < options.accessibilityThreads; i++) {
+            SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
+            calculators.add(options.alternativeModeCacheSize > 0 ?
+                    new CachedAlternativeModeCalculator(raptor, network, travelTime, travelDisutility, routerFactory, null, lowerBound,
+                            options.alternativeModeCacheSize, options.alternativeModeCacheTimeBin, 0) :
+                    new AlternativeModeCalculator(raptor, network, travelTime, travelDisutility, routerFactory, null, lowerBound));
+        }
+        return calculators;
+    }
+
+    private AlternativeModeSkimMatrix readSkims(Network network, ZoneSystem zoneSystem) {
+        try {
+            return AlternativeModeSkimMatrix.read(options.skimsPath, network, zoneSystem);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private TravelTimeProfileStore readProfiles() {
+        try {
+            return TravelTimeProfileStore.read(options.profilesPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private AlternativeModeTravelTimeEstimator readEstimator(Network network, TransitStopProximityIndex stopIndex) {
+        try {
+            return AlternativeModeTravelTimeEstimator.read(options.estimatorPath, network, stopIndex);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
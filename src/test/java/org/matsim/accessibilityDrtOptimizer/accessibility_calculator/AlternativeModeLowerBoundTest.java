@@ -0,0 +1,73 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AlternativeModeLowerBoundTest {
+    private static final double[] DEPARTURE_TIMES = {7 * 3600, 8.5 * 3600, 12 * 3600};
+
+    @Test
+    public void testLowerBoundDoesNotExceedRaptorTravelTime() {
+        Config config = ConfigUtils.loadConfig(IOUtils.extendUrl(ExamplesUtils.getTestScenarioURL("pt-tutorial"), "0.config.xml"));
+        config.transit().setUseTransit(true);
+        Scenario scenario = ScenarioUtils.loadScenario(config);
+        Network network = scenario.getNetwork();
+
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), scenario.getTransitVehicles(),
+                RaptorUtils.createStaticConfig(config), network, null);
+        SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        AlternativeModeLowerBound lowerBound = new AlternativeModeLowerBound(new TransitStopProximityIndex(scenario.getTransitSchedule()), config);
+        AlternativeModeCalculator exactCalculator = new AlternativeModeCalculator(raptor, network, travelTime,
+                new TimeAsTravelDisutility(travelTime), new SpeedyALTFactory());
+        AlternativeModeCalculator boundedCalculator = new AlternativeModeCalculator(raptor, network, travelTime,
+                new TimeAsTravelDisutility(travelTime), new SpeedyALTFactory(), null, lowerBound);
+
+        List<Link> links = new ArrayList<>(network.getLinks().values());
+        int step = Math.max(1, links.size() / 20);
+        for (int i = 0; i < links.size(); i += step) {
+            for (int j = 0; j < links.size(); j += step) {
+                Link fromLink = links.get(i);
+                Link toLink = links.get(j);
+                if (fromLink == toLink) {
+                    continue;
+                }
+                for (double departureTime : DEPARTURE_TIMES) {
+                    double exactTravelTime = exactCalculator.calculateBoundedTravelTime(fromLink, toLink, departureTime,
+                            Double.POSITIVE_INFINITY, true).travelTime();
+
+                    // just above the exact travel time, the lower bound must not answer the query
+                    BoundedTravelTime justAbove = boundedCalculator.calculateBoundedTravelTime(fromLink, toLink, departureTime,
+                            exactTravelTime + 1e-6, false);
+                    assertThat(justAbove.outcome()).isEqualTo(BoundedTravelTime.Outcome.BELOW);
+                    assertThat(justAbove.travelTime()).isEqualTo(exactTravelTime);
+
+                    // well below the exact travel time, the query is answered by the lower bound or by the raptor
+                    BoundedTravelTime wellBelow = boundedCalculator.calculateBoundedTravelTime(fromLink, toLink, departureTime,
+                            0.5 * exactTravelTime, false);
+                    assertThat(wellBelow.outcome()).isEqualTo(BoundedTravelTime.Outcome.ABOVE);
+                    assertThat(wellBelow.travelTime()).isLessThanOrEqualTo(exactTravelTime);
+                }
+            }
+        }
+    }
+}
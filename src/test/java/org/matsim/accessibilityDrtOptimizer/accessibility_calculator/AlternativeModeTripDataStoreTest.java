@@ -0,0 +1,70 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.TransportMode;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AlternativeModeTripDataStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final List<AlternativeModeTripData> TRIP_DATA = List.of(
+            new AlternativeModeTripData("person_1_0", 25200, new Coord(100.5, 200.25), new Coord(3000, -400),
+                    600, 1450.5, TransportMode.pt, 730.25),
+            new AlternativeModeTripData("persön_2_1", 30600.5, new Coord(-10, 0), new Coord(50, 70),
+                    120, 95, TransportMode.walk, 112.5),
+            new AlternativeModeTripData("person_3_0", 0, new Coord(0, 0), new Coord(1, 1),
+                    0, Double.POSITIVE_INFINITY, TransportMode.walk, 0));
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        Path path = folder.newFile("alternative_mode_data.bin").toPath();
+        AlternativeModeTripDataStore.write(TRIP_DATA, path);
+        assertStoreContainsTripData(AlternativeModeTripDataStore.read(path));
+    }
+
+    @Test
+    public void testTsvRoundTrip() throws IOException {
+        Path path = folder.newFile("alternative_mode_data.tsv").toPath();
+        try (CSVPrinter printer = new CSVPrinter(new FileWriter(path.toString()), CSVFormat.TDF)) {
+            printer.printRecord(AlternativeModeTripData.ALTERNATIVE_TRIP_DATA_TITLE_ROW);
+            for (AlternativeModeTripData tripData : TRIP_DATA) {
+                tripData.printData(printer);
+            }
+        }
+        assertStoreContainsTripData(AlternativeModeTripDataStore.read(path));
+    }
+
+    @Test
+    public void testEmptyStore() throws IOException {
+        Path path = folder.newFile("empty.bin").toPath();
+        AlternativeModeTripDataStore.write(List.of(), path);
+        AlternativeModeTripDataStore store = AlternativeModeTripDataStore.read(path);
+        assertThat(store.size()).isZero();
+        assertThat(store.indexOf("person_1_0")).isEqualTo(-1);
+    }
+
+    private static void assertStoreContainsTripData(AlternativeModeTripDataStore store) {
+        assertThat(store.size()).isEqualTo(TRIP_DATA.size());
+        List<AlternativeModeTripData> stored = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            stored.add(store.get(i));
+            assertThat(store.indexOf(TRIP_DATA.get(i).id())).isEqualTo(i);
+            assertThat(store.modeCode(i)).isEqualTo(AlternativeModeTripDataStore.modeToCode(TRIP_DATA.get(i).mode()));
+        }
+        assertThat(stored).containsExactlyElementsOf(TRIP_DATA);
+        assertThat(store.indexOf("unknown")).isEqualTo(-1);
+    }
+}
@@ -0,0 +1,67 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AlternativeModeTripDeduplicationTest {
+    @Test
+    public void testDuplicatesAreCalculatedOnce() {
+        Network network = NetworkUtils.createNetwork();
+        Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("dedup_a"), new Coord(0, 0));
+        Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("dedup_b"), new Coord(1000, 0));
+        Link linkAB = NetworkUtils.createAndAddLink(network, Id.createLinkId("dedup_ab"), nodeA, nodeB, 1000, 10, 1000, 1);
+        Link linkBA = NetworkUtils.createAndAddLink(network, Id.createLinkId("dedup_ba"), nodeB, nodeA, 1000, 10, 1000, 1);
+
+        List<AlternativeModeTripQuery> queries = List.of(
+                new AlternativeModeTripQuery("p1_0", linkAB, linkBA, 3600),
+                // same links and departure minute as p1_0
+                new AlternativeModeTripQuery("p2_0", linkAB, linkBA, 3659),
+                // next departure minute
+                new AlternativeModeTripQuery("p3_0", linkAB, linkBA, 3660),
+                // opposite direction
+                new AlternativeModeTripQuery("p4_0", linkBA, linkAB, 3600),
+                new AlternativeModeTripQuery("p5_0", linkAB, linkBA, 3620));
+
+        List<List<AlternativeModeTripQuery>> calls = new ArrayList<>();
+        List<AlternativeModeTripData> results = AlternativeModeTripDeduplication.calculateAlternativeTripData(queries, 60,
+                uniqueQueries -> {
+                    calls.add(uniqueQueries);
+                    return uniqueQueries.stream().map(AlternativeModeTripDeduplicationTest::calculate).toList();
+                });
+
+        assertThat(calls).hasSize(1);
+        assertThat(calls.get(0)).extracting(AlternativeModeTripQuery::id).containsExactly("p1_0", "p3_0", "p4_0");
+
+        assertThat(results).extracting(AlternativeModeTripData::id).containsExactly("p1_0", "p2_0", "p3_0", "p4_0", "p5_0");
+        assertThat(results).extracting(AlternativeModeTripData::departureTime).containsExactly(3600., 3659., 3660., 3600., 3620.);
+        // the travel times of the duplicates are the ones of the calculated trip
+        assertThat(results).extracting(AlternativeModeTripData::actualTotalTravelTime).containsExactly(3600., 3600., 3660., 3600., 3600.);
+        assertThat(results.get(3).fromCoord()).isEqualTo(nodeB.getCoord());
+    }
+
+    @Test
+    public void testNoQueries() {
+        List<AlternativeModeTripData> results = AlternativeModeTripDeduplication.calculateAlternativeTripData(List.of(), 60,
+                uniqueQueries -> {
+                    throw new AssertionError("No calculation expected");
+                });
+        assertThat(results).isEmpty();
+    }
+
+    // the travel time encodes the departure time of the calculated trip
+    private static AlternativeModeTripData calculate(AlternativeModeTripQuery query) {
+        return new AlternativeModeTripData(query.id(), query.departureTime(), query.fromLink().getToNode().getCoord(),
+                query.toLink().getToNode().getCoord(), 100, query.departureTime(), TransportMode.walk, 0);
+    }
+}
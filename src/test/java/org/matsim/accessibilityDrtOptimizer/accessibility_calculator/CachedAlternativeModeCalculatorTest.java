@@ -0,0 +1,143 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachedAlternativeModeCalculatorTest {
+    private static final double DEPARTURE_TIME = 8 * 3600;
+    private static final long SECOND = 1_000_000_000L;
+
+    private Scenario scenario;
+    private SwissRailRaptor raptor;
+    private Link linkA;
+    private Link linkB;
+    private Link linkC;
+    private final AtomicLong clock = new AtomicLong();
+
+    @Before
+    public void setUp() {
+        Config config = ConfigUtils.loadConfig(IOUtils.extendUrl(ExamplesUtils.getTestScenarioURL("pt-tutorial"), "0.config.xml"));
+        config.transit().setUseTransit(true);
+        scenario = ScenarioUtils.loadScenario(config);
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), scenario.getTransitVehicles(),
+                RaptorUtils.createStaticConfig(config), scenario.getNetwork(), null);
+        raptor = new SwissRailRaptor.Builder(data, config).build();
+        List<Link> links = new ArrayList<>(scenario.getNetwork().getLinks().values());
+        linkA = links.get(0);
+        linkB = links.get(links.size() / 2);
+        linkC = links.get(links.size() - 1);
+    }
+
+    private AlternativeModeCalculator createCalculator() {
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        return new AlternativeModeCalculator(raptor, scenario.getNetwork(), travelTime, new TimeAsTravelDisutility(travelTime));
+    }
+
+    private CachedAlternativeModeCalculator createCachedCalculator(int maxSize, double timeToLive) {
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        return new CachedAlternativeModeCalculator(raptor, scenario.getNetwork(), travelTime, new TimeAsTravelDisutility(travelTime),
+                new SpeedyALTFactory(), null, null, maxSize, 60, timeToLive, clock::get);
+    }
+
+    @Test
+    public void testHitsAcrossQueries() {
+        AlternativeModeTripData expected = createCalculator().calculateAlternativeTripData("expected", linkA, linkB, DEPARTURE_TIME);
+        CachedAlternativeModeCalculator calculator = createCachedCalculator(100, 0);
+
+        AlternativeModeTripData first = calculator.calculateAlternativeTripData("first", linkA, linkB, DEPARTURE_TIME);
+        assertThat(first).isEqualTo(new AlternativeModeTripData("first", DEPARTURE_TIME, expected.fromCoord(), expected.toCoord(),
+                expected.directCarTravelTime(), expected.actualTotalTravelTime(), expected.mode(), expected.totalWalkDistance()));
+        assertThat(calculator.getMisses()).isEqualTo(1);
+        assertThat(calculator.getHits()).isEqualTo(0);
+
+        // same time bin, same trip data except for the id and the departure time
+        AlternativeModeTripData second = calculator.calculateAlternativeTripData("second", linkA, linkB, DEPARTURE_TIME + 30);
+        assertThat(second.id()).isEqualTo("second");
+        assertThat(second.departureTime()).isEqualTo(DEPARTURE_TIME + 30);
+        assertThat(second.actualTotalTravelTime()).isEqualTo(expected.actualTotalTravelTime());
+        assertThat(second.directCarTravelTime()).isEqualTo(expected.directCarTravelTime());
+        assertThat(calculator.getHits()).isEqualTo(1);
+
+        // with a known direct ride time (optimizer)
+        AlternativeModeTripData withDirectTime = calculator.calculateAlternativeTripData("third", linkA, linkB, DEPARTURE_TIME, 123);
+        assertThat(withDirectTime.directCarTravelTime()).isEqualTo(123);
+        assertThat(withDirectTime.actualTotalTravelTime()).isEqualTo(expected.actualTotalTravelTime());
+        assertThat(calculator.getHits()).isEqualTo(2);
+
+        // threshold-bounded query (optimizer)
+        BoundedTravelTime bounded = calculator.calculateBoundedTravelTime(linkA, linkB, DEPARTURE_TIME, Double.POSITIVE_INFINITY, true);
+        assertThat(bounded.travelTime()).isEqualTo(expected.actualTotalTravelTime());
+        assertThat(calculator.getHits()).isEqualTo(3);
+
+        // low-allocation variant
+        AlternativeModeResultSink sink = new AlternativeModeResultSink(1);
+        calculator.calculateAlternativeTripData(linkA, linkB, DEPARTURE_TIME, sink, 0);
+        assertThat(sink.actualTotalTravelTime(0)).isEqualTo(expected.actualTotalTravelTime());
+        assertThat(sink.directCarTravelTime(0)).isEqualTo(expected.directCarTravelTime());
+        assertThat(calculator.getHits()).isEqualTo(4);
+        assertThat(calculator.getMisses()).isEqualTo(1);
+
+        // other time bin, other trip
+        calculator.calculateAlternativeTripData("fourth", linkA, linkB, DEPARTURE_TIME + 60);
+        calculator.calculateAlternativeTripData("fifth", linkB, linkA, DEPARTURE_TIME);
+        assertThat(calculator.getMisses()).isEqualTo(3);
+        assertThat(calculator.getSize()).isEqualTo(3);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        CachedAlternativeModeCalculator calculator = createCachedCalculator(2, 0);
+        calculator.calculateAlternativeTripData("1", linkA, linkB, DEPARTURE_TIME);
+        calculator.calculateAlternativeTripData("2", linkA, linkC, DEPARTURE_TIME);
+        // A-B is used more recently than A-C
+        calculator.calculateAlternativeTripData("3", linkA, linkB, DEPARTURE_TIME);
+        // evicts A-C
+        calculator.calculateAlternativeTripData("4", linkB, linkC, DEPARTURE_TIME);
+        assertThat(calculator.getSize()).isEqualTo(2);
+        assertThat(calculator.getMisses()).isEqualTo(3);
+        assertThat(calculator.getHits()).isEqualTo(1);
+
+        calculator.calculateAlternativeTripData("5", linkA, linkB, DEPARTURE_TIME);
+        assertThat(calculator.getHits()).isEqualTo(2);
+        calculator.calculateAlternativeTripData("6", linkA, linkC, DEPARTURE_TIME);
+        assertThat(calculator.getMisses()).isEqualTo(4);
+    }
+
+    @Test
+    public void testTimeToLive() {
+        CachedAlternativeModeCalculator calculator = createCachedCalculator(100, 10);
+        calculator.calculateAlternativeTripData("1", linkA, linkB, DEPARTURE_TIME);
+
+        clock.addAndGet(5 * SECOND);
+        calculator.calculateAlternativeTripData("2", linkA, linkB, DEPARTURE_TIME);
+        assertThat(calculator.getHits()).isEqualTo(1);
+        assertThat(calculator.getExpirations()).isEqualTo(0);
+
+        clock.addAndGet(10 * SECOND);
+        calculator.calculateAlternativeTripData("3", linkA, linkB, DEPARTURE_TIME);
+        assertThat(calculator.getHits()).isEqualTo(1);
+        assertThat(calculator.getMisses()).isEqualTo(2);
+        assertThat(calculator.getExpirations()).isEqualTo(1);
+        assertThat(calculator.getSize()).isEqualTo(1);
+    }
+}
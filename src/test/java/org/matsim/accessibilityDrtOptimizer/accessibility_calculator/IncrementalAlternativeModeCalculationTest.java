@@ -0,0 +1,150 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IncrementalAlternativeModeCalculationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Config config;
+    private Scenario scenario;
+    private Link link1;
+    private Link link2;
+    private Path output;
+
+    /**
+     * Fake calculator, which records the calculated trips. The result depends on the trip key only.
+     */
+    private final List<String> calculatedTrips = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        config = ConfigUtils.createConfig();
+        scenario = ScenarioUtils.createScenario(config);
+        Network network = scenario.getNetwork();
+        Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(0, 0));
+        Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(1000, 0));
+        Node c = NetworkUtils.createAndAddNode(network, Id.createNodeId("c"), new Coord(2000, 0));
+        link1 = NetworkUtils.createAndAddLink(network, Id.createLinkId("ab"), a, b, 1000, 10, 1000, 1);
+        link2 = NetworkUtils.createAndAddLink(network, Id.createLinkId("bc"), b, c, 1000, 10, 1000, 1);
+        output = folder.getRoot().toPath().resolve("alternative-mode-data.bin");
+    }
+
+    private String fingerprint(String... options) {
+        return IncrementalAlternativeModeCalculation.fingerprint(scenario.getNetwork(), scenario.getTransitSchedule(), config, options);
+    }
+
+    private List<AlternativeModeTripData> calculate(List<AlternativeModeTripQuery> queries) {
+        List<AlternativeModeTripData> results = new ArrayList<>();
+        for (AlternativeModeTripQuery query : queries) {
+            calculatedTrips.add(query.id());
+            results.add(new AlternativeModeTripData(query.id(), query.departureTime(), query.fromLink().getToNode().getCoord(),
+                    query.toLink().getToNode().getCoord(), 100 + query.departureTime() / 60, 200 + query.departureTime() / 60,
+                    TransportMode.pt, 300));
+        }
+        return results;
+    }
+
+    private List<AlternativeModeTripData> run(List<AlternativeModeTripQuery> queries, String fingerprint) throws IOException {
+        IncrementalAlternativeModeCalculation incrementalCalculation = new IncrementalAlternativeModeCalculation(output, fingerprint);
+        List<AlternativeModeTripData> results = incrementalCalculation.calculateAlternativeTripData(queries, this::calculate);
+        AlternativeModeTripDataStore.write(results, output);
+        incrementalCalculation.writeKeys(queries);
+        return results;
+    }
+
+    @Test
+    public void testUnchangedTripsAreReused() throws IOException {
+        List<AlternativeModeTripData> previousResults = run(List.of(
+                new AlternativeModeTripQuery("person_1_0", link1, link2, 3600),
+                new AlternativeModeTripQuery("person_2_0", link2, link1, 7200)), fingerprint("0"));
+        assertThat(calculatedTrips).containsExactly("person_1_0", "person_2_0");
+
+        calculatedTrips.clear();
+        List<AlternativeModeTripQuery> queries = List.of(
+                // same key, other person: the row is reused with the new id
+                new AlternativeModeTripQuery("person_3_0", link1, link2, 3600),
+                // changed departure time
+                new AlternativeModeTripQuery("person_2_0", link2, link1, 7500));
+        List<AlternativeModeTripData> results = run(queries, fingerprint("0"));
+        assertThat(calculatedTrips).containsExactly("person_2_0");
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).id()).isEqualTo("person_3_0");
+        assertThat(results.get(0).departureTime()).isEqualTo(3600);
+        assertThat(results.get(0).actualTotalTravelTime()).isEqualTo(previousResults.get(0).actualTotalTravelTime());
+        assertThat(results.get(0).directCarTravelTime()).isEqualTo(previousResults.get(0).directCarTravelTime());
+        assertThat(results.get(1)).isEqualTo(calculate(List.of(queries.get(1))).get(0));
+
+        // The output of a fully reused run can be reused again
+        calculatedTrips.clear();
+        assertThat(run(queries, fingerprint("0"))).containsExactlyElementsOf(results);
+        assertThat(calculatedTrips).isEmpty();
+    }
+
+    @Test
+    public void testFingerprintMismatchRecalculatesAllTrips() throws IOException {
+        List<AlternativeModeTripQuery> queries = List.of(
+                new AlternativeModeTripQuery("person_1_0", link1, link2, 3600),
+                new AlternativeModeTripQuery("person_2_0", link2, link1, 7200));
+        run(queries, fingerprint("0"));
+
+        // other calculation options
+        calculatedTrips.clear();
+        run(queries, fingerprint("1"));
+        assertThat(calculatedTrips).containsExactly("person_1_0", "person_2_0");
+
+        // changed network
+        String previousFingerprint = fingerprint("1");
+        link1.setFreespeed(5);
+        assertThat(fingerprint("1")).isNotEqualTo(previousFingerprint);
+        calculatedTrips.clear();
+        run(queries, fingerprint("1"));
+        assertThat(calculatedTrips).containsExactly("person_1_0", "person_2_0");
+    }
+
+    @Test
+    public void testStaleKeysAreDeleted() throws IOException {
+        List<AlternativeModeTripQuery> queries = List.of(new AlternativeModeTripQuery("person_1_0", link1, link2, 3600));
+        run(queries, fingerprint("0"));
+        Path keysPath = Path.of(output + ".keys.tsv");
+        assertThat(keysPath).exists();
+
+        // A non-incremental run rewrites the output (here with other results) and deletes the keys
+        AlternativeModeTripDataStore.write(List.of(new AlternativeModeTripData("person_1_0", 3600, new Coord(0, 0),
+                new Coord(0, 0), 1, 1, TransportMode.walk, 1)), output);
+        IncrementalAlternativeModeCalculation.deleteKeys(output);
+        assertThat(Files.exists(keysPath)).isFalse();
+
+        calculatedTrips.clear();
+        List<AlternativeModeTripData> results = run(queries, fingerprint("0"));
+        assertThat(calculatedTrips).containsExactly("person_1_0");
+        assertThat(results).containsExactlyElementsOf(calculate(queries));
+
+        // Deleting missing keys is fine
+        Files.delete(keysPath);
+        IncrementalAlternativeModeCalculation.deleteKeys(output);
+    }
+}
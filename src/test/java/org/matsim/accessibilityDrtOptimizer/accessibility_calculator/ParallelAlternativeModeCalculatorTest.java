@@ -0,0 +1,80 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelAlternativeModeCalculatorTest {
+    private static final int THREADS = 4;
+    // more trips than one chunk per worker, so that all the workers are used
+    private static final int NUM_TRIPS = 600;
+    // few origin links, so that trips are grouped by a departure window
+    private static final int NUM_ORIGIN_LINKS = 10;
+
+    private Scenario scenario;
+    private SwissRailRaptorData data;
+    private final List<AlternativeModeTripQuery> queries = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Config config = ConfigUtils.loadConfig(IOUtils.extendUrl(ExamplesUtils.getTestScenarioURL("pt-tutorial"), "0.config.xml"));
+        config.transit().setUseTransit(true);
+        scenario = ScenarioUtils.loadScenario(config);
+        data = SwissRailRaptorData.create(scenario.getTransitSchedule(), scenario.getTransitVehicles(),
+                RaptorUtils.createStaticConfig(config), scenario.getNetwork(), null);
+
+        List<Link> links = new ArrayList<>(scenario.getNetwork().getLinks().values());
+        for (int i = 0; i < NUM_TRIPS; i++) {
+            Link fromLink = links.get(i % NUM_ORIGIN_LINKS * links.size() / NUM_ORIGIN_LINKS);
+            Link toLink = links.get((i * 7 + 3) % links.size());
+            queries.add(new AlternativeModeTripQuery("person_" + i, fromLink, toLink, 7 * 3600 + (i * 37) % 7200));
+        }
+    }
+
+    private List<AlternativeModeTripData> calculate(int threads, TransitStopProximityIndex stopIndex, double departureWindow) {
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        return new ParallelAlternativeModeCalculator(data, scenario.getConfig(), scenario.getNetwork(), stopIndex, travelTime,
+                new TimeAsTravelDisutility(travelTime), threads, departureWindow).calculateAlternativeTripData(queries);
+    }
+
+    @Test
+    public void testSameRowsForAnyNumberOfThreads() {
+        List<AlternativeModeTripData> serial = calculate(1, null, 0);
+        assertThat(serial).hasSize(NUM_TRIPS);
+        for (int i = 0; i < NUM_TRIPS; i++) {
+            assertThat(serial.get(i).id()).isEqualTo(queries.get(i).id());
+        }
+        assertThat(serial).anyMatch(tripData -> tripData.mode().equals(TransportMode.pt));
+
+        assertThat(calculate(THREADS, null, 0)).containsExactlyElementsOf(serial);
+    }
+
+    @Test
+    public void testSameRowsForAnyNumberOfThreadsWithDepartureWindow() {
+        TransitStopProximityIndex stopIndex = new TransitStopProximityIndex(scenario.getTransitSchedule());
+        List<AlternativeModeTripData> serial = calculate(1, stopIndex, 1800);
+        assertThat(serial).hasSize(NUM_TRIPS);
+        for (int i = 0; i < NUM_TRIPS; i++) {
+            assertThat(serial.get(i).id()).isEqualTo(queries.get(i).id());
+        }
+
+        assertThat(calculate(THREADS, stopIndex, 1800)).containsExactlyElementsOf(serial);
+    }
+}
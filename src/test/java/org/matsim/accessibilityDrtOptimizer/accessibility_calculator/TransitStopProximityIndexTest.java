@@ -0,0 +1,129 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransitStopProximityIndexTest {
+    @Test
+    public void testStopsWithinWalkRadius() {
+        TransitSchedule schedule = ScenarioUtils.createScenario(ConfigUtils.createConfig()).getTransitSchedule();
+        TransitScheduleFactory factory = schedule.getFactory();
+        TransitStopFacility stopA = factory.createTransitStopFacility(Id.create("a", TransitStopFacility.class), new Coord(0, 0), false);
+        TransitStopFacility stopB = factory.createTransitStopFacility(Id.create("b", TransitStopFacility.class), new Coord(1000, 0), false);
+        schedule.addStopFacility(stopA);
+        schedule.addStopFacility(stopB);
+        // 1000 m in 100 s
+        TransitRoute route = factory.createTransitRoute(Id.create("route", TransitRoute.class), null,
+                List.of(factory.createTransitRouteStop(stopA, 0, 0), factory.createTransitRouteStop(stopB, 100, 100)), TransportMode.pt);
+        TransitLine line = factory.createTransitLine(Id.create("line", TransitLine.class));
+        line.addRoute(route);
+        schedule.addTransitLine(line);
+
+        Network network = NetworkUtils.createNetwork();
+        Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(-100, 0));
+        Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(100, 0));
+        Node nodeC = NetworkUtils.createAndAddNode(network, Id.createNodeId("c"), new Coord(5000, 0));
+        Link nearLink = NetworkUtils.createAndAddLink(network, Id.createLinkId("near"), nodeA, nodeB, 200, 10, 1000, 1);
+        Link farLink = NetworkUtils.createAndAddLink(network, Id.createLinkId("far"), nodeB, nodeC, 4900, 10, 1000, 1);
+
+        TransitStopProximityIndex stopIndex = new TransitStopProximityIndex(schedule, network, 300);
+        assertThat(stopIndex.hasLinkIndex()).isTrue();
+        assertThat(stopIndex.hasStopWithinWalkRadius(nearLink)).isTrue();
+        assertThat(stopIndex.hasStopWithinWalkRadius(farLink)).isFalse();
+        assertThat(stopIndex.getDistanceToNearestStop(new Coord(5000, 0))).isEqualTo(4000);
+        assertThat(stopIndex.getStopsWithinRadius(new Coord(500, 0), 600)).containsExactlyInAnyOrder(stopA, stopB);
+        assertThat(stopIndex.getMaxTransitSpeed()).isEqualTo(10);
+
+        TransitStopProximityIndex emptyIndex = new TransitStopProximityIndex(
+                ScenarioUtils.createScenario(ConfigUtils.createConfig()).getTransitSchedule());
+        assertThat(emptyIndex.hasLinkIndex()).isFalse();
+        assertThat(emptyIndex.getDistanceToNearestStop(new Coord(0, 0))).isInfinite();
+    }
+
+    @Test
+    public void testSkippedAndRoutedTrips() {
+        Config config = ConfigUtils.loadConfig(IOUtils.extendUrl(ExamplesUtils.getTestScenarioURL("pt-tutorial"), "0.config.xml"));
+        config.transit().setUseTransit(true);
+        Scenario scenario = ScenarioUtils.loadScenario(config);
+        Network network = scenario.getNetwork();
+        TransitSchedule schedule = scenario.getTransitSchedule();
+
+        List<Link> links = new ArrayList<>();
+        List<Link> allLinks = new ArrayList<>(network.getLinks().values());
+        for (int i = 0; i < allLinks.size(); i += Math.max(1, allLinks.size() / 20)) {
+            links.add(allLinks.get(i));
+        }
+        // walk radius with about half of the links without a stop in the radius
+        TransitStopProximityIndex stopsOnly = new TransitStopProximityIndex(schedule);
+        double[] stopDistances = links.stream().mapToDouble(link -> stopsOnly.getDistanceToNearestStop(link.getToNode().getCoord())).toArray();
+        Arrays.sort(stopDistances);
+        double walkRadius = stopDistances[stopDistances.length / 2];
+        TransitStopProximityIndex stopIndex = new TransitStopProximityIndex(schedule, network, walkRadius);
+
+        SwissRailRaptorData data = SwissRailRaptorData.create(schedule, scenario.getTransitVehicles(),
+                RaptorUtils.createStaticConfig(config), network, null);
+        SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        AlternativeModeCalculator routingCalculator = new AlternativeModeCalculator(raptor, network, travelTime,
+                new TimeAsTravelDisutility(travelTime), new SpeedyALTFactory());
+        AlternativeModeCalculator skippingCalculator = new AlternativeModeCalculator(raptor, network, travelTime,
+                new TimeAsTravelDisutility(travelTime), new SpeedyALTFactory(), stopIndex);
+
+        int routedTrips = 0;
+        int skippedTrips = 0;
+        double departureTime = 8 * 3600;
+        for (Link fromLink : links) {
+            for (Link toLink : links) {
+                AlternativeModeTripData routed = routingCalculator.calculateAlternativeTripData("trip", fromLink, toLink, departureTime);
+                AlternativeModeTripData skipped = skippingCalculator.calculateAlternativeTripData("trip", fromLink, toLink, departureTime);
+                if (stopIndex.hasStopWithinWalkRadius(fromLink) && stopIndex.hasStopWithinWalkRadius(toLink)) {
+                    // the raptor is called: same result
+                    assertThat(skipped).isEqualTo(routed);
+                    routedTrips++;
+                } else {
+                    // walk trip without calling the raptor (approximation: the raptor may have found a PT route)
+                    double walkDistance = CoordUtils.calcEuclideanDistance(fromLink.getToNode().getCoord(), toLink.getToNode().getCoord()) *
+                            AlternativeModeCalculator.WALK_BEELINE_DISTANCE_FACTOR;
+                    assertThat(skipped.mode()).isEqualTo(TransportMode.walk);
+                    assertThat(skipped.totalWalkDistance()).isEqualTo(walkDistance);
+                    assertThat(skipped.actualTotalTravelTime()).isEqualTo(walkDistance / AlternativeModeCalculator.WALK_SPEED);
+                    assertThat(skipped.directCarTravelTime()).isEqualTo(routed.directCarTravelTime());
+                    skippedTrips++;
+                }
+            }
+        }
+        assertThat(routedTrips).isPositive();
+        assertThat(skippedTrips).isPositive();
+    }
+}
@@ -0,0 +1,34 @@
+package org.matsim.accessibilityDrtOptimizer.accessibility_calculator;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TravelTimeProfileTest {
+    // connections (unsorted): 600 -> 1500, 100 -> 1000, 300 -> 900 (overtakes the first one), 300 -> 1200
+    private static final TravelTimeProfile PROFILE = TravelTimeProfile.of(0, 1000, 1000,
+            new double[]{600, 100, 300, 300}, new double[]{1500, 1000, 900, 1200});
+
+    @Test
+    public void testEarliestArrival() {
+        // wait for the connection at 100
+        assertThat(PROFILE.getTravelTime(0)).isEqualTo(900);
+        // the connection at 300 arrives before the one at 100
+        assertThat(PROFILE.getTravelTime(100)).isEqualTo(800);
+        assertThat(PROFILE.getTravelTime(200)).isEqualTo(700);
+        // of the connections departing at the same time, the earliest arrival is used
+        assertThat(PROFILE.getTravelTime(300)).isEqualTo(600);
+        // the direct walk is faster than the connection at 600
+        assertThat(PROFILE.getTravelTime(400)).isEqualTo(1000);
+        assertThat(PROFILE.getTravelTime(600)).isEqualTo(900);
+    }
+
+    @Test
+    public void testOutsideOfTheWindow() {
+        assertThat(PROFILE.covers(-1)).isFalse();
+        assertThat(PROFILE.getTravelTime(-1)).isNaN();
+        assertThat(PROFILE.getTravelTime(1001)).isNaN();
+        // no later connection within the window
+        assertThat(PROFILE.getTravelTime(700)).isNaN();
+    }
+}
@@ -0,0 +1,42 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.Controler;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DirtyScheduleTimingUpdaterTest {
+    @Rule
+    public MatsimTestUtils utils = new MatsimTestUtils();
+
+    /**
+     * In the verification mode, the dirty-set-based updates are cross-checked against a full sweep over the fleet after
+     * each sim step. No vehicle outdated after the full sweep may be missed by the dirty set.
+     */
+    @Test
+    public void testDirtyUpdatesMatchFullSweep() {
+        Config config = MielecOptimizerTestUtils.loadConfig(utils.getOutputDirectory());
+        List<DirtyScheduleTimingUpdater> updaters = new ArrayList<>();
+        Controler controler = MielecOptimizerTestUtils.createControler(config, getter -> {
+            DirtyScheduleTimingUpdater updater = new DirtyScheduleTimingUpdater(getter.getModal(Fleet.class),
+                    getter.getModal(ScheduleTimingUpdater.class), true);
+            updaters.add(updater);
+            return new DefaultDrtOptimizerWithRejection.OptionalComponents().setDirtyScheduleTimingUpdater(updater);
+        });
+        controler.run();
+
+        assertThat(updaters).isNotEmpty();
+        for (DirtyScheduleTimingUpdater updater : updaters) {
+            assertThat(updater.getUpdatedVehicles()).isPositive();
+            assertThat(updater.getMissedVehicles()).isZero();
+        }
+    }
+}
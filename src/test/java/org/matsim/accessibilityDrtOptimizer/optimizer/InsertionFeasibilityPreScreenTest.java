@@ -0,0 +1,114 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.drt.optimizer.constraints.DefaultDrtOptimizationConstraintsSet;
+import org.matsim.contrib.drt.passenger.DrtRequest;
+import org.matsim.contrib.drt.run.DrtConfigGroup;
+import org.matsim.contrib.drt.run.MultiModeDrtConfigGroup;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.contrib.dvrp.passenger.PassengerRequestScheduledEventHandler;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InsertionFeasibilityPreScreenTest {
+    // short enough that some requests cannot be reached by any vehicle
+    private static final double MAX_WAIT_TIME = 60;
+
+    @Rule
+    public MatsimTestUtils utils = new MatsimTestUtils();
+
+    private record ScreenedRequest(Id<Request> requestId, double time) {
+    }
+
+    /**
+     * Records the requests found infeasible, but still passes them to the insertion search.
+     */
+    private static class RecordingPreScreen extends InsertionFeasibilityPreScreen {
+        private final List<ScreenedRequest> infeasibleRequests = new ArrayList<>();
+        private double now;
+
+        RecordingPreScreen(Network network, Fleet fleet) {
+            super(network, fleet, DEFAULT_CELL_SIZE);
+        }
+
+        @Override
+        public void updateVehiclePositions(double now) {
+            super.updateVehiclePositions(now);
+            this.now = now;
+        }
+
+        @Override
+        public boolean isPotentiallyFeasible(DrtRequest request) {
+            if (!super.isPotentiallyFeasible(request)) {
+                infeasibleRequests.add(new ScreenedRequest(request.getId(), now));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The pre-screen is a lower bound: the insertion search must not find an insertion for a request that the
+     * pre-screen found infeasible (in the same sim step).
+     */
+    @Test
+    public void testInfeasibleRequestsAreNotInserted() {
+        Config config = MielecOptimizerTestUtils.loadConfig(utils.getOutputDirectory());
+        for (DrtConfigGroup drtCfg : MultiModeDrtConfigGroup.get(config).getModalElements()) {
+            DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtCfg
+                    .addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
+            constraints.maxWaitTime = MAX_WAIT_TIME;
+            constraints.rejectRequestIfMaxWaitOrTravelTimeViolated = true;
+            assertThat(InsertionFeasibilityPreScreen.hasHardConstraints(drtCfg)).isTrue();
+        }
+
+        List<RecordingPreScreen> preScreens = new ArrayList<>();
+        Set<ScreenedRequest> scheduledRequests = ConcurrentHashMap.newKeySet();
+        Controler controler = MielecOptimizerTestUtils.createControler(config, getter -> {
+            RecordingPreScreen preScreen = new RecordingPreScreen(getter.getModal(Network.class), getter.getModal(Fleet.class));
+            preScreens.add(preScreen);
+            return new DefaultDrtOptimizerWithRejection.OptionalComponents().setFeasibilityPreScreen(preScreen);
+        });
+        controler.addOverridingModule(new AbstractModule() {
+            @Override
+            public void install() {
+                addEventHandlerBinding().toInstance((PassengerRequestScheduledEventHandler) event ->
+                        scheduledRequests.add(new ScreenedRequest(event.getRequestId(), event.getTime())));
+            }
+        });
+        controler.run();
+
+        assertThat(preScreens).isNotEmpty();
+        for (RecordingPreScreen preScreen : preScreens) {
+            assertThat(preScreen.getScreenedRequests()).isPositive();
+            assertThat(preScreen.getInfeasibleRequests()).isPositive();
+            assertThat(preScreen.getInfeasibleRequests()).isEqualTo(preScreen.infeasibleRequests.size());
+            assertThat(preScreen.infeasibleRequests).doesNotContainAnyElementsOf(scheduledRequests);
+        }
+    }
+
+    @Test
+    public void testSoftConstraintsAreDetected() {
+        DrtConfigGroup drtCfg = new DrtConfigGroup();
+        DefaultDrtOptimizationConstraintsSet constraints = (DefaultDrtOptimizationConstraintsSet) drtCfg
+                .addOrGetDrtOptimizationConstraintsParams().addOrGetDefaultDrtOptimizationConstraintsSet();
+        constraints.rejectRequestIfMaxWaitOrTravelTimeViolated = true;
+        assertThat(InsertionFeasibilityPreScreen.hasHardConstraints(drtCfg)).isTrue();
+
+        // constraints of PersonAttributeBasedConstraintSelector: late pickups are inserted with a penalty
+        PersonAttributeBasedConstraintSelector.prepareDrtConstraint(drtCfg, 1.5, 300, 600, 1.2, 120, 300);
+        assertThat(InsertionFeasibilityPreScreen.hasHardConstraints(drtCfg)).isFalse();
+    }
+}
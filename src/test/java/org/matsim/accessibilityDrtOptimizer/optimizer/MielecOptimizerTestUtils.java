@@ -0,0 +1,96 @@
+package org.matsim.accessibilityDrtOptimizer.optimizer;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeCalculator;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.drt.optimizer.DrtOptimizer;
+import org.matsim.contrib.drt.optimizer.DrtRequestInsertionRetryQueue;
+import org.matsim.contrib.drt.optimizer.depot.DepotFinder;
+import org.matsim.contrib.drt.optimizer.insertion.UnplannedRequestInserter;
+import org.matsim.contrib.drt.optimizer.rebalancing.RebalancingStrategy;
+import org.matsim.contrib.drt.run.DrtConfigGroup;
+import org.matsim.contrib.drt.run.DrtControlerCreator;
+import org.matsim.contrib.drt.run.MultiModeDrtConfigGroup;
+import org.matsim.contrib.drt.scheduler.DrtScheduleInquiry;
+import org.matsim.contrib.drt.scheduler.EmptyVehicleRelocator;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.run.AbstractDvrpModeQSimModule;
+import org.matsim.contrib.dvrp.run.DvrpConfigGroup;
+import org.matsim.contrib.dvrp.run.DvrpMode;
+import org.matsim.contrib.dvrp.run.ModalProviders;
+import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.mobsim.framework.MobsimTimer;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One iteration of the mielec DRT scenario with {@link DefaultDrtOptimizerWithRejection} as the optimizer, for testing
+ * the optional components of the optimizer.
+ */
+final class MielecOptimizerTestUtils {
+    private MielecOptimizerTestUtils() {
+    }
+
+    static Config loadConfig(String outputDirectory) {
+        Config config = ConfigUtils.loadConfig(IOUtils.extendUrl(ExamplesUtils.getTestScenarioURL("mielec"), "mielec_drt_config.xml"),
+                new MultiModeDrtConfigGroup(), new DvrpConfigGroup());
+        config.controller().setOutputDirectory(outputDirectory);
+        config.controller().setOverwriteFileSetting(OutputDirectoryHierarchy.OverwriteFileSetting.deleteDirectoryIfExists);
+        config.controller().setLastIteration(0);
+        return config;
+    }
+
+    /**
+     * The optimizer does not reject any request (threshold 0), so that all requests go through the insertion search.
+     *
+     * @param optionalComponents creates the optional components of the optimizer (called once per mobsim and mode)
+     */
+    static Controler createControler(Config config,
+                                     Function<ModalProviders.InstanceGetter<DvrpMode>, DefaultDrtOptimizerWithRejection.OptionalComponents> optionalComponents) {
+        Controler controler = DrtControlerCreator.createControler(config, false);
+        for (DrtConfigGroup drtCfg : MultiModeDrtConfigGroup.get(config).getModalElements()) {
+            controler.addOverridingQSimModule(new AbstractDvrpModeQSimModule(drtCfg.mode) {
+                @Override
+                protected void configureQSim() {
+                    addModalComponent(DrtOptimizer.class, modalProvider(
+                            getter -> new DefaultDrtOptimizerWithRejection(drtCfg, getter.getModal(Fleet.class), getter.get(MobsimTimer.class),
+                                    getter.getModal(DepotFinder.class), getter.getModal(RebalancingStrategy.class),
+                                    getter.getModal(DrtScheduleInquiry.class), getter.getModal(ScheduleTimingUpdater.class),
+                                    getter.getModal(EmptyVehicleRelocator.class), getter.getModal(UnplannedRequestInserter.class),
+                                    getter.getModal(DrtRequestInsertionRetryQueue.class),
+                                    createCalculators(getter.get(Scenario.class), getter.getModal(Network.class)), 0,
+                                    getter.get(EventsManager.class), getter.getModal(TimeVaryingRejectionThreshold.class),
+                                    optionalComponents.apply(getter))));
+                    bindModal(TimeVaryingRejectionThreshold.class).toProvider(modalProvider(
+                            getter -> new TimeVaryingRejectionThreshold(getter.getModal(Fleet.class),
+                                    getter.getModal(DrtScheduleInquiry.class), false)));
+                }
+            });
+        }
+        return controler;
+    }
+
+    private static List<AlternativeModeCalculator> createCalculators(Scenario scenario, Network network) {
+        Config config = scenario.getConfig();
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), scenario.getTransitVehicles(),
+                RaptorUtils.createStaticConfig(config), scenario.getNetwork(), null);
+        TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+        return List.of(new AlternativeModeCalculator(new SwissRailRaptor.Builder(data, config).build(), network, travelTime,
+                new TimeAsTravelDisutility(travelTime), new SpeedyALTFactory()));
+    }
+}
@@ -0,0 +1,120 @@
+package org.matsim.accessibilityDrtOptimizer.prepare;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripData;
+import org.matsim.accessibilityDrtOptimizer.accessibility_calculator.AlternativeModeTripDataStore;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MergeAlternativeModeDataTest {
+    private static final int NUM_PERSONS = 60;
+    private static final int NUM_SHARDS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final URL configUrl = IOUtils.extendUrl(ExamplesUtils.getTestScenarioURL("pt-tutorial"), "0.config.xml");
+    private Path plans;
+
+    /**
+     * Trip-based plans (one trip per person) on the pt-tutorial network.
+     */
+    @Before
+    public void setUp() {
+        Scenario scenario = ScenarioUtils.loadScenario(ConfigUtils.loadConfig(configUrl));
+        List<Link> links = new ArrayList<>(scenario.getNetwork().getLinks().values());
+        Population population = ScenarioUtils.createScenario(ConfigUtils.createConfig()).getPopulation();
+        PopulationFactory factory = population.getFactory();
+        for (int i = 0; i < NUM_PERSONS; i++) {
+            Person person = factory.createPerson(Id.createPersonId("person_" + i));
+            Plan plan = factory.createPlan();
+            Activity origin = factory.createActivityFromLinkId("dummy", links.get(i * 11 % links.size()).getId());
+            origin.setEndTime(7 * 3600 + i * 60);
+            plan.addActivity(origin);
+            plan.addLeg(factory.createLeg(TransportMode.drt));
+            plan.addActivity(factory.createActivityFromLinkId("dummy", links.get((i * 7 + 3) % links.size()).getId()));
+            person.addPlan(plan);
+            population.addPerson(person);
+        }
+        plans = folder.getRoot().toPath().resolve("plans.xml");
+        new PopulationWriter(population).write(plans.toString());
+    }
+
+    private void prepare(Path output, String shard) {
+        int exitCode = new CommandLine(new PrepareAlternativeModeData()).execute("--config", configUrl.toString(),
+                "--plans", plans.toString(), "--output", output.toString(), "--shard", shard);
+        assertThat(exitCode).isZero();
+    }
+
+    private static List<AlternativeModeTripData> read(Path path) throws IOException {
+        AlternativeModeTripDataStore store = AlternativeModeTripDataStore.read(path);
+        List<AlternativeModeTripData> tripData = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            tripData.add(store.get(i));
+        }
+        return tripData;
+    }
+
+    @Test
+    public void testMergedShardsEqualUnshardedRun() throws IOException {
+        Path unsharded = folder.getRoot().toPath().resolve("alternative-mode-data.tsv");
+        prepare(unsharded, "");
+
+        List<String> shardPaths = new ArrayList<>();
+        for (int shard = 0; shard < NUM_SHARDS; shard++) {
+            Path shardPath = folder.getRoot().toPath().resolve("alternative-mode-data-" + shard + ".tsv");
+            prepare(shardPath, shard + "/" + NUM_SHARDS);
+            // each shard contains a part of the persons
+            assertThat(read(shardPath)).isNotEmpty().hasSizeLessThan(NUM_PERSONS);
+            shardPaths.add(shardPath.toString());
+        }
+
+        Path merged = folder.getRoot().toPath().resolve("merged.tsv");
+        Path mergedBinary = folder.getRoot().toPath().resolve("merged.bin");
+        int exitCode = new CommandLine(new MergeAlternativeModeData()).execute("--plans", plans.toString(),
+                "--shards", String.join(",", shardPaths), "--output", merged.toString(), "--binary-output", mergedBinary.toString());
+        assertThat(exitCode).isZero();
+
+        List<AlternativeModeTripData> expected = read(unsharded);
+        assertThat(expected).hasSize(NUM_PERSONS);
+        assertThat(read(merged)).containsExactlyElementsOf(expected);
+        assertThat(read(mergedBinary)).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void testShardsInWrongOrderAreRejected() {
+        List<String> shardPaths = new ArrayList<>();
+        for (int shard = 0; shard < NUM_SHARDS; shard++) {
+            Path shardPath = folder.getRoot().toPath().resolve("alternative-mode-data-" + shard + ".tsv");
+            prepare(shardPath, shard + "/" + NUM_SHARDS);
+            shardPaths.add(0, shardPath.toString());
+        }
+        int exitCode = new CommandLine(new MergeAlternativeModeData()).execute("--plans", plans.toString(),
+                "--shards", String.join(",", shardPaths), "--output", folder.getRoot().toPath().resolve("merged.tsv").toString());
+        assertThat(exitCode).isNotZero();
+    }
+}